@@ -2,6 +2,7 @@ plugins {
     id("java")
     id("application")
     id("com.gradleup.shadow") version("8.3.0")
+    id("me.champeau.jmh") version("0.7.2")
 }
 
 group = "de.beyondblocks"
@@ -15,6 +16,10 @@ repositories {
 dependencies {
     implementation("se.llbit:chunky-core:2.4.6")
     implementation("org.json:json:20240303")
+
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 application {
@@ -26,6 +31,16 @@ java {
     targetCompatibility = JavaVersion.VERSION_17
 }
 
+tasks.test {
+    useJUnitPlatform()
+}
+
+jmh {
+    warmupIterations.set(2)
+    iterations.set(5)
+    fork.set(1)
+}
+
 tasks.shadowJar {
     archiveClassifier.set("")
     archiveVersion.set("")
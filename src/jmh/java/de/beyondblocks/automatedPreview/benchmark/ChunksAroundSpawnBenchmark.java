@@ -0,0 +1,35 @@
+package de.beyondblocks.automatedPreview.benchmark;
+
+import de.beyondblocks.automatedPreview.ChunkSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import se.llbit.chunky.world.ChunkPosition;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the square of chunks around spawn as a {@link ChunkSet}, and converting it to the positions Chunky loads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChunksAroundSpawnBenchmark {
+    @Param({"8", "32", "128"})
+    public int radius;
+
+    @Benchmark
+    public ChunkSet chunkSetSquare() {
+        return ChunkSet.square(100 >> 4, -200 >> 4, radius);
+    }
+
+    @Benchmark
+    public Collection<ChunkPosition> chunkPositions() {
+        return ChunkSet.square(100 >> 4, -200 >> 4, radius).toChunkPositions();
+    }
+}
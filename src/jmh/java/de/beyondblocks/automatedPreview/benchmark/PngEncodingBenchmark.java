@@ -0,0 +1,63 @@
+package de.beyondblocks.automatedPreview.benchmark;
+
+import de.beyondblocks.automatedPreview.PreviewFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a finished frame as PNG. The frame mimics a preview: transparent sky above smoothly shaded terrain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PngEncodingBenchmark {
+    @Param({"1920x1080", "4096x4096"})
+    public String size;
+
+    private PreviewFrame frame;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] dimensions = size.split("x");
+        frame = new PreviewFrame(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+        int width = frame.width();
+        int[] pixels = frame.pixels();
+        Random random = new Random(42);
+        for (int y = 0; y < frame.height(); y++) {
+            for (int x = 0; x < width; x++) {
+                if (y < SyntheticWorld.surfaceHeight(x, 0) * frame.height() / 128 - frame.height() / 4) {
+                    continue;
+                }
+                int shade = 96 + (x * 7 + y * 3) % 64 + random.nextInt(8);
+                pixels[y * width + x] = 0xFF000000 | shade / 2 << 16 | shade << 8 | shade / 3;
+            }
+        }
+        file = Files.createTempFile("preview", ".png").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public File writePng() throws IOException {
+        frame.writePng(file);
+        return file;
+    }
+}
@@ -0,0 +1,114 @@
+package de.beyondblocks.automatedPreview.benchmark;
+
+import de.beyondblocks.automatedPreview.ChunkSet;
+import de.beyondblocks.automatedPreview.ColumnHeightGrid;
+import de.beyondblocks.automatedPreview.FramedView;
+import de.beyondblocks.automatedPreview.PreviewView;
+import de.beyondblocks.automatedPreview.ViewFraming;
+import de.beyondblocks.automatedPreview.WorldAnalyser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.main.ChunkyOptions;
+import se.llbit.chunky.renderer.ConsoleProgressListener;
+import se.llbit.chunky.renderer.WorkerState;
+import se.llbit.chunky.renderer.scene.CustomPreviewRayTracer;
+import se.llbit.chunky.renderer.scene.HeightmapPreviewRayTracer;
+import se.llbit.chunky.renderer.scene.RayTracer;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.renderer.scene.ViewTracer;
+import se.llbit.chunky.world.World;
+import se.llbit.math.Ray;
+import se.llbit.util.TaskTracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pixels traced per second in the center of the first isometric view of a synthetic world. Chunky's built-in textures
+ * are used, so no Minecraft jar is needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PreviewTracerBenchmark {
+    private static final int CANVAS_SIZE = 512;
+    private static final int TILE_SIZE = 64;
+    private static final int MIN_Y = -64;
+    private static final int MAX_Y = 320;
+
+    @Param({"custom", "heightmap"})
+    public String tracer;
+
+    @Param({"8"})
+    public int radius;
+
+    private File worldDirectory;
+    private ViewTracer viewTracer;
+    private WorkerState state;
+    private int[] pixels;
+    private int x0;
+    private int y0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int side = 2 * radius + 1;
+        worldDirectory = SyntheticWorld.temporary(side * side, SyntheticWorld.COMPRESSION_ZLIB, 0.5);
+        ChunkSet chunks = ChunkSet.square(0, 0, radius);
+
+        Chunky chunky = new Chunky(ChunkyOptions.getDefaults());
+        Scene scene = chunky.getSceneFactory().newScene();
+        scene.setYClipMin(MIN_Y);
+        scene.setYClipMax(MAX_Y);
+        scene.setTransparentSky(true);
+        scene.initBuffers();
+        scene.setCanvasSize(CANVAS_SIZE, CANVAS_SIZE);
+
+        World world = World.loadWorld(worldDirectory, World.OVERWORLD_DIMENSION, World.LoggedWarnings.SILENT);
+        scene.loadChunks(new TaskTracker(new ConsoleProgressListener()), world, chunks.toChunkPositions());
+        scene.moveCameraToCenter();
+
+        ColumnHeightGrid heights = WorldAnalyser.readSurfaceHeights(new File(worldDirectory, "region"), chunks, 1);
+        List<FramedView> views = ViewFraming.frame(scene, PreviewView.ISOMETRIC,
+                ViewFraming.Bounds.of(heights, MIN_Y, MAX_Y), 0);
+        FramedView view = views.get(0);
+
+        RayTracer rayTracer = switch (tracer) {
+            case "custom" -> new CustomPreviewRayTracer(scene);
+            case "heightmap" -> new HeightmapPreviewRayTracer(scene, heights);
+            default -> throw new IllegalArgumentException("Unknown tracer: " + tracer);
+        };
+        viewTracer = new ViewTracer(scene, view.camera(), rayTracer, view.width(), view.height());
+
+        state = new WorkerState();
+        state.ray = new Ray();
+        state.random = new Random(0);
+        pixels = new int[view.width() * view.height()];
+        x0 = (view.width() - TILE_SIZE) / 2;
+        y0 = (view.height() - TILE_SIZE) / 2;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticWorld.delete(worldDirectory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TILE_SIZE * TILE_SIZE)
+    public int[] traceTile() {
+        viewTracer.trace(x0, y0, x0 + TILE_SIZE, y0 + TILE_SIZE, 1, false, pixels, state);
+        return pixels;
+    }
+}
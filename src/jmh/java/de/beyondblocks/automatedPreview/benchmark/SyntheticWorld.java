@@ -0,0 +1,268 @@
+package de.beyondblocks.automatedPreview.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a deterministic Minecraft 1.21 world (level.dat and region files) for the benchmarks, so they need neither a
+ * real world nor the network. The chunks fill a square around 0, 0 with rolling stone and grass terrain.
+ */
+public final class SyntheticWorld {
+    public static final int COMPRESSION_GZIP = 1;
+    public static final int COMPRESSION_ZLIB = 2;
+    public static final int COMPRESSION_NONE = 3;
+
+    private static final int DATA_VERSION = 3955; // 1.21.1
+    private static final int MIN_SECTION = -4;
+    private static final int SECTOR_SIZE = 4096;
+    private static final long INHABITED = 20 * 60 * 20; // One hour
+    private static final long UNINHABITED = 20;
+
+    private static final byte TAG_END = 0;
+    private static final byte TAG_BYTE = 1;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_STRING = 8;
+    private static final byte TAG_LIST = 9;
+    private static final byte TAG_COMPOUND = 10;
+    private static final byte TAG_LONG_ARRAY = 12;
+
+    private SyntheticWorld() {
+    }
+
+    /**
+     * @param chunkCount        Number of chunks, filled row by row into a square around 0, 0
+     * @param compression       One of the {@code COMPRESSION_} constants
+     * @param inhabitedDensity  Share of the chunks with an InhabitedTime above the analysis threshold, from 0 to 1
+     * @param seed              Same arguments and seed always produce the same files (except for the timestamps)
+     */
+    public static void generate(File worldDirectory, int chunkCount, int compression, double inhabitedDensity, long seed)
+            throws IOException {
+        File regionDirectory = new File(worldDirectory, "region");
+        if (!regionDirectory.isDirectory() && !regionDirectory.mkdirs()) {
+            throw new IOException("Could not create " + regionDirectory);
+        }
+        writeLevel(new File(worldDirectory, "level.dat"));
+
+        Random random = new Random(seed);
+        int side = (int) Math.ceil(Math.sqrt(chunkCount));
+        int offset = side / 2;
+        Map<Long, byte[][]> regions = new HashMap<>();
+
+        for (int i = 0; i < chunkCount; i++) {
+            int chunkX = i % side - offset;
+            int chunkZ = i / side - offset;
+            boolean inhabited = random.nextDouble() < inhabitedDensity;
+            byte[] nbt = chunk(chunkX, chunkZ, inhabited ? INHABITED : UNINHABITED);
+
+            long key = ((long) (chunkX >> 5) << 32) | ((chunkZ >> 5) & 0xFFFFFFFFL);
+            regions.computeIfAbsent(key, k -> new byte[1024][])[(chunkX & 31) + (chunkZ & 31) * 32] = compress(nbt, compression);
+        }
+
+        int timestamp = (int) (System.currentTimeMillis() / 1000);
+        for (Map.Entry<Long, byte[][]> region : regions.entrySet()) {
+            int regionX = (int) (region.getKey() >> 32);
+            int regionZ = (int) (long) region.getKey();
+            writeRegion(new File(regionDirectory, "r." + regionX + "." + regionZ + ".mca"), region.getValue(),
+                    compression, timestamp);
+        }
+    }
+
+    /**
+     * Generates a world into a new temporary directory, see {@link #generate}.
+     */
+    public static File temporary(int chunkCount, int compression, double inhabitedDensity) throws IOException {
+        File worldDirectory = Files.createTempDirectory("synthetic-world").toFile();
+        generate(worldDirectory, chunkCount, compression, inhabitedDensity, 42);
+        return worldDirectory;
+    }
+
+    public static void delete(File directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Height of the terrain at a block column, the y coordinate above the highest block.
+     */
+    public static int surfaceHeight(int x, int z) {
+        return 64 + (int) (8 * Math.sin(x / 23.0) + 6 * Math.cos(z / 17.0));
+    }
+
+    private static void writeRegion(File file, byte[][] chunks, int compression, int timestamp) throws IOException {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(0);
+            int sector = 2;
+            for (int index = 0; index < chunks.length; index++) {
+                if (chunks[index] == null) {
+                    continue;
+                }
+                int sectors = (chunks[index].length + 5 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+
+                out.seek(index * 4L);
+                out.writeInt(sector << 8 | sectors);
+                out.seek(SECTOR_SIZE + index * 4L);
+                out.writeInt(timestamp);
+
+                out.seek((long) sector * SECTOR_SIZE);
+                out.writeInt(chunks[index].length + 1);
+                out.writeByte(compression);
+                out.write(chunks[index]);
+                sector += sectors;
+            }
+            out.setLength((long) sector * SECTOR_SIZE);
+        }
+    }
+
+    private static byte[] compress(byte[] data, int compression) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = switch (compression) {
+            case COMPRESSION_GZIP -> new GZIPOutputStream(bytes);
+            case COMPRESSION_ZLIB -> new DeflaterOutputStream(bytes);
+            case COMPRESSION_NONE -> bytes;
+            default -> throw new IllegalArgumentException("Unknown compression: " + compression);
+        }) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeLevel(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(file)))) {
+            out.writeByte(TAG_COMPOUND);
+            name(out, "");
+            out.writeByte(TAG_COMPOUND);
+            name(out, "Data");
+            intTag(out, "DataVersion", DATA_VERSION);
+            intTag(out, "version", 19133);
+            intTag(out, "SpawnX", 0);
+            intTag(out, "SpawnY", surfaceHeight(0, 0));
+            intTag(out, "SpawnZ", 0);
+            stringTag(out, "LevelName", "Synthetic");
+            out.writeByte(TAG_END);
+            out.writeByte(TAG_END);
+        }
+    }
+
+    private static byte[] chunk(int chunkX, int chunkZ, long inhabitedTime) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        int[] heights = new int[256];
+        int maxHeight = Integer.MIN_VALUE;
+        for (int i = 0; i < 256; i++) {
+            heights[i] = surfaceHeight(chunkX * 16 + (i & 15), chunkZ * 16 + (i >> 4));
+            maxHeight = Math.max(maxHeight, heights[i]);
+        }
+        int sectionCount = Math.floorDiv(maxHeight - 1, 16) - MIN_SECTION + 1;
+
+        out.writeByte(TAG_COMPOUND);
+        name(out, "");
+        intTag(out, "DataVersion", DATA_VERSION);
+        intTag(out, "xPos", chunkX);
+        intTag(out, "yPos", MIN_SECTION);
+        intTag(out, "zPos", chunkZ);
+        stringTag(out, "Status", "minecraft:full");
+        longTag(out, "LastUpdate", 1000);
+        longTag(out, "InhabitedTime", inhabitedTime);
+
+        out.writeByte(TAG_LIST);
+        name(out, "sections");
+        out.writeByte(TAG_COMPOUND);
+        out.writeInt(sectionCount);
+        for (int section = 0; section < sectionCount; section++) {
+            int sectionY = MIN_SECTION + section;
+            out.writeByte(TAG_BYTE);
+            name(out, "Y");
+            out.writeByte(sectionY);
+
+            out.writeByte(TAG_COMPOUND);
+            name(out, "block_states");
+            out.writeByte(TAG_LIST);
+            name(out, "palette");
+            out.writeByte(TAG_COMPOUND);
+            out.writeInt(3);
+            for (String block : new String[]{"minecraft:air", "minecraft:stone", "minecraft:grass_block"}) {
+                stringTag(out, "Name", block);
+                out.writeByte(TAG_END);
+            }
+
+            // 4 bits per block, 16 blocks per long
+            long[] data = new long[256];
+            for (int index = 0; index < 4096; index++) {
+                int y = sectionY * 16 + (index >> 8);
+                int height = heights[index & 255];
+                long block = y < height - 1 ? 1 : y == height - 1 ? 2 : 0;
+                data[index >> 4] |= block << ((index & 15) * 4);
+            }
+            longArrayTag(out, "data", data);
+            out.writeByte(TAG_END);
+            out.writeByte(TAG_END);
+        }
+
+        out.writeByte(TAG_COMPOUND);
+        name(out, "Heightmaps");
+        // 9 bits per column, 7 columns per long, relative to the bottom of the world
+        long[] heightmap = new long[37];
+        for (int i = 0; i < 256; i++) {
+            heightmap[i / 7] |= (long) (heights[i] - MIN_SECTION * 16) << ((i % 7) * 9);
+        }
+        longArrayTag(out, "WORLD_SURFACE", heightmap);
+        longArrayTag(out, "MOTION_BLOCKING", heightmap);
+        out.writeByte(TAG_END);
+
+        out.writeByte(TAG_END);
+        return bytes.toByteArray();
+    }
+
+    private static void name(DataOutputStream out, String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void intTag(DataOutputStream out, String name, int value) throws IOException {
+        out.writeByte(TAG_INT);
+        name(out, name);
+        out.writeInt(value);
+    }
+
+    private static void longTag(DataOutputStream out, String name, long value) throws IOException {
+        out.writeByte(TAG_LONG);
+        name(out, name);
+        out.writeLong(value);
+    }
+
+    private static void stringTag(DataOutputStream out, String name, String value) throws IOException {
+        out.writeByte(TAG_STRING);
+        name(out, name);
+        name(out, value);
+    }
+
+    private static void longArrayTag(DataOutputStream out, String name, long[] values) throws IOException {
+        out.writeByte(TAG_LONG_ARRAY);
+        name(out, name);
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+}
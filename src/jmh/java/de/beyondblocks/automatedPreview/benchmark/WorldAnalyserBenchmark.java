@@ -0,0 +1,72 @@
+package de.beyondblocks.automatedPreview.benchmark;
+
+import de.beyondblocks.automatedPreview.RegionIndex;
+import de.beyondblocks.automatedPreview.RunMetrics;
+import de.beyondblocks.automatedPreview.WorldAnalyser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning the region files for inhabited chunks, once without the world index and once with an up to date index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WorldAnalyserBenchmark {
+    @Param({"1024", "16384"})
+    public int chunkCount;
+
+    @Param({"1", "2", "3"})
+    public int compression;
+
+    @Param({"0.05", "0.5"})
+    public double inhabitedDensity;
+
+    private File worldDirectory;
+    private File regionDir;
+    private File cacheDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        worldDirectory = SyntheticWorld.temporary(chunkCount, compression, inhabitedDensity);
+        regionDir = new File(worldDirectory, "region");
+        cacheDir = new File(worldDirectory, "cache");
+        if (!cacheDir.mkdir()) {
+            throw new IOException("Could not create " + cacheDir);
+        }
+        scan(cacheDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticWorld.delete(worldDirectory);
+    }
+
+    @Benchmark
+    public int calculateChunkRadius() {
+        return WorldAnalyser.calculateChunkRadius(scan(null));
+    }
+
+    @Benchmark
+    public int calculateChunkRadiusCached() {
+        return WorldAnalyser.calculateChunkRadius(scan(cacheDir));
+    }
+
+    private List<RegionIndex> scan(File cacheDir) {
+        return WorldAnalyser.scanRegions(regionDir, Runtime.getRuntime().availableProcessors(), cacheDir,
+                new RunMetrics(worldDirectory.getPath(), null));
+    }
+}
@@ -0,0 +1,51 @@
+package de.beyondblocks.automatedPreview;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Replaces files so readers never see a partial file. The content is written to a temporary file with a unique name
+ * next to the target and then moved over it, so concurrent writers of the same file never write into each other's
+ * temporary file and the last complete file wins.
+ */
+public final class AtomicFiles {
+    private AtomicFiles() {
+    }
+
+    public interface Content {
+        void writeTo(Path tempFile) throws IOException;
+    }
+
+    /**
+     * Writes the content to a temporary file and moves it over the file. The temporary file is deleted on failure.
+     */
+    public static void write(File file, Content content) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path tempFile = createTempFile(target);
+        try {
+            content.writeTo(tempFile);
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Unlike {@link Files#createTempFile} the file gets the default permissions, as other processes read the previews.
+     */
+    private static Path createTempFile(Path target) throws IOException {
+        while (true) {
+            String suffix = Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36);
+            try {
+                return Files.createFile(target.resolveSibling(target.getFileName() + "." + suffix + ".tmp"));
+            } catch (FileAlreadyExistsException e) {
+                // Try another name
+            }
+        }
+    }
+}
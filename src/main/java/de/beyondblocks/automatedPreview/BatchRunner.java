@@ -0,0 +1,163 @@
+package de.beyondblocks.automatedPreview;
+
+import se.llbit.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Feeds many worlds through one {@link PreviewGenerator}, either from a manifest file or by watching a directory.
+ * Jobs go through a bounded queue into a {@link PreviewPipeline} and a failing world is logged and skipped instead of
+ * aborting the batch.
+ */
+public class BatchRunner {
+    private static final int QUEUE_CAPACITY = 16;
+    private static final long WATCH_INTERVAL_MILLIS = 30_000;
+    private static final Job END = new Job(null, null);
+
+    private final PreviewGenerator generator;
+    private final File outputRoot;
+    private final BlockingQueue<Job> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final int prepareThreads;
+    private final int concurrentWorlds;
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private record Job(File worldDirectory, File outputDirectory) {
+    }
+
+    /**
+     * @param outputRoot Worlds without an explicit output directory are written to a subdirectory named like the
+     *                   world directory
+     * @param concurrentWorlds Number of worlds rendered at the same time, see {@link PreviewPipeline}
+     */
+    public BatchRunner(PreviewGenerator generator, File outputRoot, int prepareThreads, int concurrentWorlds) {
+        this.generator = generator;
+        this.outputRoot = outputRoot;
+        this.prepareThreads = prepareThreads;
+        this.concurrentWorlds = concurrentWorlds;
+    }
+
+    /**
+     * Processes all worlds of a manifest. Every non-empty line that does not start with '#' is a world directory,
+     * optionally followed by a tab and the output directory.
+     *
+     * @return The number of failed worlds
+     */
+    public int runManifest(File manifest) throws IOException, InterruptedException {
+        List<String> lines = Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+
+        Thread producer = new Thread(() -> {
+            try {
+                for (String line : lines) {
+                    line = line.strip();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+
+                    String[] columns = line.split("\t", 2);
+                    File worldDirectory = new File(columns[0].strip());
+                    File outputDirectory = columns.length == 2
+                            ? new File(columns[1].strip())
+                            : new File(outputRoot, worldDirectory.getName());
+                    queue.put(new Job(worldDirectory, outputDirectory));
+                }
+                queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "batch-manifest");
+        producer.setDaemon(true);
+        producer.start();
+
+        processQueue();
+
+        Log.info("Batch finished: " + succeeded.get() + " succeeded, " + failed.get() + " failed");
+        return failed.get();
+    }
+
+    /**
+     * Watches a directory for worlds (subdirectories containing a level.dat) and renders every world whose level.dat
+     * changed. A world is only queued once its level.dat did not change for one poll interval. Never returns normally.
+     */
+    public void watch(File directory) throws InterruptedException {
+        Thread producer = new Thread(() -> {
+            Map<File, Long> rendered = new HashMap<>();
+            Map<File, Long> pending = new HashMap<>();
+
+            try {
+                while (true) {
+                    File[] worlds = directory.listFiles(file -> new File(file, "level.dat").isFile());
+                    if (worlds != null) {
+                        for (File worldDirectory : worlds) {
+                            long lastModified = new File(worldDirectory, "level.dat").lastModified();
+                            if (Long.valueOf(lastModified).equals(rendered.get(worldDirectory))) {
+                                continue;
+                            }
+
+                            // Wait until the world is not written anymore
+                            if (Long.valueOf(lastModified).equals(pending.put(worldDirectory, lastModified))) {
+                                pending.remove(worldDirectory);
+                                rendered.put(worldDirectory, lastModified);
+                                queue.put(new Job(worldDirectory, new File(outputRoot, worldDirectory.getName())));
+                            }
+                        }
+                    }
+                    Thread.sleep(WATCH_INTERVAL_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "batch-watch");
+        producer.setDaemon(true);
+        producer.start();
+
+        Log.info("Watching " + directory.getAbsolutePath() + " for worlds");
+        processQueue();
+    }
+
+    private void processQueue() throws InterruptedException {
+        List<CompletableFuture<Void>> running = new ArrayList<>();
+
+        try (PreviewPipeline pipeline = new PreviewPipeline(generator, prepareThreads, concurrentWorlds)) {
+            while (true) {
+                Job job = queue.take();
+                if (job == END) {
+                    break;
+                }
+
+                Log.info("Queueing " + job.worldDirectory().getAbsolutePath());
+                running.removeIf(CompletableFuture::isDone);
+                running.add(pipeline.submitWorld(job.worldDirectory(), job.outputDirectory()).whenComplete((done, error) -> {
+                    if (error == null) {
+                        succeeded.incrementAndGet();
+                        Log.info("Finished " + job.worldDirectory().getAbsolutePath());
+                    } else {
+                        failed.incrementAndGet();
+                        Log.error("Failed to render " + job.worldDirectory().getAbsolutePath(),
+                                error instanceof CompletionException ? error.getCause() : error);
+                    }
+                }));
+            }
+
+            for (CompletableFuture<Void> world : running) {
+                try {
+                    world.join();
+                } catch (CompletionException ignored) {
+                    // Already logged
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package de.beyondblocks.automatedPreview;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import se.llbit.log.Log;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Average colour of every block as seen from above, computed from the textures of the resource pack. The texture of a
+ * block is found through its block state and model files, like Minecraft does, and grass, foliage and water are tinted
+ * with the colours of a plains biome. Colours are computed on first use and can be looked up from any thread.
+ */
+public class BlockColors implements AutoCloseable {
+    /** Colour of blocks without a usable texture */
+    private static final int FALLBACK = 0xFF7F7F7F;
+    private static final int WATER = 0xFF3F76E4;
+    private static final int DEFAULT_GRASS = 0xFF91BD59;
+    private static final int DEFAULT_FOLIAGE = 0xFF77AB2F;
+    private static final int SPRUCE_FOLIAGE = 0xFF619961;
+    private static final int BIRCH_FOLIAGE = 0xFF80A755;
+    /** Position of a plains biome (temperature 0.8, downfall 0.4) in the grass and foliage colour maps */
+    private static final int COLORMAP_X = 51;
+    private static final int COLORMAP_Y = 173;
+    /** Texture variables of a model, in the order they are preferred for the view from above */
+    private static final List<String> TEXTURE_KEYS = List.of("top", "end", "all", "texture", "cross", "plant", "side",
+            "particle");
+    private static final Set<String> AIR = Set.of("minecraft:air", "minecraft:cave_air", "minecraft:void_air");
+
+    private final ZipFile pack;
+    private final Map<String, Integer> colors = new ConcurrentHashMap<>();
+    private final int grass;
+    private final int foliage;
+
+    /**
+     * @param resourcePack Resource pack or Minecraft jar, null to use the fallback colour for every block
+     */
+    public BlockColors(File resourcePack) throws IOException {
+        pack = resourcePack != null ? new ZipFile(resourcePack) : null;
+        grass = colormap("grass", DEFAULT_GRASS);
+        foliage = colormap("foliage", DEFAULT_FOLIAGE);
+    }
+
+    /**
+     * @param block Block name like {@code minecraft:oak_leaves}
+     * @return The ARGB colour of the block, 0 for air
+     */
+    public int color(String block) {
+        Integer color = colors.get(block);
+        if (color == null) {
+            color = colors.computeIfAbsent(block, this::load);
+        }
+        return color;
+    }
+
+    private int load(String block) {
+        if (AIR.contains(block)) {
+            return 0;
+        }
+        String name = block.startsWith("minecraft:") ? block.substring("minecraft:".length()) : block;
+        if (name.equals("water") || name.equals("bubble_column")) {
+            return WATER;
+        }
+
+        int color = FALLBACK;
+        try {
+            String texture = texture(name);
+            if (texture != null) {
+                color = averageColor(texture);
+            }
+        } catch (IOException | JSONException e) {
+            Log.warn("Could not read the texture of " + block + ": " + e.getMessage());
+        }
+        return tint(name, color);
+    }
+
+    /**
+     * @return The texture path of the first model of the block state, like {@code block/grass_block_top}, or null
+     */
+    private String texture(String name) throws IOException {
+        JSONObject blockState = json("assets/minecraft/blockstates/" + name + ".json");
+        if (blockState == null) {
+            return null;
+        }
+
+        Object variant = null;
+        if (blockState.has("variants")) {
+            JSONObject variants = blockState.getJSONObject("variants");
+            if (!variants.isEmpty()) {
+                variant = variants.get(variants.keys().next());
+            }
+        } else if (blockState.has("multipart")) {
+            JSONArray parts = blockState.getJSONArray("multipart");
+            if (!parts.isEmpty()) {
+                variant = parts.getJSONObject(0).get("apply");
+            }
+        }
+        if (variant instanceof JSONArray array) {
+            variant = array.isEmpty() ? null : array.get(0);
+        }
+        if (!(variant instanceof JSONObject model) || !model.has("model")) {
+            return null;
+        }
+
+        // Textures of the model and its parents, the closest definition wins
+        Map<String, String> textures = new HashMap<>();
+        String modelName = model.getString("model");
+        for (int depth = 0; modelName != null && depth < 16; depth++) {
+            JSONObject modelJson = json("assets/minecraft/models/" + path(modelName) + ".json");
+            if (modelJson == null) {
+                break;
+            }
+            JSONObject modelTextures = modelJson.optJSONObject("textures");
+            if (modelTextures != null) {
+                for (String key : modelTextures.keySet()) {
+                    textures.putIfAbsent(key, modelTextures.getString(key));
+                }
+            }
+            modelName = modelJson.optString("parent", null);
+        }
+
+        for (String key : TEXTURE_KEYS) {
+            String texture = resolve(textures, textures.get(key));
+            if (texture != null) {
+                return path(texture);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Follows references to other texture variables, like {@code #side}.
+     */
+    private static String resolve(Map<String, String> textures, String texture) {
+        for (int depth = 0; texture != null && texture.startsWith("#") && depth < 16; depth++) {
+            texture = textures.get(texture.substring(1));
+        }
+        return texture != null && texture.startsWith("#") ? null : texture;
+    }
+
+    /**
+     * @return The resource path without namespace, like {@code block/stone}
+     */
+    private static String path(String resource) {
+        int separator = resource.indexOf(':');
+        return separator < 0 ? resource : resource.substring(separator + 1);
+    }
+
+    /**
+     * @return The average of the opaque pixels of the first animation frame, weighted by their alpha
+     */
+    private int averageColor(String texture) throws IOException {
+        BufferedImage image = image("assets/minecraft/textures/" + texture + ".png");
+        if (image == null) {
+            return FALLBACK;
+        }
+        // Animated textures are stacked vertically, the first frame is square
+        int size = Math.min(image.getWidth(), image.getHeight());
+        long alpha = 0;
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int argb = image.getRGB(x, y);
+                int a = argb >>> 24;
+                alpha += a;
+                red += (long) ((argb >> 16) & 0xFF) * a;
+                green += (long) ((argb >> 8) & 0xFF) * a;
+                blue += (long) (argb & 0xFF) * a;
+            }
+        }
+        if (alpha == 0) {
+            return FALLBACK;
+        }
+        return 0xFF000000 | (int) (red / alpha) << 16 | (int) (green / alpha) << 8 | (int) (blue / alpha);
+    }
+
+    /**
+     * Applies the biome colour to blocks whose textures are grey and tinted by the game.
+     */
+    private int tint(String name, int color) {
+        int tint;
+        if (name.equals("grass_block") || name.equals("short_grass") || name.equals("grass")
+                || name.equals("tall_grass") || name.equals("fern") || name.equals("large_fern")
+                || name.equals("sugar_cane")) {
+            tint = grass;
+        } else if (name.equals("spruce_leaves")) {
+            tint = SPRUCE_FOLIAGE;
+        } else if (name.equals("birch_leaves")) {
+            tint = BIRCH_FOLIAGE;
+        } else if (name.equals("vine") || name.equals("lily_pad") || (name.endsWith("_leaves")
+                && !name.equals("cherry_leaves") && !name.contains("azalea"))) {
+            tint = foliage;
+        } else {
+            return color;
+        }
+        return 0xFF000000
+                | ((color >> 16) & 0xFF) * ((tint >> 16) & 0xFF) / 255 << 16
+                | ((color >> 8) & 0xFF) * ((tint >> 8) & 0xFF) / 255 << 8
+                | (color & 0xFF) * (tint & 0xFF) / 255;
+    }
+
+    private int colormap(String name, int fallback) throws IOException {
+        BufferedImage image = image("assets/minecraft/textures/colormap/" + name + ".png");
+        if (image == null || image.getWidth() <= COLORMAP_X || image.getHeight() <= COLORMAP_Y) {
+            return fallback;
+        }
+        return 0xFF000000 | image.getRGB(COLORMAP_X, COLORMAP_Y);
+    }
+
+    private JSONObject json(String path) throws IOException {
+        ZipEntry entry = pack != null ? pack.getEntry(path) : null;
+        if (entry == null) {
+            return null;
+        }
+        try (InputStream in = pack.getInputStream(entry)) {
+            return new JSONObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private BufferedImage image(String path) throws IOException {
+        ZipEntry entry = pack != null ? pack.getEntry(path) : null;
+        if (entry == null) {
+            return null;
+        }
+        try (InputStream in = pack.getInputStream(entry)) {
+            return ImageIO.read(in);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (pack != null) {
+            pack.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package de.beyondblocks.automatedPreview;
+
+import se.llbit.chunky.world.ChunkPosition;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+/**
+ * Set of chunk coordinates stored as one 1024 bit bitmap per region.
+ */
+public class ChunkSet {
+    private static final int WORDS = RegionIndex.CHUNKS / 64;
+
+    private final Map<Long, long[]> regions = new HashMap<>();
+    private int size;
+
+    public interface ChunkConsumer {
+        void accept(int chunkX, int chunkZ);
+    }
+
+    public static ChunkSet inhabited(Collection<RegionIndex> regions) {
+        ChunkSet set = new ChunkSet();
+        for (RegionIndex region : regions) {
+            if (!region.hasInhabitedChunks()) {
+                continue;
+            }
+            long[] bits = region.inhabited.clone();
+            set.regions.put(region.key(), bits);
+            for (long word : bits) {
+                set.size += Long.bitCount(word);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * @return All chunks within the radius around the center chunk (square)
+     */
+    public static ChunkSet square(int centerChunkX, int centerChunkZ, int radius) {
+        ChunkSet set = new ChunkSet();
+        for (int chunkZ = centerChunkZ - radius; chunkZ <= centerChunkZ + radius; chunkZ++) {
+            for (int chunkX = centerChunkX - radius; chunkX <= centerChunkX + radius; chunkX++) {
+                set.add(chunkX, chunkZ);
+            }
+        }
+        return set;
+    }
+
+    public boolean add(int chunkX, int chunkZ) {
+        long[] bits = regions.computeIfAbsent(RegionIndex.key(chunkX >> 5, chunkZ >> 5), key -> new long[WORDS]);
+        int index = RegionIndex.index(chunkX, chunkZ);
+        long mask = 1L << index;
+        if ((bits[index >> 6] & mask) != 0) {
+            return false;
+        }
+        bits[index >> 6] |= mask;
+        size++;
+        return true;
+    }
+
+    public boolean contains(int chunkX, int chunkZ) {
+        long[] bits = regions.get(RegionIndex.key(chunkX >> 5, chunkZ >> 5));
+        if (bits == null) {
+            return false;
+        }
+        int index = RegionIndex.index(chunkX, chunkZ);
+        return (bits[index >> 6] & (1L << index)) != 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return The keys ({@link RegionIndex#key(int, int)}) of all regions containing at least one chunk of the set
+     */
+    public LongStream regions() {
+        return regions.keySet().stream().mapToLong(Long::longValue);
+    }
+
+    public void forEach(ChunkConsumer consumer) {
+        for (Map.Entry<Long, long[]> entry : regions.entrySet()) {
+            int regionX = (int) (entry.getKey() >> 32);
+            int regionZ = (int) (long) entry.getKey();
+            long[] bits = entry.getValue();
+
+            for (int word = 0; word < bits.length; word++) {
+                long remaining = bits[word];
+                while (remaining != 0) {
+                    int index = word * 64 + Long.numberOfTrailingZeros(remaining);
+                    remaining &= remaining - 1;
+                    consumer.accept(regionX * 32 + (index & 31), regionZ * 32 + (index >> 5));
+                }
+            }
+        }
+    }
+
+    /**
+     * Grows the set by the given number of chunks in every direction (square neighbourhood).
+     * The dilation is done separately along x and z, so the cost is linear in the margin.
+     */
+    public ChunkSet dilate(int margin) {
+        if (margin <= 0) {
+            return this;
+        }
+
+        ChunkSet alongX = new ChunkSet();
+        forEach((chunkX, chunkZ) -> {
+            for (int dx = -margin; dx <= margin; dx++) {
+                alongX.add(chunkX + dx, chunkZ);
+            }
+        });
+
+        ChunkSet result = new ChunkSet();
+        alongX.forEach((chunkX, chunkZ) -> {
+            for (int dz = -margin; dz <= margin; dz++) {
+                result.add(chunkX, chunkZ + dz);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return The chunks as a collection that can be passed to {@link se.llbit.chunky.renderer.scene.Scene#loadChunks}
+     */
+    public Collection<ChunkPosition> toChunkPositions() {
+        List<ChunkPosition> positions = new ArrayList<>(size);
+        forEach((chunkX, chunkZ) -> positions.add(ChunkPosition.get(chunkX, chunkZ)));
+        return positions;
+    }
+}
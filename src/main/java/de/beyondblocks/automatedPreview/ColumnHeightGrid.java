@@ -0,0 +1,167 @@
+package de.beyondblocks.automatedPreview;
+
+import java.util.Arrays;
+
+/**
+ * Highest surface of every loaded chunk, used to skip the empty space above the terrain while tracing.
+ * <p>
+ * Like a {@link ChunkSet} the heights are stored per region, so the memory needed depends on the number of regions
+ * with loaded chunks and not on the box around them, which can be huge for distant bases with
+ * {@code --inhabited-only} or for tiled rendering. The regions are found through a small open addressing table, so
+ * looking up a height does not allocate.
+ */
+public class ColumnHeightGrid {
+    /** Chunk is not loaded, there is nothing to hit */
+    public static final int NO_TERRAIN = Integer.MIN_VALUE;
+    /** Chunk is loaded but its height is not known, it has to be traced completely */
+    public static final int UNKNOWN = Integer.MAX_VALUE;
+
+    private final long[] keys;
+    /** Heights of the regions, indexed like the region header, null for empty slots of the table */
+    private final int[][] regions;
+    private final int mask;
+    private final int minChunkX;
+    private final int minChunkZ;
+    private final int maxChunkX;
+    private final int maxChunkZ;
+
+    public interface HeightConsumer {
+        void accept(int chunkX, int chunkZ, int height);
+    }
+
+    private ColumnHeightGrid(long[] regionKeys, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        this.minChunkX = minChunkX;
+        this.minChunkZ = minChunkZ;
+        this.maxChunkX = maxChunkX;
+        this.maxChunkZ = maxChunkZ;
+
+        // At most half full, so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(1, regionKeys.length) * 2 - 1) << 1;
+        keys = new long[capacity];
+        regions = new int[capacity][];
+        mask = capacity - 1;
+        for (long key : regionKeys) {
+            int slot = slot(key);
+            while (regions[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            regions[slot] = new int[RegionIndex.CHUNKS];
+            Arrays.fill(regions[slot], NO_TERRAIN);
+        }
+    }
+
+    /**
+     * Creates an empty grid for all chunks of the set.
+     */
+    public static ColumnHeightGrid covering(ChunkSet chunks) {
+        if (chunks.isEmpty()) {
+            return new ColumnHeightGrid(new long[0], 0, 0, -1, -1);
+        }
+
+        int[] bounds = {Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        chunks.forEach((chunkX, chunkZ) -> {
+            bounds[0] = Math.min(bounds[0], chunkX);
+            bounds[1] = Math.max(bounds[1], chunkX);
+            bounds[2] = Math.min(bounds[2], chunkZ);
+            bounds[3] = Math.max(bounds[3], chunkZ);
+        });
+        return new ColumnHeightGrid(chunks.regions().toArray(), bounds[0], bounds[2], bounds[1], bounds[3]);
+    }
+
+    /**
+     * @throws IllegalArgumentException If the chunk is in a region without any chunk of the set the grid was created for
+     */
+    void set(int chunkX, int chunkZ, int height) {
+        int[] heights = region(chunkX, chunkZ);
+        if (heights == null) {
+            throw new IllegalArgumentException("Chunk " + chunkX + ", " + chunkZ + " is not covered by the grid");
+        }
+        heights[RegionIndex.index(chunkX, chunkZ)] = height;
+    }
+
+    /**
+     * @return The y coordinate above the highest block of the chunk, {@link #NO_TERRAIN} or {@link #UNKNOWN}
+     */
+    public int maxHeight(int chunkX, int chunkZ) {
+        if (chunkX < minChunkX || chunkZ < minChunkZ || chunkX > maxChunkX || chunkZ > maxChunkZ) {
+            return NO_TERRAIN;
+        }
+        int[] heights = region(chunkX, chunkZ);
+        return heights != null ? heights[RegionIndex.index(chunkX, chunkZ)] : NO_TERRAIN;
+    }
+
+    /**
+     * @return The highest surface of all chunks, {@link #UNKNOWN} if the height of any chunk is not known or
+     * {@link #NO_TERRAIN} if the grid is empty
+     */
+    public int highestSurface() {
+        int highest = NO_TERRAIN;
+        for (int[] heights : regions) {
+            if (heights != null) {
+                for (int height : heights) {
+                    highest = Math.max(highest, height);
+                }
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * Passes every chunk that has terrain or an unknown height, in no particular order.
+     */
+    public void forEach(HeightConsumer consumer) {
+        for (int slot = 0; slot < regions.length; slot++) {
+            int[] heights = regions[slot];
+            if (heights == null) {
+                continue;
+            }
+            int regionX = (int) (keys[slot] >> 32);
+            int regionZ = (int) keys[slot];
+            for (int index = 0; index < heights.length; index++) {
+                if (heights[index] != NO_TERRAIN) {
+                    consumer.accept(regionX * 32 + (index & 31), regionZ * 32 + (index >> 5), heights[index]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Smallest chunk x coordinate of the set the grid was created for. Together with the other bounds this is the box
+     * of the chunks, the grid is empty if the maximum is below the minimum.
+     */
+    public int minChunkX() {
+        return minChunkX;
+    }
+
+    public int minChunkZ() {
+        return minChunkZ;
+    }
+
+    /** Inclusive */
+    public int maxChunkX() {
+        return maxChunkX;
+    }
+
+    /** Inclusive */
+    public int maxChunkZ() {
+        return maxChunkZ;
+    }
+
+    private int[] region(int chunkX, int chunkZ) {
+        long key = RegionIndex.key(chunkX >> 5, chunkZ >> 5);
+        int slot = slot(key);
+        while (regions[slot] != null) {
+            if (keys[slot] == key) {
+                return regions[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & mask;
+    }
+}
@@ -0,0 +1,9 @@
+package de.beyondblocks.automatedPreview;
+
+import se.llbit.chunky.renderer.scene.Camera;
+
+/**
+ * A view with the camera and image size it is rendered with.
+ */
+public record FramedView(PreviewView view, Camera camera, int width, int height) {
+}
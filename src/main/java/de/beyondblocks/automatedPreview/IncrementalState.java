@@ -0,0 +1,312 @@
+package de.beyondblocks.automatedPreview;
+
+import se.llbit.chunky.renderer.scene.Camera;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.log.Log;
+import se.llbit.math.Vector3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything needed to patch the previews of a world on the next run instead of rendering them again: the cameras and
+ * image sizes of the views, the framebuffers, and for every rendered chunk its timestamp from the region header, its
+ * height and the tiles its column was drawn into.
+ * <p>
+ * The state of one world and output directory lives in its own directory below the cache directory.
+ */
+public class IncrementalState {
+    private static final int MAGIC = 0x41505253; // APRS
+    private static final int VERSION = 1;
+    private static final String STATE_FILE = "state.bin";
+
+    /** Position and FoV of a fitted camera and the size of its image */
+    public record ViewState(double yaw, double pitch, int width, int height, double x, double y, double z, double fov) {
+    }
+
+    /**
+     * @param tiles Tile ranges per view (first column, last column, first row, last row), -1 if the chunk was not
+     *              visible in the view
+     */
+    public record ChunkState(int timestamp, int height, short[] tiles) {
+    }
+
+    private final ViewFraming.Bounds bounds;
+    private final double pixelsPerBlock;
+    private final int tileSize;
+    private final List<ViewState> views;
+    private final Map<Long, ChunkState> chunks;
+
+    public IncrementalState(ViewFraming.Bounds bounds, double pixelsPerBlock, int tileSize, List<ViewState> views,
+                            Map<Long, ChunkState> chunks) {
+        this.bounds = bounds;
+        this.pixelsPerBlock = pixelsPerBlock;
+        this.tileSize = tileSize;
+        this.views = views;
+        this.chunks = chunks;
+    }
+
+    /**
+     * @return The state directory of a world rendered into the given output directory
+     */
+    public static File directory(File cacheDir, File worldDirectory, File outputDirectory) {
+        String key = worldDirectory.getAbsoluteFile().toPath().normalize() + "\n"
+                + outputDirectory.getAbsoluteFile().toPath().normalize();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            return new File(new File(cacheDir, "incremental"), HexFormat.of().formatHex(hash, 0, 8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static ViewState viewState(FramedView view) {
+        Vector3 position = view.camera().getPosition();
+        return new ViewState(view.view().yaw(), view.view().pitch(), view.width(), view.height(),
+                position.x, position.y, position.z, view.camera().getFov());
+    }
+
+    /**
+     * @return The state or null if there is none or it can't be read
+     */
+    public static IncrementalState load(File directory) {
+        File stateFile = new File(directory, STATE_FILE);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.info("Ignoring outdated render state " + stateFile.getAbsolutePath());
+                return null;
+            }
+
+            ViewFraming.Bounds bounds = new ViewFraming.Bounds(in.readDouble(), in.readDouble(), in.readDouble(),
+                    in.readDouble(), in.readDouble(), in.readDouble());
+            double pixelsPerBlock = in.readDouble();
+            int tileSize = in.readInt();
+
+            int viewCount = in.readInt();
+            List<ViewState> views = new ArrayList<>(viewCount);
+            for (int i = 0; i < viewCount; i++) {
+                views.add(new ViewState(in.readDouble(), in.readDouble(), in.readInt(), in.readInt(),
+                        in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble()));
+            }
+
+            int chunkCount = in.readInt();
+            Map<Long, ChunkState> chunks = new HashMap<>(chunkCount * 2);
+            for (int i = 0; i < chunkCount; i++) {
+                long key = in.readLong();
+                int timestamp = in.readInt();
+                int height = in.readInt();
+                short[] tiles = new short[viewCount * 4];
+                for (int j = 0; j < tiles.length; j++) {
+                    tiles[j] = in.readShort();
+                }
+                chunks.put(key, new ChunkState(timestamp, height, tiles));
+            }
+
+            return new IncrementalState(bounds, pixelsPerBlock, tileSize, views, chunks);
+        } catch (FileNotFoundException e) {
+            return null; // First run for this world
+        } catch (IOException e) {
+            Log.warn("Could not read render state " + stateFile.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the framebuffers and then the state. A crash in between leaves newer framebuffers with the older state,
+     * which only makes the next run redraw more tiles than necessary.
+     */
+    public void save(File directory, List<PreviewFrame> frames) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.warn("Could not create " + directory.getAbsolutePath());
+            return;
+        }
+
+        try {
+            for (int i = 0; i < frames.size(); i++) {
+                writeFrame(new File(directory, frameFileName(i)), frames.get(i));
+            }
+
+            File stateFile = new File(directory, STATE_FILE);
+            AtomicFiles.write(stateFile, tempFile -> {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeDouble(bounds.minX());
+                    out.writeDouble(bounds.minY());
+                    out.writeDouble(bounds.minZ());
+                    out.writeDouble(bounds.maxX());
+                    out.writeDouble(bounds.maxY());
+                    out.writeDouble(bounds.maxZ());
+                    out.writeDouble(pixelsPerBlock);
+                    out.writeInt(tileSize);
+
+                    out.writeInt(views.size());
+                    for (ViewState view : views) {
+                        out.writeDouble(view.yaw());
+                        out.writeDouble(view.pitch());
+                        out.writeInt(view.width());
+                        out.writeInt(view.height());
+                        out.writeDouble(view.x());
+                        out.writeDouble(view.y());
+                        out.writeDouble(view.z());
+                        out.writeDouble(view.fov());
+                    }
+
+                    out.writeInt(chunks.size());
+                    for (Map.Entry<Long, ChunkState> entry : chunks.entrySet()) {
+                        out.writeLong(entry.getKey());
+                        out.writeInt(entry.getValue().timestamp());
+                        out.writeInt(entry.getValue().height());
+                        for (short tile : entry.getValue().tiles()) {
+                            out.writeShort(tile);
+                        }
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.warn("Could not write render state " + directory.getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return true if the views were framed the same way as in this state, so the old framebuffers can be patched
+     */
+    public boolean matches(ViewFraming.Bounds bounds, double pixelsPerBlock, int tileSize, List<PreviewView> views) {
+        if (!this.bounds.equals(bounds) || this.pixelsPerBlock != pixelsPerBlock || this.tileSize != tileSize
+                || this.views.size() != views.size()) {
+            return false;
+        }
+        for (int i = 0; i < views.size(); i++) {
+            if (this.views.get(i).yaw() != views.get(i).yaw() || this.views.get(i).pitch() != views.get(i).pitch()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Recreates the cameras of the views exactly as they were, so patched tiles line up with the old pixels.
+     */
+    public List<FramedView> views(Scene scene, List<PreviewView> views) {
+        List<FramedView> framed = new ArrayList<>();
+        for (int i = 0; i < views.size(); i++) {
+            ViewState state = this.views.get(i);
+            Camera camera = MultiViewRenderer.createCamera(scene, views.get(i));
+            camera.setPosition(new Vector3(state.x(), state.y(), state.z()));
+            camera.setFoV(state.fov());
+            framed.add(new FramedView(views.get(i), camera, state.width(), state.height()));
+        }
+        return framed;
+    }
+
+    /**
+     * @param timestamps Current timestamps of the chunks
+     * @return All chunks that were added, removed or written since this state was saved
+     */
+    public ChunkSet changedChunks(ChunkSet current, ChunkTimestamps timestamps) {
+        ChunkSet changed = new ChunkSet();
+        current.forEach((chunkX, chunkZ) -> {
+            ChunkState chunk = chunks.get(RegionIndex.key(chunkX, chunkZ));
+            if (chunk == null || chunk.timestamp() != timestamps.get(chunkX, chunkZ)) {
+                changed.add(chunkX, chunkZ);
+            }
+        });
+        for (long key : chunks.keySet()) {
+            int chunkX = (int) (key >> 32);
+            int chunkZ = (int) key;
+            if (!current.contains(chunkX, chunkZ)) {
+                changed.add(chunkX, chunkZ);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Copies the stored heights of all chunks of the grid that are part of this state.
+     */
+    public void copyHeights(ColumnHeightGrid grid, ChunkSet chunks) {
+        chunks.forEach((chunkX, chunkZ) -> {
+            ChunkState chunk = this.chunks.get(RegionIndex.key(chunkX, chunkZ));
+            if (chunk != null) {
+                grid.set(chunkX, chunkZ, chunk.height());
+            }
+        });
+    }
+
+    /**
+     * @return The tile range of a chunk in a view, null if the chunk was not visible or is not part of this state
+     */
+    public short[] tiles(int chunkX, int chunkZ, int view) {
+        ChunkState chunk = chunks.get(RegionIndex.key(chunkX, chunkZ));
+        if (chunk == null || chunk.tiles()[view * 4] < 0) {
+            return null;
+        }
+        return new short[]{chunk.tiles()[view * 4], chunk.tiles()[view * 4 + 1],
+                chunk.tiles()[view * 4 + 2], chunk.tiles()[view * 4 + 3]};
+    }
+
+    /**
+     * Current timestamp of a chunk, 0 if it doesn't exist.
+     */
+    public interface ChunkTimestamps {
+        int get(int chunkX, int chunkZ);
+    }
+
+    /**
+     * @return The framebuffer of a view or null if it is missing or has a different size
+     */
+    public static PreviewFrame loadFrame(File directory, int view, int width, int height) {
+        File file = new File(directory, frameFileName(view));
+        if (file.length() != 4L * width * height) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            PreviewFrame frame = new PreviewFrame(width, height);
+            buffer.asIntBuffer().get(frame.pixels());
+            return frame;
+        } catch (IOException e) {
+            Log.warn("Could not read framebuffer " + file.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeFrame(File file, PreviewFrame frame) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(frame.pixels().length * 4);
+        buffer.asIntBuffer().put(frame.pixels());
+
+        AtomicFiles.write(file, tempFile -> {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        });
+    }
+
+    private static String frameFileName(int view) {
+        return "view_" + view + ".argb";
+    }
+}
@@ -2,53 +2,285 @@ package de.beyondblocks.automatedPreview;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import se.llbit.log.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+/**
+ * Downloads the Minecraft client jar. The jar is fetched in parts with concurrent HTTP range requests into a
+ * {@code .part} file next to the destination. Finished parts are recorded in a {@code .part.ranges} file, so an
+ * interrupted download continues where it stopped. The jar is only moved to the destination after its SHA-1 matches
+ * the version manifest.
+ */
 public class MinecraftDownloader {
+    private static final String VERSION_MANIFEST_URL = "https://launchermeta.mojang.com/mc/game/version_manifest.json";
+    private static final long MANIFEST_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int RANGE_SIZE = 4 * 1024 * 1024;
+    private static final int PARALLEL_RANGES = 4;
 
-    private static final HttpClient httpClient = HttpClient.newHttpClient();
+    private static final HttpClient httpClient = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
 
-    private static Path saveToFile(InputStream inputStream, Path destinationPath) {
-        try (OutputStream outputStream = Files.newOutputStream(destinationPath)) {
-            inputStream.transferTo(outputStream);
+    /**
+     * Download information of the client jar from the version JSON.
+     */
+    record ClientDownload(String url, String sha1, long size) {
+    }
+
+    /**
+     * Downloads the client jar of a version. The version manifest is cached next to the destination for a day.
+     */
+    public static CompletableFuture<Path> downloadMinecraft(String version, Path destinationPath) {
+        Path cacheDir = destinationPath.toAbsolutePath().getParent();
+        return getVersionManifestUrl(version, cacheDir.resolve("version_manifest.json"))
+                .thenCompose(url -> getClientDownload(url, cacheDir.resolve(version + ".json")))
+                .thenCompose(client -> download(client, destinationPath));
+    }
+
+    static CompletableFuture<Path> download(ClientDownload client, Path destinationPath) {
+        Path partFile = destinationPath.resolveSibling(destinationPath.getFileName() + ".part");
+        Path rangesFile = destinationPath.resolveSibling(destinationPath.getFileName() + ".part.ranges");
+
+        int rangeCount = (int) ((client.size() + RANGE_SIZE - 1) / RANGE_SIZE);
+        BitSet finished = loadFinishedRanges(rangesFile, client);
+        Queue<Integer> pending = new ConcurrentLinkedQueue<>();
+        for (int range = 0; range < rangeCount; range++) {
+            if (!finished.get(range)) {
+                pending.add(range);
+            }
+        }
+        if (pending.size() < rangeCount) {
+            Log.info("Resuming download, " + pending.size() + " of " + rangeCount + " parts left");
+        }
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
         } catch (IOException e) {
-            throw new RuntimeException("Failed to save file", e);
+            return CompletableFuture.failedFuture(e);
+        }
+        if (finished.isEmpty()) {
+            // A part file left by a download of another version may be longer and would break the checksum
+            try {
+                channel.truncate(client.size());
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+                return CompletableFuture.failedFuture(e);
+            }
         }
-        return destinationPath;
+
+        // The first range is fetched alone, a server that ignores Range sends the whole file and must only do so once
+        Integer first = pending.poll();
+        CompletableFuture<Void> downloaded = first == null ? CompletableFuture.completedFuture(null)
+                : downloadRange(client, channel, first, finished, rangesFile).thenCompose(ranged -> {
+                    if (!ranged) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    List<CompletableFuture<Void>> workers = new ArrayList<>();
+                    for (int i = 0; i < Math.min(PARALLEL_RANGES, pending.size()); i++) {
+                        workers.add(downloadRanges(client, channel, pending, finished, rangesFile));
+                    }
+                    return CompletableFuture.allOf(workers.toArray(CompletableFuture<?>[]::new));
+                });
+
+        return downloaded
+                .whenComplete((done, error) -> {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        Log.warn("Could not close " + partFile + ": " + e.getMessage());
+                    }
+                })
+                .thenApply(done -> {
+                    try {
+                        String sha1 = sha1(partFile);
+                        if (!sha1.equalsIgnoreCase(client.sha1())) {
+                            Files.deleteIfExists(partFile);
+                            Files.deleteIfExists(rangesFile);
+                            throw new IOException("SHA-1 mismatch: expected " + client.sha1() + " but got " + sha1);
+                        }
+                        Files.move(partFile, destinationPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        Files.deleteIfExists(rangesFile);
+                        return destinationPath;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
     }
 
-    public static CompletableFuture<Path> downloadMinecraft(String version, Path destinationPath) {
-        return getVersionManifestUrl(version)
-                .thenCompose(MinecraftDownloader::getClientUrl)
-                .thenCompose(clientUrl -> {
-                    HttpRequest request = HttpRequest.newBuilder()
-                            .uri(URI.create(clientUrl))
-                            .GET()
-                            .build();
-
-                    return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
-                            .thenApply(response -> saveToFile(response.body(), destinationPath));
+    /**
+     * Downloads ranges from the queue one after another until it is empty.
+     */
+    private static CompletableFuture<Void> downloadRanges(ClientDownload client, FileChannel channel, Queue<Integer> pending,
+                                                          BitSet finished, Path rangesFile) {
+        Integer range = pending.poll();
+        if (range == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return downloadRange(client, channel, range, finished, rangesFile).thenCompose(ranged -> {
+            if (!ranged) {
+                pending.clear();
+            }
+            return downloadRanges(client, channel, pending, finished, rangesFile);
+        });
+    }
+
+    /**
+     * @return Completes with false if the server ignored the Range header and the whole file was written instead
+     */
+    private static CompletableFuture<Boolean> downloadRange(ClientDownload client, FileChannel channel, int range,
+                                                            BitSet finished, Path rangesFile) {
+        long start = (long) range * RANGE_SIZE;
+        long end = Math.min(client.size(), start + RANGE_SIZE) - 1;
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(client.url()))
+                .header("Range", "bytes=" + start + "-" + end)
+                .GET()
+                .build();
+
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> {
+                    try (InputStream body = response.body()) {
+                        if (response.statusCode() == 206) {
+                            write(body, channel, start, end - start + 1);
+                        } else if (response.statusCode() == 200) {
+                            // Range requests not supported, the whole file is in this response
+                            write(body, channel, 0, client.size());
+                            synchronized (finished) {
+                                finished.set(0, (int) ((client.size() + RANGE_SIZE - 1) / RANGE_SIZE));
+                            }
+                            return false;
+                        } else {
+                            throw new IOException("Unexpected HTTP status " + response.statusCode() + " for " + client.url());
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+
+                    synchronized (finished) {
+                        finished.set(range);
+                        saveFinishedRanges(rangesFile, client, finished);
+                    }
+                    return true;
                 });
     }
 
-    private static CompletableFuture<String> getVersionManifestUrl(final String version) {
+    private static void write(InputStream in, FileChannel channel, long position, long length) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long written = 0;
+        while (written < length) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, length - written));
+            if (read < 0) {
+                throw new IOException("Download ended after " + written + " of " + length + " bytes");
+            }
+            ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+            while (data.hasRemaining()) {
+                channel.write(data, position + written + (read - data.remaining()));
+            }
+            written += read;
+        }
+    }
+
+    /**
+     * @return The ranges finished by an earlier attempt, empty if there was none or it was for a different file
+     */
+    private static BitSet loadFinishedRanges(Path rangesFile, ClientDownload client) {
+        try {
+            List<String> lines = Files.readAllLines(rangesFile, StandardCharsets.UTF_8);
+            if (lines.size() == 2 && lines.get(0).equals(client.sha1() + " " + client.size())) {
+                return BitSet.valueOf(HexFormat.of().parseHex(lines.get(1)));
+            }
+        } catch (IOException | IllegalArgumentException ignored) {
+            // Nothing to resume
+        }
+        return new BitSet();
+    }
+
+    private static void saveFinishedRanges(Path rangesFile, ClientDownload client, BitSet finished) {
+        try {
+            Files.writeString(rangesFile, client.sha1() + " " + client.size() + "\n"
+                    + HexFormat.of().formatHex(finished.toByteArray()) + "\n", StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Log.warn("Could not record download progress: " + e.getMessage());
+        }
+    }
+
+    private static String sha1(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Fetches a JSON document, or reads it from the cache file if that is younger than the TTL.
+     */
+    private static CompletableFuture<String> fetchCached(String url, Path cacheFile, long ttlMillis) {
+        try {
+            if (Files.isRegularFile(cacheFile)
+                    && System.currentTimeMillis() - Files.getLastModifiedTime(cacheFile).toMillis() < ttlMillis) {
+                return CompletableFuture.completedFuture(Files.readString(cacheFile, StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            Log.warn("Could not read " + cacheFile + ": " + e.getMessage());
+        }
+
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://launchermeta.mojang.com/mc/game/version_manifest.json"))
+                .uri(URI.create(url))
                 .GET()
                 .build();
 
         return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                .thenApply(HttpResponse::body)
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        throw new UncheckedIOException(new IOException("Unexpected HTTP status " + response.statusCode() + " for " + url));
+                    }
+                    try {
+                        AtomicFiles.write(cacheFile.toFile(),
+                                tempFile -> Files.writeString(tempFile, response.body(), StandardCharsets.UTF_8));
+                    } catch (IOException e) {
+                        Log.warn("Could not cache " + url + ": " + e.getMessage());
+                    }
+                    return response.body();
+                });
+    }
+
+    private static CompletableFuture<String> getVersionManifestUrl(final String version, Path cacheFile) {
+        return fetchCached(VERSION_MANIFEST_URL, cacheFile, MANIFEST_TTL_MILLIS)
                 .thenApply(body -> {
                     JSONObject parsed = new JSONObject(body);
                     JSONArray versions = parsed.getJSONArray("versions");
@@ -62,17 +294,14 @@ public class MinecraftDownloader {
                 });
     }
 
-    private static CompletableFuture<String> getClientUrl(final String versionManifestUrl) {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(versionManifestUrl))
-                .GET()
-                .build();
-
-        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                .thenApply(HttpResponse::body)
+    /**
+     * The version JSON never changes for a released version, so it is cached without expiry.
+     */
+    private static CompletableFuture<ClientDownload> getClientDownload(final String versionManifestUrl, Path cacheFile) {
+        return fetchCached(versionManifestUrl, cacheFile, Long.MAX_VALUE)
                 .thenApply(body -> {
-                    JSONObject parsed = new JSONObject(body);
-                    return parsed.getJSONObject("downloads").getJSONObject("client").getString("url");
+                    JSONObject client = new JSONObject(body).getJSONObject("downloads").getJSONObject("client");
+                    return new ClientDownload(client.getString("url"), client.getString("sha1"), client.getLong("size"));
                 });
     }
 }
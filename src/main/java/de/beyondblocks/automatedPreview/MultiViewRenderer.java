@@ -0,0 +1,328 @@
+package de.beyondblocks.automatedPreview;
+
+import se.llbit.chunky.renderer.WorkerState;
+import se.llbit.chunky.renderer.projection.ProjectionMode;
+import se.llbit.chunky.renderer.scene.Camera;
+import se.llbit.chunky.renderer.scene.RayTracer;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.renderer.scene.ViewTracer;
+import se.llbit.log.Log;
+import se.llbit.math.Ray;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders several views of one loaded scene at the same time. All views share the scene (and therefore the octree),
+ * only the camera is copied per view. The tiles of all views go into the job of their world on a shared
+ * {@link RenderScheduler} and every view is encoded as soon as its last tile is done, while the remaining views are
+ * still rendering.
+ */
+public class MultiViewRenderer implements AutoCloseable {
+    private static final int TILE_SIZE = 64;
+    private static final int ENCODE_QUEUE_CAPACITY = 8;
+    /** Resolution divisors of the passes of a progressive render, each pass traces the pixels the previous ones left out */
+    private static final int[] PROGRESSIVE_STEPS = {8, 4, 2, 1};
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final RenderScheduler scheduler;
+    private final ExecutorService encodePool;
+    /** Null if every view is written as a single image */
+    private final TilePyramid pyramid;
+    private final ThreadLocal<WorkerState> workerStates = ThreadLocal.withInitial(() -> {
+        WorkerState state = new WorkerState();
+        state.ray = new Ray();
+        state.random = new Random(0);
+        return state;
+    });
+
+    /**
+     * @param renderThreads Number of threads tracing the views of all worlds, see {@link RenderScheduler}
+     * @param encodeThreads Number of views encoded at the same time. If more finished views are waiting, encoding
+     *                      happens on the render threads, which slows rendering down instead of piling up frames.
+     * @param pyramidTileSize Write every view as a {@link TilePyramid} of tiles of this size instead of a single image,
+     *                        0 for single images. The pyramids are downsampled and encoded on the render threads.
+     */
+    public MultiViewRenderer(int renderThreads, int encodeThreads, int pyramidTileSize) {
+        scheduler = new RenderScheduler(renderThreads);
+        encodePool = new ThreadPoolExecutor(encodeThreads, encodeThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(ENCODE_QUEUE_CAPACITY), daemonThreads("preview-encode-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        pyramid = pyramidTileSize > 0 ? new TilePyramid(pyramidTileSize) : null;
+    }
+
+    /**
+     * @param priority Share of the render threads relative to the other jobs, see {@link RenderScheduler}
+     * @return A job that shares the render threads with the other jobs, usually one per world
+     */
+    public RenderScheduler.Job newJob(RunMetrics metrics, int priority) {
+        return scheduler.newJob(metrics, priority);
+    }
+
+    /**
+     * Queues all tiles of the views. Every view is encoded as soon as it is traced.
+     *
+     * @param rayTracer Used by all render threads at the same time, so it must not keep any state
+     */
+    public Result start(Scene scene, RayTracer rayTracer, List<FramedView> views, File outputDirectory,
+                        RenderScheduler.Job job) {
+        RunMetrics.Timer timer = job.metrics().start(RunMetrics.TRACE);
+        List<CompletableFuture<PreviewFrame>> frames = new ArrayList<>();
+        for (FramedView view : views) {
+            frames.add(renderView(scene, rayTracer, view, job));
+        }
+        Result result = write(views, frames, outputDirectory, job);
+        result.traced().whenComplete((done, error) -> timer.close());
+        return result;
+    }
+
+    /**
+     * Queues the views in passes of increasing resolution, starting at 1/8. Every finished pass replaces the image of
+     * its view, so a coarse image exists early and is refined until the full resolution or the time budget is reached.
+     * Together the passes trace every pixel once, like {@link #start}. The first pass always completes.
+     *
+     * @param budgetNanos Time after which no further pass is traced and an unfinished pass is dropped, 0 for none
+     */
+    public Result startProgressive(Scene scene, RayTracer rayTracer, List<FramedView> views, File outputDirectory,
+                                   long budgetNanos, RenderScheduler.Job job) {
+        RunMetrics.Timer timer = job.metrics().start(RunMetrics.TRACE);
+        long deadline = budgetNanos > 0 ? System.nanoTime() + budgetNanos : NO_DEADLINE;
+        List<CompletableFuture<Void>> traced = new ArrayList<>();
+        List<CompletableFuture<Void>> written = new ArrayList<>();
+        for (FramedView view : views) {
+            CompletableFuture<Void> viewTraced = new CompletableFuture<>();
+            CompletableFuture<Void> viewWritten = new CompletableFuture<>();
+            refine(scene, rayTracer, view, new PreviewFrame(view.width(), view.height()),
+                    new File(outputDirectory, view.view().fileName()), 0, deadline, job,
+                    CompletableFuture.completedFuture(null), viewTraced, viewWritten);
+            traced.add(viewTraced);
+            written.add(viewWritten);
+        }
+        CompletableFuture<Void> allTraced = CompletableFuture.allOf(traced.toArray(CompletableFuture<?>[]::new));
+        allTraced.whenComplete((done, error) -> timer.close());
+        return new Result(allTraced, CompletableFuture.allOf(written.toArray(CompletableFuture<?>[]::new)));
+    }
+
+    /**
+     * Traces one pass of a view and queues its image behind the image of the previous pass, then continues with the
+     * next pass unless it was the last one or the deadline passed.
+     *
+     * @param previousWrite Completes once the image of the previous pass is written
+     */
+    private void refine(Scene scene, RayTracer rayTracer, FramedView view, PreviewFrame frame, File file, int pass,
+                        long deadline, RenderScheduler.Job job, CompletableFuture<Void> previousWrite,
+                        CompletableFuture<Void> traced, CompletableFuture<Void> written) {
+        int step = PROGRESSIVE_STEPS[pass];
+        AtomicBoolean expired = new AtomicBoolean();
+        renderPass(scene, rayTracer, view, frame, 0, 0, view.width(), view.height(), step, pass > 0,
+                pass > 0 ? deadline : NO_DEADLINE, expired, job).whenComplete((done, error) -> {
+            if (error != null) {
+                traced.completeExceptionally(error);
+                written.completeExceptionally(error);
+                return;
+            }
+            if (expired.get()) {
+                Log.info("Time budget exceeded, keeping view " + view.view().index() + " at 1/"
+                        + PROGRESSIVE_STEPS[pass - 1] + " resolution");
+                traced.complete(null);
+                forward(previousWrite, written);
+                return;
+            }
+
+            boolean last = pass == PROGRESSIVE_STEPS.length - 1
+                    || (deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0);
+            if (last) {
+                traced.complete(null);
+            }
+            // The pixels of this pass are not traced again, so the next pass can run while they are encoded
+            CompletableFuture<Void> write;
+            if (step == 1 && pyramid != null) {
+                write = previousWrite.thenCompose(previous -> writePyramid(view, frame, file.getParentFile(), job));
+            } else {
+                write = previousWrite.thenRunAsync(() -> {
+                    PreviewFrame image = step == 1 ? frame : frame.subsample(step);
+                    RunMetrics.Timer timer = job.metrics().startOnThread(RunMetrics.ENCODE);
+                    try (timer) {
+                        image.writePng(file);
+                        job.metrics().bytesWritten.add(file.length());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    Log.info("Saved " + file.getAbsolutePath() + (step == 1 ? "" : " at 1/" + step + " resolution"));
+                }, encodePool);
+            }
+
+            if (last) {
+                forward(write, written);
+            } else {
+                refine(scene, rayTracer, view, frame, file, pass + 1, deadline, job, write, traced, written);
+            }
+        });
+    }
+
+    private static void forward(CompletableFuture<Void> from, CompletableFuture<Void> to) {
+        from.whenComplete((done, error) -> {
+            if (error != null) {
+                to.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            } else {
+                to.complete(null);
+            }
+        });
+    }
+
+    /**
+     * Encodes every view as soon as its frame is traced.
+     *
+     * @param frames The frames of the views, in the same order
+     */
+    public Result write(List<FramedView> views, List<CompletableFuture<PreviewFrame>> frames, File outputDirectory,
+                        RenderScheduler.Job job) {
+        List<CompletableFuture<Void>> written = new ArrayList<>();
+
+        for (int i = 0; i < views.size(); i++) {
+            FramedView view = views.get(i);
+            if (pyramid != null) {
+                written.add(frames.get(i).thenCompose(finished -> writePyramid(view, finished, outputDirectory, job)));
+                continue;
+            }
+            File file = new File(outputDirectory, view.view().fileName());
+            written.add(frames.get(i).thenAcceptAsync(finished -> {
+                RunMetrics.Timer timer = job.metrics().startOnThread(RunMetrics.ENCODE);
+                try (timer) {
+                    finished.writePng(file);
+                    job.metrics().bytesWritten.add(file.length());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                Log.info("Saved " + file.getAbsolutePath());
+            }, encodePool));
+        }
+
+        return new Result(CompletableFuture.allOf(frames.toArray(CompletableFuture<?>[]::new)),
+                CompletableFuture.allOf(written.toArray(CompletableFuture<?>[]::new)));
+    }
+
+    private CompletableFuture<Void> writePyramid(FramedView view, PreviewFrame frame, File outputDirectory,
+                                                 RenderScheduler.Job job) {
+        return pyramid.write(frame, TilePyramid.directory(outputDirectory, view.view()), job);
+    }
+
+    /**
+     * Waits for the future and unwraps the exception it failed with.
+     */
+    public static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException ioException) {
+                throw ioException.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param traced  Completes once all views are traced and the scene is not needed anymore
+     * @param written Completes once all views are written
+     */
+    public record Result(CompletableFuture<Void> traced, CompletableFuture<Void> written) {
+    }
+
+    /**
+     * Queues all tiles of a view and completes with the finished frame.
+     */
+    public CompletableFuture<PreviewFrame> renderView(Scene scene, RayTracer rayTracer, FramedView view,
+                                                      RenderScheduler.Job job) {
+        PreviewFrame frame = new PreviewFrame(view.width(), view.height());
+        return renderRegion(scene, rayTracer, view, frame, 0, 0, view.width(), view.height(), job)
+                .thenApply(done -> frame);
+    }
+
+    /**
+     * Queues the pixels [x0, x1) x [y0, y1) of a view, which are written into the frame of the whole view.
+     *
+     * @param job Runs the tiles and receives the number of traced rays
+     */
+    public CompletableFuture<Void> renderRegion(Scene scene, RayTracer rayTracer, FramedView view, PreviewFrame frame,
+                                                int x0, int y0, int x1, int y1, RenderScheduler.Job job) {
+        return renderPass(scene, rayTracer, view, frame, x0, y0, x1, y1, 1, false, NO_DEADLINE, null, job);
+    }
+
+    /**
+     * Queues the pixels of a region that lie on the grid of the step, see
+     * {@link ViewTracer#trace(int, int, int, int, int, boolean, int[], WorkerState)}.
+     *
+     * @param expired Set if tiles were skipped because they started after the deadline
+     */
+    private CompletableFuture<Void> renderPass(Scene scene, RayTracer rayTracer, FramedView view, PreviewFrame frame,
+                                               int x0, int y0, int x1, int y1, int step, boolean skipCoarser,
+                                               long deadline, AtomicBoolean expired, RenderScheduler.Job job) {
+        ViewTracer tracer = new ViewTracer(scene, view.camera(), rayTracer, view.width(), view.height());
+
+        List<CompletableFuture<Void>> tiles = new ArrayList<>();
+        for (int tileY = y0; tileY < y1; tileY += TILE_SIZE) {
+            for (int tileX = x0; tileX < x1; tileX += TILE_SIZE) {
+                int tileX0 = tileX;
+                int tileY0 = tileY;
+                int tileX1 = Math.min(tileX0 + TILE_SIZE, x1);
+                int tileY1 = Math.min(tileY0 + TILE_SIZE, y1);
+                tiles.add(CompletableFuture.runAsync(() -> {
+                    if (deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0) {
+                        expired.set(true);
+                        return;
+                    }
+                    job.metrics().raysTraced.add(tracer.trace(tileX0, tileY0, tileX1, tileY1, step, skipCoarser,
+                            frame.pixels(), workerStates.get()));
+                }, job));
+            }
+        }
+
+        return CompletableFuture.allOf(tiles.toArray(CompletableFuture<?>[]::new));
+    }
+
+    /**
+     * Creates a parallel projection camera for the view, based on the camera of the loaded scene.
+     */
+    public static Camera createCamera(Scene scene, PreviewView view) {
+        Camera camera = new Camera(scene);
+        camera.set(scene.camera());
+
+        camera.setView(view.yaw(), view.pitch(), 0);
+        camera.setProjectionMode(ProjectionMode.PARALLEL);
+        camera.setShift(0, 0);
+        camera.setFoV(camera.getFov() * 0.5);
+
+        return camera;
+    }
+
+    @Override
+    public void close() {
+        scheduler.close();
+        encodePool.shutdown();
+    }
+
+    static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,219 @@
+package de.beyondblocks.automatedPreview;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered position in uncompressed NBT data, shared by the streaming readers {@link NbtFieldExtractor} and
+ * {@link SurfaceChunkReader}. The readers walk the tags themselves: the cursor reads payloads, matches the name of the
+ * current tag without creating a string and skips everything else by its length.
+ * <p>
+ * The buffers are reused between streams, so a cursor must not be shared between threads.
+ */
+final class NbtCursor {
+    static final byte TAG_END = 0;
+    static final byte TAG_BYTE = 1;
+    static final byte TAG_SHORT = 2;
+    static final byte TAG_INT = 3;
+    static final byte TAG_LONG = 4;
+    static final byte TAG_FLOAT = 5;
+    static final byte TAG_DOUBLE = 6;
+    static final byte TAG_BYTE_ARRAY = 7;
+    static final byte TAG_STRING = 8;
+    static final byte TAG_LIST = 9;
+    static final byte TAG_COMPOUND = 10;
+    static final byte TAG_INT_ARRAY = 11;
+    static final byte TAG_LONG_ARRAY = 12;
+
+    private final byte[] buffer = new byte[8192];
+    private byte[] nameBuffer = new byte[64];
+    private int nameLength;
+    private InputStream in;
+    private int position;
+    private int limit;
+
+    /**
+     * Starts reading a stream and skips the header of its root compound, so the next tag is the first one inside it.
+     * The stream is not closed, {@link #release} drops the reference to it.
+     */
+    void open(InputStream in) throws IOException {
+        this.in = in;
+        position = 0;
+        limit = 0;
+        if (readByte() != TAG_COMPOUND) {
+            throw new IOException("NBT data does not start with a compound tag");
+        }
+        skipBytes(readUnsignedShort()); // Root name
+    }
+
+    void release() {
+        in = null;
+    }
+
+    static byte[] name(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the name of the current tag, which can then be compared with {@link #nameEquals}.
+     */
+    void readName() throws IOException {
+        nameLength = readUnsignedShort();
+        if (nameBuffer.length < nameLength) {
+            nameBuffer = new byte[nameLength];
+        }
+        readFully(nameBuffer, nameLength);
+    }
+
+    /**
+     * @param name UTF-8 bytes of a name, see {@link #name}
+     */
+    boolean nameEquals(byte[] name) {
+        if (name.length != nameLength) {
+            return false;
+        }
+        for (int i = 0; i < nameLength; i++) {
+            if (name[i] != nameBuffer[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String readString() throws IOException {
+        int length = readUnsignedShort();
+        byte[] value = new byte[length];
+        readFully(value, length);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the elements of a long array tag whose length was already read.
+     */
+    void readLongs(long[] target, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            target[i] = readLong();
+        }
+    }
+
+    void skipPayload(byte type) throws IOException {
+        switch (type) {
+            case TAG_END -> {
+                // Elements of empty lists
+            }
+            case TAG_BYTE -> skipBytes(1);
+            case TAG_SHORT -> skipBytes(2);
+            case TAG_INT, TAG_FLOAT -> skipBytes(4);
+            case TAG_LONG, TAG_DOUBLE -> skipBytes(8);
+            case TAG_BYTE_ARRAY -> skipBytes(readLength());
+            case TAG_STRING -> skipBytes(readUnsignedShort());
+            case TAG_INT_ARRAY -> skipBytes(4L * readLength());
+            case TAG_LONG_ARRAY -> skipBytes(8L * readLength());
+            case TAG_LIST -> {
+                byte elementType = readByte();
+                skipElements(elementType, readLength());
+            }
+            case TAG_COMPOUND -> {
+                while (true) {
+                    byte childType = readByte();
+                    if (childType == TAG_END) {
+                        break;
+                    }
+                    skipBytes(readUnsignedShort());
+                    skipPayload(childType);
+                }
+            }
+            default -> throw new IOException("Unknown NBT tag type: " + type);
+        }
+    }
+
+    /**
+     * Skips the elements of a list whose header was already read.
+     */
+    void skipElements(byte elementType, int count) throws IOException {
+        int elementSize = fixedSize(elementType);
+        if (elementSize >= 0) {
+            skipBytes((long) elementSize * count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                skipPayload(elementType);
+            }
+        }
+    }
+
+    private static int fixedSize(byte type) {
+        return switch (type) {
+            case TAG_END -> 0;
+            case TAG_BYTE -> 1;
+            case TAG_SHORT -> 2;
+            case TAG_INT, TAG_FLOAT -> 4;
+            case TAG_LONG, TAG_DOUBLE -> 8;
+            default -> -1;
+        };
+    }
+
+    /**
+     * Reads the length of an array or list.
+     */
+    int readLength() throws IOException {
+        int length = readInt();
+        if (length < 0) {
+            throw new IOException("Negative NBT length: " + length);
+        }
+        return length;
+    }
+
+    private void fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            throw new EOFException("Unexpected end of NBT data");
+        }
+        position = 0;
+        limit = read;
+    }
+
+    byte readByte() throws IOException {
+        if (position == limit) {
+            fill();
+        }
+        return buffer[position++];
+    }
+
+    int readUnsignedShort() throws IOException {
+        return ((readByte() & 0xFF) << 8) | (readByte() & 0xFF);
+    }
+
+    int readInt() throws IOException {
+        return (readUnsignedShort() << 16) | readUnsignedShort();
+    }
+
+    long readLong() throws IOException {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    void readFully(byte[] target, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            if (position == limit) {
+                fill();
+            }
+            int count = Math.min(length - offset, limit - position);
+            System.arraycopy(buffer, position, target, offset, count);
+            position += count;
+            offset += count;
+        }
+    }
+
+    void skipBytes(long count) throws IOException {
+        while (count > 0) {
+            if (position == limit) {
+                fill();
+            }
+            int skipped = (int) Math.min(count, limit - position);
+            position += skipped;
+            count -= skipped;
+        }
+    }
+}
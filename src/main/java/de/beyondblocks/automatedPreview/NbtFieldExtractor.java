@@ -0,0 +1,200 @@
+package de.beyondblocks.automatedPreview;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader for numeric and long array fields at the root level of an NBT compound (e.g. InhabitedTime, LastUpdate,
+ * xPos, zPos of a chunk) and of compounds directly below the root (e.g. Heightmaps.WORLD_SURFACE).
+ * Unlike {@link se.llbit.nbt.NamedTag#quickParse} no tag objects are created: all other payloads are skipped by their
+ * length and reading stops as soon as every requested field was found, so the remaining data is never decompressed.
+ * <p>
+ * Buffers are reused between calls, so an instance must not be shared between threads.
+ */
+public class NbtFieldExtractor {
+    private static final int ROOT = -1;
+
+    private final byte[][] names;
+    private final int[] parents;
+    private final byte[][] parentNames;
+    private final long[] values;
+    private final long[][] arrays;
+    private final int[] arrayLengths;
+    private final long allFound;
+    private long found;
+
+    private final NbtCursor nbt = new NbtCursor();
+
+    /**
+     * @param fieldNames Names of the fields to extract, at most 64. Fields inside a compound at the root level are
+     *                   written as {@code Compound.Field}.
+     */
+    public NbtFieldExtractor(String... fieldNames) {
+        if (fieldNames.length == 0 || fieldNames.length > 64) {
+            throw new IllegalArgumentException("Between 1 and 64 fields can be extracted");
+        }
+
+        names = new byte[fieldNames.length][];
+        parents = new int[fieldNames.length];
+        List<String> parentList = new ArrayList<>();
+        for (int i = 0; i < fieldNames.length; i++) {
+            String fieldName = fieldNames[i];
+            int separator = fieldName.indexOf('.');
+            if (separator < 0) {
+                parents[i] = ROOT;
+            } else {
+                String parent = fieldName.substring(0, separator);
+                if (!parentList.contains(parent)) {
+                    parentList.add(parent);
+                }
+                parents[i] = parentList.indexOf(parent);
+                fieldName = fieldName.substring(separator + 1);
+            }
+            names[i] = NbtCursor.name(fieldName);
+        }
+        parentNames = new byte[parentList.size()][];
+        for (int i = 0; i < parentNames.length; i++) {
+            parentNames[i] = NbtCursor.name(parentList.get(i));
+        }
+        values = new long[fieldNames.length];
+        arrays = new long[fieldNames.length][];
+        arrayLengths = new int[fieldNames.length];
+        allFound = fieldNames.length == 64 ? -1L : (1L << fieldNames.length) - 1;
+    }
+
+    /**
+     * Reads fields from the uncompressed NBT data until all requested fields were found or the root compound ends.
+     * The stream is not closed and is generally not read to its end.
+     *
+     * @return true if all requested fields were found
+     */
+    public boolean extract(InputStream in) throws IOException {
+        found = 0;
+
+        try {
+            nbt.open(in);
+            while (found != allFound) {
+                byte type = nbt.readByte();
+                if (type == NbtCursor.TAG_END) {
+                    break;
+                }
+
+                int field = readName(ROOT);
+                if (field >= 0) {
+                    readField(field, type);
+                    continue;
+                }
+
+                int parent = type == NbtCursor.TAG_COMPOUND ? matchParent() : -1;
+                if (parent >= 0) {
+                    readCompound(parent);
+                } else {
+                    nbt.skipPayload(type);
+                }
+            }
+        } finally {
+            nbt.release();
+        }
+
+        return found == allFound;
+    }
+
+    public boolean has(int field) {
+        return (found & (1L << field)) != 0;
+    }
+
+    /**
+     * @return The value of a numeric field, 0 if it was not found
+     */
+    public long getLong(int field) {
+        return has(field) ? values[field] : 0;
+    }
+
+    public int getInt(int field) {
+        return (int) getLong(field);
+    }
+
+    /**
+     * @return The content of a long array field, only valid until the next call of {@link #extract}
+     */
+    public long[] getLongArray(int field) {
+        return has(field) ? arrays[field] : null;
+    }
+
+    /**
+     * @return The number of elements of a long array field, the array returned by {@link #getLongArray} may be longer
+     */
+    public int getArrayLength(int field) {
+        return has(field) ? arrayLengths[field] : 0;
+    }
+
+    /**
+     * Reads the fields of a compound at the root level.
+     */
+    private void readCompound(int parent) throws IOException {
+        while (found != allFound) {
+            byte type = nbt.readByte();
+            if (type == NbtCursor.TAG_END) {
+                return;
+            }
+
+            int field = readName(parent);
+            if (field < 0) {
+                nbt.skipPayload(type);
+            } else {
+                readField(field, type);
+            }
+        }
+    }
+
+    /**
+     * Reads the name of the current tag and returns the index of the matching requested field of the given parent
+     * compound or -1.
+     */
+    private int readName(int parent) throws IOException {
+        nbt.readName();
+        for (int field = 0; field < names.length; field++) {
+            if (parents[field] == parent && !has(field) && nbt.nameEquals(names[field])) {
+                return field;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The index of the parent compound matching the last read name or -1
+     */
+    private int matchParent() {
+        for (int parent = 0; parent < parentNames.length; parent++) {
+            if (nbt.nameEquals(parentNames[parent])) {
+                return parent;
+            }
+        }
+        return -1;
+    }
+
+    private void readField(int field, byte type) throws IOException {
+        switch (type) {
+            case NbtCursor.TAG_BYTE -> values[field] = nbt.readByte();
+            case NbtCursor.TAG_SHORT -> values[field] = (short) nbt.readUnsignedShort();
+            case NbtCursor.TAG_INT -> values[field] = nbt.readInt();
+            case NbtCursor.TAG_LONG -> values[field] = nbt.readLong();
+            case NbtCursor.TAG_LONG_ARRAY -> {
+                int length = nbt.readLength();
+                if (arrays[field] == null || arrays[field].length < length) {
+                    arrays[field] = new long[length];
+                }
+                nbt.readLongs(arrays[field], length);
+                arrayLengths[field] = length;
+            }
+            default -> {
+                // Not a supported field type, treat it as missing
+                nbt.skipPayload(type);
+                return;
+            }
+        }
+        found |= 1L << field;
+    }
+}
@@ -0,0 +1,200 @@
+package de.beyondblocks.automatedPreview;
+
+import se.llbit.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Finished previews on disk, one directory per world fingerprint. The least recently used previews are deleted once
+ * the cache grows above its size limit. The index is rebuilt from the directories on startup, ordered by their last use.
+ */
+public class PreviewCache {
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int SECTOR_SIZE = 4096;
+    private static final String[] REGION_DIRECTORIES = {"region", "DIM-1/region", "DIM1/region"};
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * @param files PNG files of the preview relative to its directory, by dimension and in the order of the views,
+     *              followed by the surface map
+     */
+    public record Entry(String fingerprint, File directory, List<String> files, long size) {
+    }
+
+    public PreviewCache(File directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory.toPath());
+
+        File[] existing = directory.listFiles(File::isDirectory);
+        if (existing != null) {
+            Arrays.sort(existing, Comparator.comparingLong(File::lastModified));
+            for (File entryDirectory : existing) {
+                if (entryDirectory.getName().contains(TEMP_SUFFIX)) {
+                    delete(entryDirectory); // Left over from a render that did not finish
+                } else {
+                    add(entry(entryDirectory.getName(), entryDirectory));
+                }
+            }
+        }
+        evict();
+        Log.info("Preview cache: " + entries.size() + " worlds, " + totalBytes / (1024 * 1024) + " MiB");
+    }
+
+    /**
+     * Fingerprint of the current state of a world: the level.dat and the timestamps in the headers of all region
+     * files. Minecraft updates a timestamp whenever it writes a chunk, so this changes with every saved change.
+     */
+    public static String fingerprint(File worldDirectory) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(Files.readAllBytes(new File(worldDirectory, "level.dat").toPath()));
+
+            ByteBuffer timestamps = ByteBuffer.allocate(SECTOR_SIZE);
+            for (String regionDirectory : REGION_DIRECTORIES) {
+                File[] regions = new File(worldDirectory, regionDirectory).listFiles((dir, name) -> name.endsWith(".mca"));
+                if (regions == null) {
+                    continue;
+                }
+                Arrays.sort(regions);
+                for (File region : regions) {
+                    digest.update((regionDirectory + "/" + region.getName()).getBytes(StandardCharsets.UTF_8));
+                    try (FileChannel channel = FileChannel.open(region.toPath(), StandardOpenOption.READ)) {
+                        timestamps.clear();
+                        long position = SECTOR_SIZE;
+                        while (timestamps.hasRemaining()) {
+                            int read = channel.read(timestamps, position);
+                            if (read < 0) {
+                                break; // Truncated header, the partial table is still part of the state
+                            }
+                            position += read;
+                        }
+                        timestamps.flip();
+                        digest.update(timestamps);
+                    }
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return The cached preview or null
+     */
+    public synchronized Entry get(String fingerprint) {
+        Entry entry = entries.get(fingerprint);
+        if (entry != null) {
+            // Keeps the order of use across restarts
+            entry.directory().setLastModified(System.currentTimeMillis());
+        }
+        return entry;
+    }
+
+    /**
+     * @return A new empty directory to render a preview into, which is added with {@link #put}
+     */
+    public File newDirectory(String fingerprint) throws IOException {
+        return Files.createTempDirectory(directory.toPath(), fingerprint + TEMP_SUFFIX).toFile();
+    }
+
+    /**
+     * Moves a rendered preview into the cache and evicts the least recently used previews if the cache is full.
+     */
+    public synchronized Entry put(String fingerprint, File renderedDirectory) throws IOException {
+        File entryDirectory = new File(directory, fingerprint);
+        Entry previous = entries.remove(fingerprint);
+        if (previous != null) {
+            totalBytes -= previous.size();
+        }
+        if (entryDirectory.exists()) {
+            delete(entryDirectory);
+        }
+        Files.move(renderedDirectory.toPath(), entryDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        Entry entry = entry(fingerprint, entryDirectory);
+        add(entry);
+        evict();
+        return entry;
+    }
+
+    private void add(Entry entry) {
+        entries.put(entry.fingerprint(), entry);
+        totalBytes += entry.size();
+    }
+
+    /**
+     * Deletes the least recently used previews until the cache fits, but always keeps the newest one.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && entries.size() > 1 && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            iterator.remove();
+            totalBytes -= entry.size();
+            try {
+                delete(entry.directory());
+            } catch (IOException e) {
+                Log.warn("Could not delete cached preview " + entry.directory() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static Entry entry(String fingerprint, File entryDirectory) {
+        List<String> prefixes = new ArrayList<>();
+        prefixes.add("");
+        for (PreviewDimension dimension : PreviewDimension.values()) {
+            prefixes.add(dimension.directoryName + "/");
+        }
+        List<String> files = new ArrayList<>();
+        for (String prefix : prefixes) {
+            for (PreviewView view : PreviewView.ISOMETRIC) {
+                if (new File(entryDirectory, prefix + view.fileName()).isFile()) {
+                    files.add(prefix + view.fileName());
+                }
+            }
+            if (new File(entryDirectory, prefix + SurfaceRenderer.FILE_NAME).isFile()) {
+                files.add(prefix + SurfaceRenderer.FILE_NAME);
+            }
+        }
+        long size;
+        try (Stream<Path> paths = Files.walk(entryDirectory.toPath())) {
+            size = paths.map(Path::toFile).filter(File::isFile).mapToLong(File::length).sum();
+        } catch (IOException e) {
+            size = 0;
+        }
+        return new Entry(fingerprint, entryDirectory, files, size);
+    }
+
+    static void delete(File directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
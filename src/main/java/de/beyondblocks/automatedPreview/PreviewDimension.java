@@ -0,0 +1,56 @@
+package de.beyondblocks.automatedPreview;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dimension of a world, with the directory of its region files and the height range that is rendered.
+ */
+public enum PreviewDimension {
+    OVERWORLD(0, "overworld", "region", -64, 320),
+    /** Clipped below the bedrock roof, which would otherwise hide everything */
+    NETHER(-1, "nether", "DIM-1/region", 0, 120),
+    END(1, "end", "DIM1/region", 0, 256);
+
+    /** Dimension id used by Chunky */
+    public final int id;
+    /** Name of the output subdirectory when rendering all dimensions */
+    public final String directoryName;
+    public final int minY;
+    public final int maxY;
+    private final String regionPath;
+
+    PreviewDimension(int id, String directoryName, String regionPath, int minY, int maxY) {
+        this.id = id;
+        this.directoryName = directoryName;
+        this.regionPath = regionPath;
+        this.minY = minY;
+        this.maxY = maxY;
+    }
+
+    public File regionDirectory(File worldDirectory) {
+        return new File(worldDirectory, regionPath);
+    }
+
+    /**
+     * @return The dimensions of the world that have region files, in the order of the enum
+     */
+    public static List<PreviewDimension> detect(File worldDirectory) {
+        List<PreviewDimension> dimensions = new ArrayList<>();
+        for (PreviewDimension dimension : values()) {
+            if (dimension.regionDirectory(worldDirectory).isDirectory()) {
+                dimensions.add(dimension);
+            }
+        }
+        return dimensions;
+    }
+
+    /**
+     * @return The only dimension of the world, or the overworld if it has several or none
+     */
+    public static PreviewDimension guess(File worldDirectory) {
+        List<PreviewDimension> dimensions = detect(worldDirectory);
+        return dimensions.size() == 1 ? dimensions.get(0) : OVERWORLD;
+    }
+}
@@ -0,0 +1,75 @@
+package de.beyondblocks.automatedPreview;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * ARGB framebuffer of a rendered view. The pixels are backed by a {@link BufferedImage}, so encoding needs no copy.
+ */
+public class PreviewFrame {
+    private final BufferedImage image;
+    private final int[] pixels;
+
+    public PreviewFrame(int width, int height) {
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    public int width() {
+        return image.getWidth();
+    }
+
+    public int height() {
+        return image.getHeight();
+    }
+
+    public int[] pixels() {
+        return pixels;
+    }
+
+    /**
+     * Makes the pixels [x0, x1) x [y0, y1) transparent.
+     */
+    public void clear(int x0, int y0, int x1, int y1) {
+        int width = width();
+        for (int y = y0; y < y1; y++) {
+            Arrays.fill(pixels, y * width + x0, y * width + x1, 0);
+        }
+    }
+
+    /**
+     * @return A copy of every step-th pixel of every step-th row, a frame of 1/step of the resolution
+     */
+    public PreviewFrame subsample(int step) {
+        int width = width();
+        PreviewFrame coarse = new PreviewFrame((width + step - 1) / step, (height() + step - 1) / step);
+        int[] target = coarse.pixels;
+        for (int y = 0; y < coarse.height(); y++) {
+            int row = y * step * width;
+            int targetRow = y * coarse.width();
+            for (int x = 0; x < coarse.width(); x++) {
+                target[targetRow + x] = pixels[row + x * step];
+            }
+        }
+        return coarse;
+    }
+
+    public BufferedImage image() {
+        return image;
+    }
+
+    /**
+     * Writes the frame as PNG. The image is written to a temporary file first, so readers never see a partial file.
+     */
+    public void writePng(File file) throws IOException {
+        AtomicFiles.write(file, tempFile -> {
+            if (!ImageIO.write(image, "png", tempFile.toFile())) {
+                throw new IOException("No PNG writer available");
+            }
+        });
+    }
+}
@@ -0,0 +1,613 @@
+package de.beyondblocks.automatedPreview;
+
+import se.llbit.chunky.PersistentSettings;
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.main.ChunkyOptions;
+import se.llbit.chunky.renderer.ConsoleProgressListener;
+import se.llbit.chunky.renderer.scene.CustomPreviewRayTracer;
+import se.llbit.chunky.renderer.scene.HeightmapPreviewRayTracer;
+import se.llbit.chunky.renderer.scene.RayTracer;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.resources.TexturePackLoader;
+import se.llbit.chunky.world.World;
+import se.llbit.log.Log;
+import se.llbit.nbt.NamedTag;
+import se.llbit.nbt.Tag;
+import se.llbit.util.TaskTracker;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Generates the previews of worlds. Chunky, the textures and the render threads are set up once, so any number of
+ * worlds can be processed one after another in the same JVM.
+ */
+public class PreviewGenerator implements AutoCloseable {
+    private final PreviewOptions options;
+    private final File cacheDir;
+    private final Chunky chunky;
+    private final MultiViewRenderer renderer;
+    /** Loads the tiles of tiled worlds, one thread for every world rendered at the same time */
+    private final ExecutorService tileLoader;
+    private final TaskTracker taskTracker = new TaskTracker(new ConsoleProgressListener()); // Maybe make this also just output to the log
+    private final RunMetrics setupMetrics;
+    /** Null unless surface maps are drawn */
+    private final BlockColors blockColors;
+    private final SurfaceRenderer surfaceRenderer;
+    /** Latest run of every world, for the Prometheus file */
+    private final Map<String, RunMetrics> latestRuns = new LinkedHashMap<>();
+
+    /**
+     * @param setupMetrics Timings of the download and texture phases, which are shared by all worlds
+     */
+    public PreviewGenerator(PreviewOptions options, File cacheDir, File texturePath, RunMetrics setupMetrics) {
+        this.options = options;
+        this.cacheDir = cacheDir;
+        this.setupMetrics = setupMetrics;
+        tileLoader = Executors.newFixedThreadPool(options.concurrentWorlds,
+                MultiViewRenderer.daemonThreads("preview-tiles-"));
+
+        chunky = new Chunky(ChunkyOptions.getDefaults());
+
+        String[] resourcePacks = new String[1];
+        resourcePacks[0] = texturePath.getAbsolutePath();
+
+        long start = System.currentTimeMillis();
+        RunMetrics.Timer timer = setupMetrics.startOnThread(RunMetrics.LOAD_TEXTURES);
+        try (timer) {
+            PersistentSettings.setDisableDefaultTextures(true);
+            TexturePackLoader.loadTexturePacks(resourcePacks, false);
+        }
+        Log.info("Loaded textures in " + (System.currentTimeMillis() - start) + " ms");
+
+        renderer = new MultiViewRenderer(options.renderThreads, options.encodeThreads, options.pyramidTileSize);
+
+        if (options.surface) {
+            try {
+                blockColors = new BlockColors(texturePath);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            surfaceRenderer = new SurfaceRenderer(blockColors, options.analysisThreads);
+        } else {
+            blockColors = null;
+            surfaceRenderer = null;
+        }
+    }
+
+    /**
+     * Analyses the world, loads its chunks and writes all views into the output directory. With several dimensions,
+     * the next dimension is analysed and loaded while the previous one renders.
+     * Nothing of the world is kept after this returns.
+     */
+    public void generate(File worldDirectory, File outputDirectory) throws IOException {
+        try (PreviewPipeline pipeline = new PreviewPipeline(this, options.prepareThreads, options.concurrentWorlds)) {
+            MultiViewRenderer.await(pipeline.submitWorld(worldDirectory, outputDirectory));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing " + worldDirectory);
+        }
+    }
+
+    /**
+     * @return The dimensions to render: all dimensions of the world with --all-dimensions, otherwise only its main one
+     */
+    public List<PreviewDimension> dimensions(File worldDirectory) {
+        if (!options.allDimensions) {
+            return List.of(PreviewDimension.guess(worldDirectory));
+        }
+        List<PreviewDimension> dimensions = PreviewDimension.detect(worldDirectory);
+        return dimensions.isEmpty() ? List.of(PreviewDimension.OVERWORLD) : dimensions;
+    }
+
+    /**
+     * @return Where the views of a dimension are written, a subdirectory named like the dimension with --all-dimensions
+     */
+    public File outputDirectory(File outputDirectory, PreviewDimension dimension) {
+        return options.allDimensions ? new File(outputDirectory, dimension.directoryName) : outputDirectory;
+    }
+
+    /**
+     * A dimension of a world that is ready to be rendered. Its chunks are loaded into the scene, unless it is rendered
+     * in tiles.
+     *
+     * @param tiling  Chunks loaded for every tile or null if the whole world is loaded into the scene
+     * @param metrics Timings and counters of this world, reported once its images are written
+     */
+    public record PreparedWorld(File worldDirectory, PreviewDimension dimension, File outputDirectory, Scene scene,
+                                RayTracer rayTracer, List<FramedView> views, Tiling tiling, RunMetrics metrics) {
+    }
+
+    /**
+     * @param heights        Heights of the chunks or null if they could not be read
+     * @param views          Frames and tiles to render, in the order of the views of the world
+     * @param state          State saved after all views are written or null if the world is not rendered incrementally
+     * @param stateDirectory Where the state is saved
+     */
+    public record Tiling(World world, ColumnHeightGrid heights, List<TiledView> views, IncrementalState state,
+                         File stateDirectory) {
+    }
+
+    /**
+     * @param frame Frame the tiles are drawn into, may already contain the unchanged parts of the previous run
+     * @param tiles Tiles that have to be rendered
+     */
+    public record TiledView(PreviewFrame frame, List<TileLayout.Tile> tiles) {
+    }
+
+    /**
+     * Analyses the world and loads its chunks into a new scene. In tiled mode only the views are set up and the chunks
+     * are loaded while rendering. The surface map is drawn here, with --surface-only nothing else is prepared.
+     */
+    public PreparedWorld prepare(File worldDirectory, PreviewDimension dimension, File outputDirectory) throws IOException {
+        if (!outputDirectory.exists()) {
+            if (!outputDirectory.mkdirs()) {
+                throw new IOException("Failed to create output directory: " + outputDirectory.getAbsolutePath());
+            }
+        }
+
+        RunMetrics metrics = new RunMetrics(worldDirectory.getPath(), dimension.directoryName);
+        World world = World.loadWorld(worldDirectory, dimension.id, World.LoggedWarnings.NORMAL);
+
+        int spawnX;
+        int spawnY;
+        int spawnZ;
+
+        // Manually reading the World Spawn Coordinates
+        File worldFile = new File(worldDirectory, "level.dat");
+        try (FileInputStream fin = new FileInputStream(worldFile);
+             InputStream gzin = new GZIPInputStream(fin);
+             DataInputStream in = new DataInputStream(gzin)) {
+            Set<String> request = new HashSet<>();
+            request.add(".Data.SpawnX");
+            request.add(".Data.SpawnY");
+            request.add(".Data.SpawnZ");
+
+            Map<String, Tag> result = NamedTag.quickParse(in, request);
+
+            spawnX = result.get(".Data.SpawnX").intValue();
+            spawnY = result.get(".Data.SpawnY").intValue();
+            spawnZ = result.get(".Data.SpawnZ").intValue();
+
+        } catch (IOException e) {
+            throw new IOException("Failed to load level.dat: " + e.getMessage(), e);
+        }
+
+
+        Log.info("Dimension:" + world.currentDimension());
+        Log.info("Level Name:" + world.levelName());
+        Log.info("Spawn: " + spawnX + ", " + spawnY + ", " + spawnZ);
+
+        // The fallback area is centered on the overworld spawn, which is at 1/8 in the nether. The end has no spawn.
+        int centerX = switch (dimension) {
+            case OVERWORLD -> spawnX;
+            case NETHER -> spawnX >> 3;
+            case END -> 0;
+        };
+        int centerZ = switch (dimension) {
+            case OVERWORLD -> spawnZ;
+            case NETHER -> spawnZ >> 3;
+            case END -> 0;
+        };
+
+        File regionDirectory = dimension.regionDirectory(worldDirectory);
+        List<RegionIndex> regions;
+        RunMetrics.Timer timer = metrics.start(RunMetrics.SCAN_REGIONS);
+        try (timer) {
+            regions = WorldAnalyser.scanRegions(regionDirectory, options.analysisThreads, cacheDir, metrics);
+        }
+        if (surfaceRenderer != null) {
+            writeSurface(regionDirectory, dimension, regions, outputDirectory, metrics);
+            if (options.surfaceOnly) {
+                return new PreparedWorld(worldDirectory, dimension, outputDirectory, null, null, List.of(), null,
+                        metrics);
+            }
+        }
+
+        Scene scene = newScene(dimension);
+        scene.initBuffers();
+        scene.setCanvasSize(1920, 1080);
+        int radius = WorldAnalyser.calculateChunkRadius(regions);
+        boolean tiled = options.tileSize > 0;
+
+        Log.info("Calculated Radius: " + radius);
+        if (radius <= 0) {
+            radius = 8;
+        } else if (radius > 128 && !tiled) {
+            // Everything is loaded at once without tiles
+            radius = 128;
+        }
+        Log.info("Using Radius: "+ radius);
+
+        ChunkSet chunks = null;
+        if (options.inhabitedOnly) {
+            ChunkSet inhabitedChunks = ChunkSet.inhabited(regions).dilate(options.chunkMargin);
+            if (inhabitedChunks.isEmpty()) {
+                Log.info("No inhabited chunks found, falling back to the area around spawn");
+            } else {
+                Log.info("Loading " + inhabitedChunks.size() + " inhabited chunks (margin: " + options.chunkMargin + ")");
+                chunks = inhabitedChunks;
+            }
+        }
+        if (chunks == null) {
+            chunks = ChunkSet.square(centerX >> 4, centerZ >> 4, radius);
+        }
+
+        if (tiled) {
+            return prepareTiled(worldDirectory, dimension, outputDirectory, scene, world, regionDirectory, regions, chunks,
+                    metrics);
+        }
+
+        loadChunks(scene, world, chunks, metrics);
+        scene.moveCameraToCenter();
+
+        ColumnHeightGrid heights = readSurfaceHeights(regionDirectory, chunks, metrics);
+        List<FramedView> views = frame(scene, dimension, heights, chunks);
+        return new PreparedWorld(worldDirectory, dimension, outputDirectory, scene, createRayTracer(scene, heights), views,
+                null, metrics);
+    }
+
+    /**
+     * Draws the map of all generated chunks of the dimension into the output directory. The nether is drawn below its
+     * roof, from the top of the rendered height range down.
+     */
+    private void writeSurface(File regionDirectory, PreviewDimension dimension, List<RegionIndex> regions,
+                              File outputDirectory, RunMetrics metrics) throws IOException {
+        PreviewFrame surface;
+        RunMetrics.Timer surfaceTimer = metrics.start(RunMetrics.SURFACE);
+        try (surfaceTimer) {
+            surface = surfaceRenderer.render(regionDirectory, regions, dimension.maxY, metrics);
+        }
+        if (surface == null) {
+            Log.info("No chunks found, skipping the surface map");
+            return;
+        }
+
+        File file = new File(outputDirectory, SurfaceRenderer.FILE_NAME);
+        RunMetrics.Timer encodeTimer = metrics.startOnThread(RunMetrics.ENCODE);
+        try (encodeTimer) {
+            surface.writePng(file);
+            metrics.bytesWritten.add(file.length());
+        }
+        Log.info("Saved " + file.getAbsolutePath() + " (" + surface.width() + "x" + surface.height() + ")");
+    }
+
+    /**
+     * Fits the cameras of all views to the chunks.
+     */
+    private List<FramedView> frame(Scene scene, PreviewDimension dimension, ColumnHeightGrid heights, ChunkSet chunks) {
+        List<FramedView> views = ViewFraming.frame(scene, PreviewView.ISOMETRIC, bounds(dimension, heights, chunks),
+                options.pixelsPerBlock);
+        Log.info("Image size: " + views.get(0).width() + "x" + views.get(0).height());
+        return views;
+    }
+
+    private static ViewFraming.Bounds bounds(PreviewDimension dimension, ColumnHeightGrid heights, ChunkSet chunks) {
+        return ViewFraming.Bounds.of(heights != null ? heights : ColumnHeightGrid.covering(chunks), dimension.minY,
+                dimension.maxY);
+    }
+
+    /**
+     * Sets up the tiles of all views. In incremental mode, the state of the previous run is used to only redraw the
+     * tiles showing chunks that changed since then.
+     */
+    private PreparedWorld prepareTiled(File worldDirectory, PreviewDimension dimension, File outputDirectory, Scene scene,
+                                      World world,
+                                      File regionDirectory, List<RegionIndex> regions, ChunkSet chunks,
+                                      RunMetrics metrics) {
+        int tileSize = options.tileSize;
+        File stateDirectory = options.incremental ? IncrementalState.directory(cacheDir, worldDirectory, outputDirectory) : null;
+        IncrementalState previous = stateDirectory != null ? IncrementalState.load(stateDirectory) : null;
+
+        Map<Long, RegionIndex> regionsByKey = new HashMap<>();
+        for (RegionIndex region : regions) {
+            regionsByKey.put(region.key(), region);
+        }
+        IncrementalState.ChunkTimestamps timestamps = (chunkX, chunkZ) -> {
+            RegionIndex region = regionsByKey.get(RegionIndex.key(chunkX >> 5, chunkZ >> 5));
+            return region == null ? 0 : region.timestamps[RegionIndex.index(chunkX, chunkZ)];
+        };
+
+        ColumnHeightGrid heights;
+        ChunkSet changed = null;
+        if (previous != null) {
+            // Neighbours are included, blocks like fences and water connect across chunk borders
+            changed = previous.changedChunks(chunks, timestamps).dilate(1);
+            ChunkSet reread = new ChunkSet();
+            changed.forEach((chunkX, chunkZ) -> {
+                if (chunks.contains(chunkX, chunkZ)) {
+                    reread.add(chunkX, chunkZ);
+                }
+            });
+
+            ColumnHeightGrid merged = ColumnHeightGrid.covering(chunks);
+            previous.copyHeights(merged, chunks);
+            reread.forEach((chunkX, chunkZ) -> merged.set(chunkX, chunkZ, ColumnHeightGrid.NO_TERRAIN));
+            heights = merged;
+            RunMetrics.Timer timer = metrics.start(RunMetrics.READ_HEIGHTS);
+            try (timer) {
+                WorldAnalyser.readSurfaceHeights(regionDirectory, reread, heights, options.analysisThreads, metrics);
+            } catch (RuntimeException e) {
+                Log.warn("Failed to read heightmaps, rendering everything again", e);
+                heights = readSurfaceHeights(regionDirectory, chunks, metrics);
+                previous = null;
+            }
+        } else {
+            heights = readSurfaceHeights(regionDirectory, chunks, metrics);
+        }
+
+        ViewFraming.Bounds bounds = bounds(dimension, heights, chunks);
+        List<FramedView> views;
+        if (previous != null && previous.matches(bounds, options.pixelsPerBlock, tileSize, PreviewView.ISOMETRIC)) {
+            views = previous.views(scene, PreviewView.ISOMETRIC);
+        } else {
+            if (previous != null) {
+                Log.info("The extent of the world changed, rendering everything again");
+            }
+            previous = null;
+            views = frame(scene, dimension, heights, chunks);
+        }
+
+        Map<Long, short[]> chunkTiles = new HashMap<>();
+        List<TiledView> tiledViews = new ArrayList<>();
+        for (int i = 0; i < views.size(); i++) {
+            FramedView view = views.get(i);
+            int viewIndex = i;
+            List<TileLayout.Tile> tiles = TileLayout.split(view, chunks, heights, dimension.minY, dimension.maxY, tileSize,
+                    (chunkX, chunkZ, firstColumn, lastColumn, firstRow, lastRow) -> {
+                        short[] ranges = chunkTiles.computeIfAbsent(RegionIndex.key(chunkX, chunkZ), key -> {
+                            short[] empty = new short[views.size() * 4];
+                            Arrays.fill(empty, (short) -1);
+                            return empty;
+                        });
+                        ranges[viewIndex * 4] = (short) firstColumn;
+                        ranges[viewIndex * 4 + 1] = (short) lastColumn;
+                        ranges[viewIndex * 4 + 2] = (short) firstRow;
+                        ranges[viewIndex * 4 + 3] = (short) lastRow;
+                    });
+
+            PreviewFrame frame = previous != null
+                    ? IncrementalState.loadFrame(stateDirectory, i, view.width(), view.height())
+                    : null;
+            if (frame == null) {
+                tiledViews.add(new TiledView(new PreviewFrame(view.width(), view.height()), tiles));
+                continue;
+            }
+
+            // Redraw every tile a changed chunk was or is drawn into
+            int columns = TileLayout.columns(view, tileSize);
+            boolean[] dirty = new boolean[columns * TileLayout.rows(view, tileSize)];
+            IncrementalState old = previous;
+            changed.forEach((chunkX, chunkZ) -> {
+                markTiles(dirty, columns, old.tiles(chunkX, chunkZ, viewIndex));
+                short[] ranges = chunkTiles.get(RegionIndex.key(chunkX, chunkZ));
+                if (ranges != null && ranges[viewIndex * 4] >= 0) {
+                    markTiles(dirty, columns, Arrays.copyOfRange(ranges, viewIndex * 4, viewIndex * 4 + 4));
+                }
+            });
+
+            List<TileLayout.Tile> dirtyTiles = new ArrayList<>();
+            for (TileLayout.Tile tile : tiles) {
+                if (dirty[(tile.y0() / tileSize) * columns + tile.x0() / tileSize]) {
+                    dirtyTiles.add(tile);
+                }
+            }
+            for (int index = 0; index < dirty.length; index++) {
+                if (dirty[index]) {
+                    TileLayout.Tile tile = TileLayout.tile(view, tileSize, index % columns, index / columns, null);
+                    frame.clear(tile.x0(), tile.y0(), tile.x1(), tile.y1());
+                }
+            }
+            Log.info("View " + view.view().index() + ": redrawing " + dirtyTiles.size() + " of " + tiles.size() + " tiles");
+            tiledViews.add(new TiledView(frame, dirtyTiles));
+        }
+
+        IncrementalState state = null;
+        if (stateDirectory != null) {
+            Map<Long, IncrementalState.ChunkState> chunkStates = new HashMap<>();
+            ColumnHeightGrid finalHeights = heights;
+            short[] invisible = new short[views.size() * 4];
+            Arrays.fill(invisible, (short) -1);
+            chunks.forEach((chunkX, chunkZ) -> {
+                long key = RegionIndex.key(chunkX, chunkZ);
+                int height = finalHeights != null ? finalHeights.maxHeight(chunkX, chunkZ) : ColumnHeightGrid.UNKNOWN;
+                chunkStates.put(key, new IncrementalState.ChunkState(timestamps.get(chunkX, chunkZ), height,
+                        chunkTiles.getOrDefault(key, invisible)));
+            });
+            List<IncrementalState.ViewState> viewStates = new ArrayList<>();
+            for (FramedView view : views) {
+                viewStates.add(IncrementalState.viewState(view));
+            }
+            state = new IncrementalState(bounds, options.pixelsPerBlock, tileSize, viewStates, chunkStates);
+        }
+
+        return new PreparedWorld(worldDirectory, dimension, outputDirectory, scene, null, views,
+                new Tiling(world, heights, tiledViews, state, stateDirectory), metrics);
+    }
+
+    private static void markTiles(boolean[] dirty, int columns, short[] ranges) {
+        if (ranges == null) {
+            return;
+        }
+        for (int row = ranges[2]; row <= ranges[3]; row++) {
+            for (int column = ranges[0]; column <= ranges[1]; column++) {
+                dirty[row * columns + column] = true;
+            }
+        }
+    }
+
+    /**
+     * Creates an empty scene with the settings of the previews.
+     */
+    private Scene newScene(PreviewDimension dimension) {
+        Scene scene = chunky.getSceneFactory().newScene();
+        scene.setYClipMin(dimension.minY);
+        scene.setYClipMax(dimension.maxY);
+        scene.setTransparentSky(true);
+        return scene;
+    }
+
+    /**
+     * Creates the tracer for a scene. The tracers read the scene settings once, so this has to be called last.
+     */
+    private RayTracer createRayTracer(Scene scene, ColumnHeightGrid heights) {
+        return options.heightmapTracer && heights != null
+                ? new HeightmapPreviewRayTracer(scene, heights)
+                : new CustomPreviewRayTracer(scene);
+    }
+
+    /**
+     * @return The heights of the loaded chunks or null if they could not be read
+     */
+    private ColumnHeightGrid readSurfaceHeights(File regionDir, ChunkSet chunks, RunMetrics metrics) {
+        RunMetrics.Timer timer = metrics.start(RunMetrics.READ_HEIGHTS);
+        try (timer) {
+            return WorldAnalyser.readSurfaceHeights(regionDir, chunks, options.analysisThreads, metrics);
+        } catch (RuntimeException e) {
+            Log.warn("Failed to read heightmaps, tracing the whole scene", e);
+            return null;
+        }
+    }
+
+    private void loadChunks(Scene scene, World world, ChunkSet chunks, RunMetrics metrics) {
+        RunMetrics.Timer timer = metrics.start(RunMetrics.LOAD_CHUNKS);
+        try (timer) {
+            scene.loadChunks(taskTracker, world, chunks.toChunkPositions());
+        }
+        metrics.chunksLoaded.add(chunks.size());
+    }
+
+    /**
+     * Queues the views of a prepared world on the shared render threads, as one job that shares them with the other
+     * worlds rendering at the same time. The metrics of the world are written once all images are written.
+     *
+     * @param priority Share of the render threads relative to the other worlds, see {@link RenderScheduler}
+     */
+    public MultiViewRenderer.Result render(PreparedWorld world, int priority) {
+        RenderScheduler.Job job = renderer.newJob(world.metrics(), priority);
+        MultiViewRenderer.Result result;
+        if (world.views().isEmpty()) {
+            result = new MultiViewRenderer.Result(CompletableFuture.completedFuture(null),
+                    CompletableFuture.completedFuture(null));
+        } else if (world.tiling() != null) {
+            result = renderTiled(world, job);
+        } else if (options.progressive) {
+            result = renderer.startProgressive(world.scene(), world.rayTracer(), world.views(), world.outputDirectory(),
+                    (long) (options.timeBudgetSeconds * 1e9), job);
+        } else {
+            result = renderer.start(world.scene(), world.rayTracer(), world.views(), world.outputDirectory(), job);
+        }
+        return new MultiViewRenderer.Result(result.traced(), result.written().thenRun(() -> report(world)));
+    }
+
+    /**
+     * Writes the JSON report of a world into its output directory and updates the Prometheus file. Failing to write
+     * them does not fail the world.
+     */
+    private void report(PreparedWorld world) {
+        RunMetrics metrics = world.metrics();
+        metrics.finish();
+        try {
+            metrics.writeJson(new File(world.outputDirectory(), "metrics.json"), setupMetrics);
+        } catch (IOException e) {
+            Log.warn("Could not write the metrics of " + metrics.name() + ": " + e.getMessage());
+        }
+
+        if (options.prometheusFile != null) {
+            synchronized (latestRuns) {
+                latestRuns.put(metrics.name() + "/" + metrics.dimension(), metrics);
+                try {
+                    RunMetrics.writePrometheus(options.prometheusFile, latestRuns.values(), setupMetrics);
+                } catch (IOException e) {
+                    Log.warn("Could not write " + options.prometheusFile + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders the views one after another, tile by tile. The chunks of the next tile are loaded while the current tile
+     * is traced, so at most two tiles are loaded at the same time.
+     * <p>
+     * Chunks on the border of two tiles are loaded again for every tile. Chunky builds the octree of a scene from the
+     * region files in one go and cannot add chunks to or remove them from a loaded scene, and the scene of the previous
+     * tile is still traced while the next one loads, so its chunks cannot be moved over. The border grows with the
+     * perimeter of a tile and its chunks with the area, so larger tiles load fewer chunks twice.
+     */
+    private MultiViewRenderer.Result renderTiled(PreparedWorld world, RenderScheduler.Job job) {
+        Tiling tiling = world.tiling();
+        List<CompletableFuture<PreviewFrame>> frames = new ArrayList<>();
+        for (int i = 0; i < tiling.views().size(); i++) {
+            frames.add(new CompletableFuture<>());
+        }
+
+        RunMetrics.Timer timer = world.metrics().start(RunMetrics.TRACE);
+        tileLoader.execute(() -> {
+            for (int i = 0; i < tiling.views().size(); i++) {
+                try {
+                    renderTiles(world.dimension(), tiling, world.views().get(i), tiling.views().get(i), job);
+                    frames.get(i).complete(tiling.views().get(i).frame());
+                } catch (RuntimeException e) {
+                    frames.get(i).completeExceptionally(e);
+                }
+            }
+        });
+
+        CompletableFuture.allOf(frames.toArray(CompletableFuture<?>[]::new)).whenComplete((done, error) -> timer.close());
+        MultiViewRenderer.Result result = renderer.write(world.views(), frames, world.outputDirectory(), job);
+        if (tiling.state() == null) {
+            return result;
+        }
+
+        // Only keep the state once every image is written, otherwise the next run redraws from the old state
+        List<PreviewFrame> finished = tiling.views().stream().map(TiledView::frame).toList();
+        return new MultiViewRenderer.Result(result.traced(),
+                result.written().thenRun(() -> tiling.state().save(tiling.stateDirectory(), finished)));
+    }
+
+    private void renderTiles(PreviewDimension dimension, Tiling tiling, FramedView view, TiledView tiledView,
+                             RenderScheduler.Job job) {
+        Log.info("Rendering view " + view.view().index() + " in " + tiledView.tiles().size() + " tiles");
+
+        CompletableFuture<Void> previous = CompletableFuture.completedFuture(null);
+        for (TileLayout.Tile tile : tiledView.tiles()) {
+            Scene scene = newScene(dimension);
+            loadChunks(scene, tiling.world(), tile.chunks(), job.metrics());
+            RayTracer rayTracer = createRayTracer(scene, tiling.heights());
+
+            previous.join();
+            previous = renderer.renderRegion(scene, rayTracer, view, tiledView.frame(),
+                    tile.x0(), tile.y0(), tile.x1(), tile.y1(), job);
+        }
+        previous.join();
+    }
+
+    @Override
+    public void close() {
+        tileLoader.shutdownNow();
+        renderer.close();
+        if (blockColors != null) {
+            try {
+                blockColors.close();
+            } catch (IOException e) {
+                Log.warn("Could not close the resource pack: " + e.getMessage());
+            }
+        }
+    }
+}
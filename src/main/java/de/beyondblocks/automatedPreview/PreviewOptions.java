@@ -0,0 +1,224 @@
+package de.beyondblocks.automatedPreview;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line options. Positional arguments are the world directory and the optional output directory,
+ * everything else is passed as {@code --name=value} flags.
+ */
+public class PreviewOptions {
+    public static final String USAGE = "Usage: java -jar automatedPreview.jar [Path to world directory] (Output Directory) [Options]\n"
+            + "       java -jar automatedPreview.jar --batch=<manifest> (Output Directory) [Options]\n"
+            + "       java -jar automatedPreview.jar --watch=<directory> (Output Directory) [Options]\n"
+            + "       java -jar automatedPreview.jar --serve=<port> [Options]\n"
+            + "Options:\n"
+            + "  --batch=FILE           Render every world listed in the file (one world directory per line, optionally\n"
+            + "                         followed by a tab and its output directory)\n"
+            + "  --watch=DIR            Render every world in the directory whenever its level.dat changes\n"
+            + "  --serve=PORT           Render previews on request over HTTP on localhost (see README)\n"
+            + "  --server-cache-size=MB Size of the previews kept by the server (default: 1024)\n"
+            + "  --analysis-threads=N   Number of threads used to scan region files (default: number of cores)\n"
+            + "  --inhabited-only       Only load inhabited chunks instead of a square around spawn\n"
+            + "  --chunk-margin=N       Chunks loaded around every inhabited chunk with --inhabited-only (default: 2)\n"
+            + "  --render-threads=N     Number of threads shared by all rendered views (default: number of cores)\n"
+            + "  --prepare-threads=N    Worlds analysed and loaded while other worlds render in batch mode (default: 1)\n"
+            + "  --concurrent-worlds=N  Worlds rendered at the same time, sharing the render threads (default: 1, 2 with\n"
+            + "                         --serve)\n"
+            + "  --encode-threads=N     Number of threads writing finished images (default: 1)\n"
+            + "  --pixels-per-block=N   Size the images to show the loaded chunks with N pixels per block, at most 4096\n"
+            + "                         pixels per side (default: 1920x1080)\n"
+            + "  --tile-size=N          Render the images in tiles of N pixels and only load the chunks visible in a tile\n"
+            + "                         at a time. Limits the memory needed for large worlds and lifts the 128 chunk radius\n"
+            + "  --incremental          Keep the framebuffers in the cache and only redraw the tiles of chunks that changed\n"
+            + "                         since the last run. Implies tiled rendering (default tile size: 256)\n"
+            + "  --progressive[=SECONDS] Write every view at 1/8 of its resolution first and refine it to 1/4, 1/2 and the\n"
+            + "                         full resolution. With SECONDS, stop refining once tracing a world took that long\n"
+            + "  --tile-pyramid[=N]     Write every view as a pyramid of N x N tiles for zoomable viewers instead of a single\n"
+            + "                         image, with an index.json per view (default tile size: 256)\n"
+            + "  --full-trace           Trace every ray through the whole scene instead of skipping the air above the\n"
+            + "                         terrain using the heightmaps of the chunks\n"
+            + "  --surface              Also draw a top-down map of all generated chunks from the region files into\n"
+            + "                         surface.png, without loading them into Chunky\n"
+            + "  --surface-only         Only draw the map of --surface, for a fast overview of huge worlds\n"
+            + "  --all-dimensions       Render the overworld, the nether and the end of every world into subdirectories\n"
+            + "                         of the output directory named overworld, nether and end\n"
+            + "  --prometheus=FILE      Also write the metrics of the latest run of every world to FILE in the Prometheus\n"
+            + "                         text format, e.g. for the textfile collector of the node exporter";
+
+    private static final int DEFAULT_INCREMENTAL_TILE_SIZE = 256;
+    private static final int DEFAULT_PYRAMID_TILE_SIZE = 256;
+    private static final int DEFAULT_SERVER_CONCURRENT_WORLDS = 2;
+
+    public File worldDirectory;
+    public File outputDirectory = new File(".");
+    public int analysisThreads = Runtime.getRuntime().availableProcessors();
+    public boolean inhabitedOnly = false;
+    public int chunkMargin = 2;
+    public int renderThreads = Runtime.getRuntime().availableProcessors();
+    public int prepareThreads = 1;
+    /** 0 until parsed, then the default of the mode if it was not given */
+    public int concurrentWorlds = 0;
+    public int encodeThreads = 1;
+    public boolean heightmapTracer = true;
+    /** 0 loads the whole world at once */
+    public int tileSize = 0;
+    public boolean incremental = false;
+    public boolean progressive = false;
+    /** 0 refines progressive renders without a time limit */
+    public double timeBudgetSeconds = 0;
+    /** 0 writes every view as a single image */
+    public int pyramidTileSize = 0;
+    /** 0 keeps the default canvas size */
+    public double pixelsPerBlock = 0;
+    public File batchManifest;
+    public File watchDirectory;
+    public File prometheusFile;
+    public boolean allDimensions = false;
+    public boolean surface = false;
+    public boolean surfaceOnly = false;
+    /** 0 disables the server */
+    public int serverPort = 0;
+    public int serverCacheMegabytes = 1024;
+
+    public static PreviewOptions parse(String[] args) {
+        PreviewOptions options = new PreviewOptions();
+        List<String> positional = new ArrayList<>();
+
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                positional.add(arg);
+                continue;
+            }
+
+            int separator = arg.indexOf('=');
+            String name = separator < 0 ? arg.substring(2) : arg.substring(2, separator);
+            String value = separator < 0 ? null : arg.substring(separator + 1);
+
+            switch (name) {
+                case "analysis-threads" -> options.analysisThreads = positiveInt(name, value);
+                case "inhabited-only" -> options.inhabitedOnly = true;
+                case "chunk-margin" -> options.chunkMargin = nonNegativeInt(name, value);
+                case "render-threads" -> options.renderThreads = positiveInt(name, value);
+                case "prepare-threads" -> options.prepareThreads = positiveInt(name, value);
+                case "concurrent-worlds" -> options.concurrentWorlds = positiveInt(name, value);
+                case "encode-threads" -> options.encodeThreads = positiveInt(name, value);
+                case "pixels-per-block" -> options.pixelsPerBlock = positiveDouble(name, value);
+                case "tile-size" -> options.tileSize = positiveInt(name, value);
+                case "incremental" -> options.incremental = true;
+                case "progressive" -> {
+                    options.progressive = true;
+                    options.timeBudgetSeconds = value == null ? 0 : positiveDouble(name, value);
+                }
+                case "full-trace" -> options.heightmapTracer = false;
+                case "tile-pyramid" -> options.pyramidTileSize = value == null
+                        ? DEFAULT_PYRAMID_TILE_SIZE : positiveInt(name, value);
+                case "batch" -> options.batchManifest = file(name, value);
+                case "watch" -> options.watchDirectory = file(name, value);
+                case "prometheus" -> options.prometheusFile = file(name, value);
+                case "all-dimensions" -> options.allDimensions = true;
+                case "surface" -> options.surface = true;
+                case "surface-only" -> {
+                    options.surface = true;
+                    options.surfaceOnly = true;
+                }
+                case "serve" -> options.serverPort = positiveInt(name, value);
+                case "server-cache-size" -> options.serverCacheMegabytes = positiveInt(name, value);
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        if (options.incremental && options.tileSize == 0) {
+            options.tileSize = DEFAULT_INCREMENTAL_TILE_SIZE;
+        }
+        if (options.progressive && options.tileSize > 0) {
+            throw new IllegalArgumentException("--progressive can't be combined with tiled rendering");
+        }
+        if (options.progressive && options.pyramidTileSize > 0) {
+            // The passes would only ever replace the single image, not the tiles
+            throw new IllegalArgumentException("--progressive can't be combined with --tile-pyramid");
+        }
+
+        int modes = (options.batchManifest != null ? 1 : 0) + (options.watchDirectory != null ? 1 : 0)
+                + (options.serverPort > 0 ? 1 : 0);
+        if (modes > 1) {
+            throw new IllegalArgumentException("--batch, --watch and --serve can't be combined");
+        }
+        if (options.concurrentWorlds == 0) {
+            // Requests of different players should not wait for each other
+            options.concurrentWorlds = options.serverPort > 0 ? DEFAULT_SERVER_CONCURRENT_WORLDS : 1;
+        }
+
+        if (options.serverPort > 0) {
+            if (options.pyramidTileSize > 0) {
+                throw new IllegalArgumentException("--serve only serves single images, --tile-pyramid can't be used");
+            }
+            if (!positional.isEmpty()) {
+                throw new IllegalArgumentException("--serve takes the worlds from the requests");
+            }
+            return options;
+        }
+
+        if (options.batchManifest != null || options.watchDirectory != null) {
+            if (positional.size() > 1) {
+                throw new IllegalArgumentException("Expected only an optional output directory");
+            }
+            if (positional.size() == 1) {
+                options.outputDirectory = new File(positional.get(0));
+            }
+            return options;
+        }
+
+        if (positional.size() < 1 || positional.size() > 2) {
+            throw new IllegalArgumentException("Expected a world directory and an optional output directory");
+        }
+
+        options.worldDirectory = new File(positional.get(0));
+        if (positional.size() == 2) {
+            options.outputDirectory = new File(positional.get(1));
+        }
+
+        return options;
+    }
+
+    private static File file(String name, String value) {
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("--" + name + " expects a path");
+        }
+        return new File(value);
+    }
+
+    private static double positiveDouble(String name, String value) {
+        try {
+            double result = value == null ? 0 : Double.parseDouble(value);
+            if (result > 0 && Double.isFinite(result)) {
+                return result;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("--" + name + " expects a positive number");
+    }
+
+    private static int nonNegativeInt(String name, String value) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("--" + name + " expects a number >= 0");
+    }
+
+    private static int positiveInt(String name, String value) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("--" + name + " expects a positive number");
+    }
+}
@@ -0,0 +1,228 @@
+package de.beyondblocks.automatedPreview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Processes worlds in three overlapping stages: While worlds are rendered, the next worlds are analysed and loaded and
+ * the images of finished worlds are encoded.
+ * <ul>
+ *     <li>Prepare: analysis, level.dat and chunk loading on {@code prepareThreads} threads</li>
+ *     <li>Render: up to {@code concurrentWorlds} worlds at the same time, which share the render threads of the
+ *     {@link MultiViewRenderer} by their priority, see {@link RenderScheduler}. Prepared worlds wait for a free slot
+ *     in the order they were prepared.</li>
+ *     <li>Encode: the bounded encode threads of the {@link MultiViewRenderer}</li>
+ * </ul>
+ * At most {@code prepareThreads + concurrentWorlds} scenes are loaded at the same time, submitting blocks until a slot
+ * is free. No thread waits for a render: a slot is freed as soon as its world is traced.
+ * <p>
+ * Closing the pipeline fails the worlds it drops with a {@link RejectedExecutionException}, see {@link #close}.
+ */
+public class PreviewPipeline implements AutoCloseable {
+    private final PreviewGenerator generator;
+    private final ExecutorService prepareStage;
+    private final Semaphore loadedScenes;
+    /** Prepared worlds waiting for a render slot, guarded by itself */
+    private final ArrayDeque<WaitingRender> waitingRenders = new ArrayDeque<>();
+    private int freeRenderSlots;
+    private boolean closed;
+
+    /**
+     * @param concurrentWorlds Number of worlds rendered at the same time
+     */
+    public PreviewPipeline(PreviewGenerator generator, int prepareThreads, int concurrentWorlds) {
+        this.generator = generator;
+        prepareStage = Executors.newFixedThreadPool(prepareThreads);
+        loadedScenes = new Semaphore(prepareThreads + concurrentWorlds);
+        freeRenderSlots = concurrentWorlds;
+    }
+
+    /**
+     * Queues all dimensions of a world that are rendered with the normal priority, see
+     * {@link #submitWorld(File, File, int)}.
+     */
+    public CompletableFuture<Void> submitWorld(File worldDirectory, File outputDirectory) throws InterruptedException {
+        return submitWorld(worldDirectory, outputDirectory, RenderScheduler.NORMAL_PRIORITY);
+    }
+
+    /**
+     * Queues all dimensions of a world that are rendered, see {@link PreviewGenerator#dimensions}.
+     *
+     * @param priority Share of the render threads relative to the other worlds, see {@link RenderScheduler}
+     * @return Completes once all images of all dimensions are written
+     */
+    public CompletableFuture<Void> submitWorld(File worldDirectory, File outputDirectory, int priority)
+            throws InterruptedException {
+        List<CompletableFuture<Void>> dimensions = new ArrayList<>();
+        for (PreviewDimension dimension : generator.dimensions(worldDirectory)) {
+            dimensions.add(submit(worldDirectory, dimension, generator.outputDirectory(outputDirectory, dimension),
+                    priority));
+        }
+        return CompletableFuture.allOf(dimensions.toArray(CompletableFuture<?>[]::new));
+    }
+
+    /**
+     * Queues a dimension of a world. Blocks while the maximum number of worlds is loaded.
+     *
+     * @return Completes once all images of the dimension are written, fails if the pipeline is closed before
+     */
+    public CompletableFuture<Void> submit(File worldDirectory, PreviewDimension dimension, File outputDirectory,
+                                          int priority) throws InterruptedException {
+        loadedScenes.acquire();
+
+        PrepareTask task = new PrepareTask(() -> {
+            try {
+                return generator.prepare(worldDirectory, dimension, outputDirectory);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, new CompletableFuture<>());
+
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        task.prepared().whenComplete((world, error) -> {
+            if (error != null) {
+                loadedScenes.release();
+                written.completeExceptionally(unwrap(error));
+            } else {
+                startRender(new WaitingRender(world, priority, written));
+            }
+        });
+        try {
+            prepareStage.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.prepared().completeExceptionally(closedError());
+        }
+        return written;
+    }
+
+    /**
+     * Queues the world on the render threads. The render threads do the work, so this returns right away.
+     */
+    private void render(WaitingRender render) {
+        CompletableFuture<Void> written = render.written();
+        MultiViewRenderer.Result result;
+        try {
+            result = generator.render(render.world(), render.priority());
+        } catch (RuntimeException e) {
+            loadedScenes.release();
+            finishRender();
+            written.completeExceptionally(e);
+            return;
+        }
+
+        // The scene and the slot are freed once the world is traced, encoding continues in the background
+        result.traced().whenComplete((done, error) -> {
+            loadedScenes.release();
+            finishRender();
+        });
+        result.written().whenComplete((done, error) -> {
+            if (error != null) {
+                written.completeExceptionally(unwrap(error));
+            } else {
+                written.complete(null);
+            }
+        });
+    }
+
+    private void startRender(WaitingRender render) {
+        boolean dropped;
+        synchronized (waitingRenders) {
+            dropped = closed;
+            if (!dropped) {
+                if (freeRenderSlots == 0) {
+                    waitingRenders.add(render);
+                    return;
+                }
+                freeRenderSlots--;
+            }
+        }
+        if (dropped) {
+            drop(render.written());
+        } else {
+            render(render);
+        }
+    }
+
+    /**
+     * Starts the next waiting world in the freed slot.
+     */
+    private void finishRender() {
+        WaitingRender next;
+        synchronized (waitingRenders) {
+            next = closed ? null : waitingRenders.poll();
+            if (next == null) {
+                freeRenderSlots++;
+                return;
+            }
+        }
+        render(next);
+    }
+
+    /**
+     * Frees the scene of a world that is not rendered because the pipeline was closed.
+     */
+    private void drop(CompletableFuture<Void> written) {
+        loadedScenes.release();
+        written.completeExceptionally(closedError());
+    }
+
+    private static RejectedExecutionException closedError() {
+        return new RejectedExecutionException("Preview pipeline is closed");
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Stops preparing worlds. Worlds waiting to be prepared or for a render slot are dropped: their futures fail with a
+     * {@link RejectedExecutionException} and their slots are freed, as for worlds submitted afterwards. Worlds that are
+     * rendering continue on the render threads until those are closed.
+     */
+    @Override
+    public void close() {
+        // The pool returns the tasks as they were submitted, which are all prepare tasks
+        for (Runnable task : prepareStage.shutdownNow()) {
+            ((PrepareTask) task).prepared().completeExceptionally(closedError());
+        }
+        List<WaitingRender> dropped;
+        synchronized (waitingRenders) {
+            closed = true;
+            dropped = new ArrayList<>(waitingRenders);
+            waitingRenders.clear();
+        }
+        for (WaitingRender render : dropped) {
+            drop(render.written());
+        }
+    }
+
+    /**
+     * Prepares a world on the prepare stage. Unlike the tasks of {@link CompletableFuture#supplyAsync}, the tasks that
+     * never ran can be failed when the pipeline is closed.
+     */
+    private record PrepareTask(Supplier<PreviewGenerator.PreparedWorld> prepare,
+                               CompletableFuture<PreviewGenerator.PreparedWorld> prepared) implements Runnable {
+        @Override
+        public void run() {
+            try {
+                prepared.complete(prepare.get());
+            } catch (RuntimeException | Error e) {
+                prepared.completeExceptionally(e);
+            }
+        }
+    }
+
+    private record WaitingRender(PreviewGenerator.PreparedWorld world, int priority, CompletableFuture<Void> written) {
+    }
+}
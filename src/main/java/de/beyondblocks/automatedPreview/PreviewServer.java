@@ -0,0 +1,288 @@
+package de.beyondblocks.automatedPreview;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import se.llbit.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Renders previews on request over HTTP on the loopback interface, keeping Chunky and the textures loaded between
+ * requests. Finished previews are kept in a {@link PreviewCache}, so a world that did not change since its last
+ * preview is answered without rendering. Requests for a world that is already rendering wait for that render.
+ * Different worlds are rendered at the same time, up to the number of concurrent worlds, and share the render threads
+ * by the priority of their first request.
+ * <ul>
+ *     <li>{@code GET /render?world=DIR[&priority=N]} renders the world if needed and returns the URLs of its images as
+ *     JSON</li>
+ *     <li>{@code GET /preview?world=DIR&view=N[&priority=N]} renders the world if needed and returns the image of one
+ *     view</li>
+ *     <li>{@code GET /image/FINGERPRINT/FILE} returns an image of a cached preview</li>
+ * </ul>
+ */
+public class PreviewServer implements AutoCloseable {
+    /** Worlds waiting for or being rendered, more are rejected with 503 */
+    private static final int MAX_QUEUED_JOBS = 16;
+
+    private final PreviewPipeline pipeline;
+    private final PreviewCache cache;
+    private final HttpServer server;
+    private final ExecutorService requestExecutor = requestExecutor();
+    private final Map<String, CompletableFuture<PreviewCache.Entry>> rendering = new ConcurrentHashMap<>();
+    private final Semaphore queuedJobs = new Semaphore(MAX_QUEUED_JOBS);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private record Preview(PreviewCache.Entry entry, boolean cached) {
+    }
+
+    /**
+     * @param concurrentWorlds Number of worlds rendered at the same time, see {@link PreviewPipeline}
+     */
+    public PreviewServer(PreviewGenerator generator, int port, int prepareThreads, int concurrentWorlds,
+                         PreviewCache cache) throws IOException {
+        this.pipeline = new PreviewPipeline(generator, prepareThreads, concurrentWorlds);
+        this.cache = cache;
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(requestExecutor);
+        server.createContext("/render", exchange -> handle(exchange, this::handleRender));
+        server.createContext("/preview", exchange -> handle(exchange, this::handlePreview));
+        server.createContext("/image/", exchange -> handle(exchange, this::handleImage));
+    }
+
+    /**
+     * Uses a virtual thread per request where the runtime has them (Java 21+), as most requests only wait for a render.
+     */
+    private static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(MultiViewRenderer.daemonThreads("preview-http-"));
+        }
+    }
+
+    /**
+     * Starts the server and blocks until it is closed.
+     */
+    public void serve() throws InterruptedException {
+        server.start();
+        Log.info("Serving previews on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+        stopped.await();
+    }
+
+    /**
+     * @param priority Share of the render threads if the world has to be rendered, see {@link RenderScheduler}
+     * @return The preview of the current state of the world, rendered unless it is cached or already rendering
+     */
+    private Preview preview(File worldDirectory, int priority) throws IOException {
+        String fingerprint = PreviewCache.fingerprint(worldDirectory);
+        PreviewCache.Entry cached = cache.get(fingerprint);
+        if (cached != null) {
+            return new Preview(cached, true);
+        }
+
+        CompletableFuture<PreviewCache.Entry> job = new CompletableFuture<>();
+        CompletableFuture<PreviewCache.Entry> running = rendering.putIfAbsent(fingerprint, job);
+        if (running == null) {
+            running = job;
+            start(worldDirectory, fingerprint, job, priority);
+        }
+
+        try {
+            return new Preview(running.join(), false);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    private void start(File worldDirectory, String fingerprint, CompletableFuture<PreviewCache.Entry> job,
+                       int priority) {
+        if (!queuedJobs.tryAcquire()) {
+            rendering.remove(fingerprint, job);
+            job.completeExceptionally(new RejectedExecutionException("Too many previews queued"));
+            return;
+        }
+
+        File directory;
+        CompletableFuture<Void> written;
+        try {
+            directory = cache.newDirectory(fingerprint);
+            Log.info("Rendering " + worldDirectory.getAbsolutePath());
+            written = pipeline.submitWorld(worldDirectory, directory, priority);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            queuedJobs.release();
+            rendering.remove(fingerprint, job);
+            job.completeExceptionally(e);
+            return;
+        }
+
+        written.whenComplete((done, error) -> {
+            try {
+                if (error == null) {
+                    // Added to the cache before the job is removed, so later requests always find one of them
+                    job.complete(cache.put(fingerprint, directory));
+                } else {
+                    job.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                    PreviewCache.delete(directory);
+                }
+            } catch (IOException e) {
+                if (!job.completeExceptionally(e)) {
+                    Log.warn("Could not delete " + directory + ": " + e.getMessage());
+                }
+            } finally {
+                rendering.remove(fingerprint, job);
+                queuedJobs.release();
+            }
+        });
+    }
+
+    private void handleRender(HttpExchange exchange) throws IOException {
+        Preview preview = preview(world(exchange), priority(exchange));
+        JSONArray images = new JSONArray();
+        for (String file : preview.entry().files()) {
+            images.put("/image/" + preview.entry().fingerprint() + "/" + file);
+        }
+        send(exchange, 200, "application/json", new JSONObject()
+                .put("fingerprint", preview.entry().fingerprint())
+                .put("cached", preview.cached())
+                .put("images", images)
+                .toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void handlePreview(HttpExchange exchange) throws IOException {
+        String view = query(exchange).getOrDefault("view", "0");
+        int index;
+        try {
+            index = Integer.parseInt(view);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid view: " + view);
+        }
+
+        Preview preview = preview(world(exchange), priority(exchange));
+        if (index < 0 || index >= preview.entry().files().size()) {
+            throw new IllegalArgumentException("Invalid view: " + view);
+        }
+        File file = new File(preview.entry().directory(), preview.entry().files().get(index));
+        send(exchange, 200, "image/png", Files.readAllBytes(file.toPath()));
+    }
+
+    private void handleImage(HttpExchange exchange) throws IOException {
+        String[] parts = exchange.getRequestURI().getPath().split("/", 4);
+        PreviewCache.Entry entry = parts.length == 4 ? cache.get(parts[2]) : null;
+        if (entry == null || !entry.files().contains(parts[3])) {
+            send(exchange, 404, "text/plain", "Not found".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        // The fingerprint changes with the world, so the image behind a URL never changes
+        exchange.getResponseHeaders().set("Cache-Control", "max-age=31536000, immutable");
+        send(exchange, 200, "image/png", Files.readAllBytes(new File(entry.directory(), parts[3]).toPath()));
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    private static void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, "text/plain", "Only GET is supported".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            handler.handle(exchange);
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, "text/plain", e.getMessage().getBytes(StandardCharsets.UTF_8));
+        } catch (RejectedExecutionException e) {
+            send(exchange, 503, "text/plain", e.getMessage().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | RuntimeException e) {
+            Log.error("Failed to handle " + exchange.getRequestURI(), e);
+            send(exchange, 500, "text/plain", String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static File world(HttpExchange exchange) {
+        String path = query(exchange).get("world");
+        if (path == null || path.isEmpty()) {
+            throw new IllegalArgumentException("Missing world parameter");
+        }
+        File worldDirectory = new File(path);
+        if (!new File(worldDirectory, "level.dat").isFile()) {
+            throw new IllegalArgumentException("Not a world directory: " + path);
+        }
+        return worldDirectory;
+    }
+
+    private static int priority(HttpExchange exchange) {
+        String priority = query(exchange).get("priority");
+        if (priority == null) {
+            return RenderScheduler.NORMAL_PRIORITY;
+        }
+        try {
+            int result = Integer.parseInt(priority);
+            if (result >= RenderScheduler.NORMAL_PRIORITY && result <= RenderScheduler.MAX_PRIORITY) {
+                return result;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Invalid priority: " + priority + ", expected "
+                + RenderScheduler.NORMAL_PRIORITY + " to " + RenderScheduler.MAX_PRIORITY);
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        pipeline.close();
+        requestExecutor.shutdownNow();
+        stopped.countDown();
+    }
+}
@@ -0,0 +1,19 @@
+package de.beyondblocks.automatedPreview;
+
+import java.util.List;
+
+/**
+ * Camera orientation of one rendered view.
+ */
+public record PreviewView(int index, double yaw, double pitch) {
+    public static final List<PreviewView> ISOMETRIC = List.of(
+            new PreviewView(0, -Math.PI / 4, -Math.PI / 4),
+            new PreviewView(1, -3 * Math.PI / 4, -Math.PI / 4),
+            new PreviewView(2, -5 * Math.PI / 4, -Math.PI / 4),
+            new PreviewView(3, -7 * Math.PI / 4, -Math.PI / 4)
+    );
+
+    public String fileName() {
+        return "output_view_" + index + ".png";
+    }
+}
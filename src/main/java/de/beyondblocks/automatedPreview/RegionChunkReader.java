@@ -0,0 +1,504 @@
+package de.beyondblocks.automatedPreview;
+
+import se.llbit.log.Log;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Opens the chunks of a (memory mapped) region file. Supports all compression types of Minecraft: gzip (1), zlib (2),
+ * uncompressed (3) and LZ4 (4), as well as chunks stored in an external {@code c.X.Z.mcc} file.
+ * <p>
+ * Compressed data is read straight from the buffer without copying it. Every thread keeps its {@link Inflater}s and
+ * resets them after a chunk instead of allocating new native inflaters for every chunk. The threads of
+ * {@link #newPool} end their inflaters when they terminate.
+ */
+public final class RegionChunkReader {
+    public static final int GZIP = 1;
+    public static final int ZLIB = 2;
+    public static final int UNCOMPRESSED = 3;
+    public static final int LZ4 = 4;
+    /** Set on the compression type if the chunk is stored in a separate file */
+    public static final int EXTERNAL = 0x80;
+
+    private static final int SECTOR_SIZE = 4096;
+
+    private static final ThreadLocal<PooledInflater> ZLIB_INFLATERS = new ThreadLocal<>();
+    /** For gzip, its header is skipped and the deflate data is inflated without the zlib wrapper */
+    private static final ThreadLocal<PooledInflater> RAW_INFLATERS = new ThreadLocal<>();
+
+    private RegionChunkReader() {
+    }
+
+    /**
+     * Creates a pool for reading region files. Its threads end their inflaters when they terminate, which happens
+     * once the pool is shut down and idle, instead of leaving the native memory to the garbage collector.
+     */
+    public static ForkJoinPool newPool(int parallelism) {
+        return new ForkJoinPool(parallelism, pool -> new ForkJoinWorkerThread(pool) {
+            @Override
+            protected void onTermination(Throwable exception) {
+                releaseInflaters();
+                super.onTermination(exception);
+            }
+        }, null, false);
+    }
+
+    /**
+     * Ends the inflaters of the current thread. A stream that is still open keeps its inflater until it is closed.
+     */
+    static void releaseInflaters() {
+        release(ZLIB_INFLATERS);
+        release(RAW_INFLATERS);
+    }
+
+    private static void release(ThreadLocal<PooledInflater> inflaters) {
+        PooledInflater pooled = inflaters.get();
+        if (pooled == null) {
+            return;
+        }
+        inflaters.remove();
+        if (pooled.inUse) {
+            pooled.released = true;
+        } else {
+            pooled.inflater.end();
+        }
+    }
+
+    private static PooledInflater pooled(ThreadLocal<PooledInflater> inflaters, boolean nowrap) {
+        PooledInflater pooled = inflaters.get();
+        if (pooled == null) {
+            pooled = new PooledInflater(nowrap);
+            inflaters.set(pooled);
+        }
+        return pooled;
+    }
+
+    /**
+     * Opens the decompressed data of a chunk. The stream has to be closed on the thread that opened it.
+     *
+     * @param region      Contents of the region file
+     * @param location    Entry of the chunk in the location table
+     * @param regionFile  Region file, to find external chunks next to it
+     * @param metrics     Receives the compressed size and the number of bytes read from the returned stream
+     * @return The data or null if the chunk can't be read
+     */
+    public static InputStream open(ByteBuffer region, int location, File regionFile, int chunkX, int chunkZ,
+                                   RunMetrics metrics) throws IOException {
+        int sectorOffset = location >>> 8;
+        long length = region.capacity();
+
+        long offset = (long) sectorOffset * SECTOR_SIZE;
+        if (offset + 5 > length) {
+            Log.warn("Chunk outside of region file " + regionFile.getName());
+            return null;
+        }
+
+        int lengthInBytes = region.getInt((int) offset);
+        int compressionType = region.get((int) offset + 4) & 0xFF;
+
+        if ((compressionType & EXTERNAL) != 0) {
+            return openExternal(regionFile, chunkX, chunkZ, compressionType & ~EXTERNAL, metrics);
+        }
+
+        if (lengthInBytes < 1 || offset + 4 + lengthInBytes > length) {
+            Log.warn("Truncated chunk in region file " + regionFile.getName());
+            return null;
+        }
+
+        metrics.bytesRead.add(lengthInBytes - 1);
+        return decompress(region.slice((int) offset + 5, lengthInBytes - 1), compressionType, metrics.bytesInflated);
+    }
+
+    /**
+     * Chunks too large for the region file are stored in a file of their own, the region file only contains the
+     * compression type.
+     */
+    private static InputStream openExternal(File regionFile, int chunkX, int chunkZ, int compressionType,
+                                            RunMetrics metrics) throws IOException {
+        File file = new File(regionFile.getParentFile(), "c." + chunkX + "." + chunkZ + ".mcc");
+        if (!file.isFile()) {
+            Log.warn("Missing external chunk " + file.getName());
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            metrics.bytesRead.add(data.capacity());
+            // The mapping stays valid after the channel is closed
+            return decompress(data, compressionType, metrics.bytesInflated);
+        }
+    }
+
+    private static InputStream decompress(ByteBuffer data, int compressionType, LongAdder inflated) throws IOException {
+        InputStream in = switch (compressionType) {
+            case GZIP -> new InflatingInputStream(pooled(RAW_INFLATERS, true), skipGzipHeader(data));
+            case ZLIB -> new InflatingInputStream(pooled(ZLIB_INFLATERS, false), data);
+            case UNCOMPRESSED -> new ByteBufferInputStream(data);
+            case LZ4 -> new Lz4BlockInputStream(data);
+            default -> null;
+        };
+        if (in == null) {
+            Log.warn("Error: unknown chunk data compression method: " + compressionType + "!");
+            return null;
+        }
+        return new CountingInputStream(in, inflated);
+    }
+
+    /**
+     * @return The deflate data after the gzip header (RFC 1952)
+     */
+    private static ByteBuffer skipGzipHeader(ByteBuffer data) throws IOException {
+        if (data.remaining() < 10 || (data.get(0) & 0xFF) != 0x1F || (data.get(1) & 0xFF) != 0x8B || data.get(2) != 8) {
+            throw new IOException("Not in gzip format");
+        }
+        int flags = data.get(3) & 0xFF;
+        int position = 10;
+        try {
+            if ((flags & 4) != 0) { // FEXTRA
+                position += 2 + ((data.get(position) & 0xFF) | (data.get(position + 1) & 0xFF) << 8);
+            }
+            if ((flags & 8) != 0) { // FNAME
+                while (data.get(position++) != 0) {
+                    // Skip the zero terminated name
+                }
+            }
+            if ((flags & 16) != 0) { // FCOMMENT
+                while (data.get(position++) != 0) {
+                    // Skip the zero terminated comment
+                }
+            }
+            if ((flags & 2) != 0) { // FHCRC
+                position += 2;
+            }
+            return data.slice(position, data.limit() - position);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated gzip header");
+        }
+    }
+
+    /**
+     * Inflater of one thread. A stream that is opened while the inflater of its thread is still in use gets its own.
+     */
+    private static final class PooledInflater {
+        final boolean nowrap;
+        final Inflater inflater;
+        boolean inUse;
+        /** Removed from its thread while in use, the stream ends it when closed */
+        boolean released;
+
+        PooledInflater(boolean nowrap) {
+            this.nowrap = nowrap;
+            inflater = new Inflater(nowrap);
+        }
+    }
+
+    /**
+     * Inflates a buffer with a pooled inflater, which is reset and returned on close.
+     */
+    private static final class InflatingInputStream extends InputStream {
+        private final PooledInflater pooled;
+        private final Inflater inflater;
+        private final boolean owned;
+        private final byte[] single = new byte[1];
+
+        InflatingInputStream(PooledInflater pooled, ByteBuffer data) {
+            this.owned = pooled.inUse;
+            this.pooled = owned ? null : pooled;
+            this.inflater = owned ? new Inflater(pooled.nowrap) : pooled.inflater;
+            if (!owned) {
+                pooled.inUse = true;
+            }
+            inflater.setInput(data);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) == 1 ? single[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            try {
+                while (true) {
+                    int count = inflater.inflate(b, off, len);
+                    if (count > 0) {
+                        return count;
+                    }
+                    if (inflater.finished()) {
+                        return -1;
+                    }
+                    if (inflater.needsDictionary()) {
+                        throw new IOException("Deflate data needs a preset dictionary");
+                    }
+                    if (inflater.needsInput()) {
+                        // All input was given at once, so needing more means the data is truncated
+                        throw new EOFException("Truncated deflate data");
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt deflate data: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (owned) {
+                inflater.end();
+            } else if (pooled.inUse) {
+                pooled.inUse = false;
+                if (pooled.released) {
+                    inflater.end();
+                } else {
+                    inflater.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the stream format of lz4-java's {@code LZ4BlockOutputStream}, which Minecraft uses for LZ4 chunks: blocks
+     * with a 21 byte header ("LZ4Block", method, compressed length, decompressed length, checksum), ended by an empty
+     * block. The checksums are not verified.
+     */
+    static final class Lz4BlockInputStream extends InputStream {
+        private static final long MAGIC = 0x4C5A34426C6F636BL; // LZ4Block
+        private static final int HEADER_LENGTH = 21;
+        private static final int METHOD_RAW = 0x10;
+        private static final int METHOD_LZ4 = 0x20;
+        /**
+         * The low bits of the method byte hold the compression level, blocks are at most 1 << (10 + level) bytes.
+         */
+        private static final int COMPRESSION_LEVEL_BASE = 10;
+        private static final int MAX_BLOCK_LENGTH = 1 << 25;
+
+        private final ByteBuffer data;
+        private byte[] block = new byte[0];
+        private int blockLength;
+        private int blockPosition;
+        private boolean finished;
+
+        Lz4BlockInputStream(ByteBuffer data) {
+            this.data = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (blockPosition == blockLength && !nextBlock()) {
+                return -1;
+            }
+            return block[blockPosition++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (blockPosition == blockLength && !nextBlock()) {
+                return -1;
+            }
+            int count = Math.min(len, blockLength - blockPosition);
+            System.arraycopy(block, blockPosition, b, off, count);
+            blockPosition += count;
+            return count;
+        }
+
+        private boolean nextBlock() throws IOException {
+            while (!finished) {
+                if (data.remaining() < HEADER_LENGTH) {
+                    // Streams without an end block are accepted, like the stream of lz4-java does by default
+                    finished = true;
+                    return false;
+                }
+                if (Long.reverseBytes(data.getLong()) != MAGIC) {
+                    throw new IOException("Not in LZ4 block format");
+                }
+                int token = data.get() & 0xFF;
+                int method = token & 0xF0;
+                int maxLength = Math.min(1 << (COMPRESSION_LEVEL_BASE + (token & 0x0F)), MAX_BLOCK_LENGTH);
+                int compressedLength = data.getInt();
+                int decompressedLength = data.getInt();
+                data.getInt(); // Checksum
+
+                if (compressedLength < 0 || decompressedLength < 0 || compressedLength > data.remaining()
+                        || decompressedLength > maxLength) {
+                    throw new IOException("Corrupt LZ4 block header");
+                }
+                if (decompressedLength == 0) {
+                    finished = true; // End block
+                    return false;
+                }
+
+                if (block.length < decompressedLength) {
+                    block = new byte[decompressedLength];
+                }
+                ByteBuffer compressed = data.slice(data.position(), compressedLength);
+                data.position(data.position() + compressedLength);
+
+                if (method == METHOD_RAW) {
+                    if (compressedLength != decompressedLength) {
+                        throw new IOException("Corrupt LZ4 block header");
+                    }
+                    compressed.get(block, 0, decompressedLength);
+                } else if (method == METHOD_LZ4) {
+                    decompressBlock(compressed, block, decompressedLength);
+                } else {
+                    throw new IOException("Unknown LZ4 block method: " + method);
+                }
+                blockLength = decompressedLength;
+                blockPosition = 0;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Decompresses one raw LZ4 block: sequences of literals followed by a match copied from earlier output.
+         */
+        static void decompressBlock(ByteBuffer in, byte[] out, int length) throws IOException {
+            int written = 0;
+            try {
+                while (true) {
+                    int token = in.get() & 0xFF;
+
+                    int literals = token >>> 4;
+                    if (literals == 15) {
+                        literals += readLength(in);
+                    }
+                    if (written + literals > length) {
+                        throw new IOException("Corrupt LZ4 block");
+                    }
+                    in.get(out, written, literals);
+                    written += literals;
+                    if (written == length) {
+                        return; // The last sequence has no match
+                    }
+
+                    int matchOffset = (in.get() & 0xFF) | (in.get() & 0xFF) << 8;
+                    int matchLength = token & 0x0F;
+                    if (matchLength == 15) {
+                        matchLength += readLength(in);
+                    }
+                    matchLength += 4;
+
+                    if (matchOffset == 0 || matchOffset > written || written + matchLength > length) {
+                        throw new IOException("Corrupt LZ4 block");
+                    }
+                    // Matches may overlap their own output, so this has to copy byte by byte
+                    for (int i = 0; i < matchLength; i++) {
+                        out[written] = out[written - matchOffset];
+                        written++;
+                    }
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Corrupt LZ4 block", e);
+            }
+        }
+
+        private static int readLength(ByteBuffer in) {
+            int length = 0;
+            int value;
+            do {
+                value = in.get() & 0xFF;
+                length += value;
+            } while (value == 255);
+            return length;
+        }
+    }
+
+    /**
+     * Counts the bytes read or skipped and adds them to the counter when closed.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private final LongAdder counter;
+        private long count;
+
+        CountingInputStream(InputStream in, LongAdder counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = in.read();
+            if (result >= 0) {
+                count++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = in.read(b, off, len);
+            if (result > 0) {
+                count += result;
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long result = in.skip(n);
+            count += result;
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            counter.add(count);
+            count = 0;
+            super.close();
+        }
+    }
+
+    /**
+     * Reads from a (memory mapped) buffer without copying it into a separate array first.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package de.beyondblocks.automatedPreview;
+
+/**
+ * Analysis result of a single region file: The file state it was computed from, the chunk timestamps of the region
+ * header and a bitmap of the inhabited chunks.
+ */
+public class RegionIndex {
+    public static final int CHUNKS = 32 * 32;
+
+    public final int regionX;
+    public final int regionZ;
+    public final long lastModified;
+    public final long length;
+    /** Last write time of every chunk as stored in the second header sector, 0 for missing chunks */
+    public final int[] timestamps;
+    /** One bit per chunk, indexed like the region header */
+    public final long[] inhabited;
+
+    public RegionIndex(int regionX, int regionZ, long lastModified, long length) {
+        this(regionX, regionZ, lastModified, length, new int[CHUNKS], new long[CHUNKS / 64]);
+    }
+
+    RegionIndex(int regionX, int regionZ, long lastModified, long length, int[] timestamps, long[] inhabited) {
+        this.regionX = regionX;
+        this.regionZ = regionZ;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.timestamps = timestamps;
+        this.inhabited = inhabited;
+    }
+
+    public static int index(int localX, int localZ) {
+        return (localX & 31) + (localZ & 31) * 32;
+    }
+
+    public static long key(int regionX, int regionZ) {
+        return ((long) regionX << 32) | (regionZ & 0xFFFFFFFFL);
+    }
+
+    public long key() {
+        return key(regionX, regionZ);
+    }
+
+    public boolean isInhabited(int index) {
+        return (inhabited[index >> 6] & (1L << index)) != 0;
+    }
+
+    void setInhabited(int index) {
+        inhabited[index >> 6] |= 1L << index;
+    }
+
+    public boolean hasInhabitedChunks() {
+        for (long bits : inhabited) {
+            if (bits != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
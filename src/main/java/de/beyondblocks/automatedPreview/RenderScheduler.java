@@ -0,0 +1,181 @@
+package de.beyondblocks.automatedPreview;
+
+import se.llbit.log.Log;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Fixed pool of render threads shared by all jobs of the process. Every job queues its own tasks, and a free thread
+ * always takes the next task of the job that received the least CPU time relative to its priority so far, so
+ * concurrent jobs share the threads in proportion to their priorities no matter how many tasks they queue. A job with
+ * priority 3 gets three times the threads of a job with priority 1 while both have tasks queued. Within a job, tasks
+ * run in the order they were queued.
+ * <p>
+ * The CPU time of every task is measured on its thread and charged to its job, which makes it exact even while
+ * other jobs run at the same time.
+ */
+public class RenderScheduler implements AutoCloseable {
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+    /** Cost assumed for the first task of a job, before any task was measured */
+    private static final long INITIAL_TASK_ESTIMATE_NANOS = 1_000_000;
+    public static final int NORMAL_PRIORITY = 1;
+    public static final int MAX_PRIORITY = 10;
+
+    private final List<Thread> workers = new ArrayList<>();
+    /** Jobs with queued tasks */
+    private final List<Job> active = new ArrayList<>();
+    private final boolean measureCpu = THREAD_BEAN.isCurrentThreadCpuTimeSupported();
+    /** Lowest CPU share of the jobs that ran so far, jobs that (re)join start from here */
+    private long minShareNanos;
+    private boolean closed;
+
+    /**
+     * Tasks of one job, like the rendering of one world. Queuing tasks is the only thing a job needs, it does not have
+     * to be closed.
+     */
+    public final class Job implements Executor {
+        private final RunMetrics metrics;
+        private final int priority;
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        /**
+         * CPU time received divided by the priority, including the estimates of running tasks, relative to the other
+         * jobs
+         */
+        private long shareNanos;
+        private long taskEstimateNanos = INITIAL_TASK_ESTIMATE_NANOS;
+
+        private Job(RunMetrics metrics, int priority) {
+            this.metrics = metrics;
+            this.priority = priority;
+        }
+
+        public RunMetrics metrics() {
+            return metrics;
+        }
+
+        @Override
+        public void execute(Runnable runnable) {
+            synchronized (RenderScheduler.this) {
+                if (closed) {
+                    throw new RejectedExecutionException("Render scheduler is closed");
+                }
+                tasks.add(new Task(runnable, System.nanoTime()));
+                if (tasks.size() == 1) {
+                    // A job that was idle must not catch up on the time it did not use
+                    shareNanos = Math.max(shareNanos, minShareNanos);
+                    active.add(this);
+                }
+                RenderScheduler.this.notify();
+            }
+        }
+    }
+
+    private record Task(Runnable runnable, long queuedNanos) {
+    }
+
+    /**
+     * @param threads Number of render threads, the CPU budget of all rendering in the process
+     */
+    public RenderScheduler(int threads) {
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "preview-render-" + (i + 1));
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * @param metrics Receives the CPU time of the tasks and the time they waited for a thread
+     */
+    public Job newJob(RunMetrics metrics) {
+        return newJob(metrics, NORMAL_PRIORITY);
+    }
+
+    /**
+     * @param priority Share of the threads relative to the other jobs, from {@link #NORMAL_PRIORITY} to
+     *                 {@link #MAX_PRIORITY}
+     */
+    public Job newJob(RunMetrics metrics, int priority) {
+        if (priority < NORMAL_PRIORITY || priority > MAX_PRIORITY) {
+            throw new IllegalArgumentException("Priority must be between " + NORMAL_PRIORITY + " and " + MAX_PRIORITY);
+        }
+        return new Job(metrics, priority);
+    }
+
+    private void work() {
+        while (true) {
+            Job job;
+            Task task;
+            long estimate;
+            synchronized (this) {
+                while (active.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+
+                job = active.get(0);
+                for (Job candidate : active) {
+                    if (candidate.shareNanos < job.shareNanos) {
+                        job = candidate;
+                    }
+                }
+                minShareNanos = Math.max(minShareNanos, job.shareNanos);
+                task = job.tasks.poll();
+                if (job.tasks.isEmpty()) {
+                    active.remove(job);
+                }
+                // Charged up front, so the other threads do not all pick the same job before this task finishes
+                estimate = job.taskEstimateNanos;
+                job.shareNanos += estimate / job.priority;
+            }
+
+            long started = System.nanoTime();
+            long cpuStart = measureCpu ? THREAD_BEAN.getCurrentThreadCpuTime() : 0;
+            try {
+                task.runnable().run();
+            } catch (RuntimeException | Error e) {
+                Log.error("Render task failed", e);
+            }
+            long finished = System.nanoTime();
+            long cpu = measureCpu ? Math.max(0, THREAD_BEAN.getCurrentThreadCpuTime() - cpuStart) : finished - started;
+
+            job.metrics.renderCpuNanos.add(cpu);
+            job.metrics.renderWaitNanos.add(started - task.queuedNanos());
+            synchronized (this) {
+                job.shareNanos += cpu / job.priority - estimate / job.priority;
+                job.taskEstimateNanos = (job.taskEstimateNanos * 7 + cpu) / 8;
+            }
+        }
+    }
+
+    /**
+     * Stops the render threads. Queued tasks are dropped.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            for (Job job : active) {
+                job.tasks.clear();
+            }
+            active.clear();
+            notifyAll();
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package de.beyondblocks.automatedPreview;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings and counters of one preview run. All methods can be called from any thread.
+ * <p>
+ * Phases that fan out over a thread pool are measured with the CPU time of the whole process, so in batch mode they
+ * also contain the work of other worlds running at the same time. Phases that stay on one thread use the CPU time of
+ * that thread. A phase that runs several times (like loading the chunks of every tile) adds up. The reports keep the
+ * process CPU time and the peak heap apart from the values of the run, as they are not the run's alone.
+ */
+public class RunMetrics {
+    private static final com.sun.management.OperatingSystemMXBean OS_BEAN =
+            ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean bean ? bean : null;
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    public static final String DOWNLOAD = "download";
+    public static final String EXTRACT_TEXTURES = "extract_textures";
+    public static final String LOAD_TEXTURES = "load_textures";
+    public static final String SCAN_REGIONS = "scan_regions";
+    public static final String READ_HEIGHTS = "read_heights";
+    public static final String SURFACE = "surface";
+    public static final String LOAD_CHUNKS = "load_chunks";
+    public static final String TRACE = "trace";
+    public static final String ENCODE = "encode";
+
+    private static final List<String> COUNTERS = List.of(
+            "chunks_scanned", "chunks_loaded", "rays_traced", "bytes_read", "bytes_inflated", "bytes_written");
+
+    private final String name;
+    private final String dimension;
+    private final Instant started = Instant.now();
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Phase> phases = new ConcurrentHashMap<>();
+    private volatile long wallNanos = -1;
+
+    public final LongAdder chunksScanned = new LongAdder();
+    public final LongAdder chunksLoaded = new LongAdder();
+    public final LongAdder raysTraced = new LongAdder();
+    public final LongAdder bytesRead = new LongAdder();
+    public final LongAdder bytesInflated = new LongAdder();
+    public final LongAdder bytesWritten = new LongAdder();
+    /** CPU time of the tasks of this run on the render threads, measured per task, see {@link RenderScheduler} */
+    public final LongAdder renderCpuNanos = new LongAdder();
+    /** Time the tasks of this run waited for a render thread, summed over all tasks */
+    public final LongAdder renderWaitNanos = new LongAdder();
+
+    private static final class Phase {
+        final LongAdder wallNanos = new LongAdder();
+        /** CPU time of the threads the phase ran on */
+        final LongAdder cpuNanos = new LongAdder();
+        /** CPU time of the whole process while the phase ran on several threads */
+        final LongAdder processCpuNanos = new LongAdder();
+        volatile boolean threadMeasured;
+        volatile boolean processMeasured;
+    }
+
+    /**
+     * Running measurement of a phase, stopped by closing it.
+     */
+    public final class Timer implements AutoCloseable {
+        private final String phase;
+        private final boolean thread;
+        private final long wallStart = System.nanoTime();
+        private final long cpuStart;
+        private boolean stopped;
+
+        private Timer(String phase, boolean thread) {
+            this.phase = phase;
+            this.thread = thread;
+            this.cpuStart = cpuTime(thread);
+        }
+
+        @Override
+        public void close() {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            long cpuNanos = Math.max(0, cpuTime(thread) - cpuStart);
+            if (thread) {
+                add(phase, System.nanoTime() - wallStart, cpuNanos);
+            } else {
+                Phase totals = phases.computeIfAbsent(phase, key -> new Phase());
+                totals.wallNanos.add(System.nanoTime() - wallStart);
+                totals.processCpuNanos.add(cpuNanos);
+                totals.processMeasured = true;
+            }
+        }
+    }
+
+    /**
+     * @param name      Label of the run in the reports, usually the world directory
+     * @param dimension Rendered dimension, null if the run is not about one
+     */
+    public RunMetrics(String name, String dimension) {
+        this.name = name;
+        this.dimension = dimension;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String dimension() {
+        return dimension;
+    }
+
+    /**
+     * Starts measuring a phase that runs on several threads.
+     */
+    public Timer start(String phase) {
+        return new Timer(phase, false);
+    }
+
+    /**
+     * Starts measuring a phase that runs only on the calling thread. The timer has to be closed on the same thread.
+     */
+    public Timer startOnThread(String phase) {
+        return new Timer(phase, true);
+    }
+
+    /**
+     * Adds a measurement that was taken elsewhere, with the CPU time of the threads the phase ran on.
+     */
+    public void add(String phase, long wallNanos, long cpuNanos) {
+        Phase totals = phases.computeIfAbsent(phase, key -> new Phase());
+        totals.wallNanos.add(wallNanos);
+        totals.cpuNanos.add(cpuNanos);
+        totals.threadMeasured = true;
+    }
+
+    /**
+     * Marks the run as finished, the total wall time is measured up to the first call.
+     */
+    public void finish() {
+        if (wallNanos < 0) {
+            wallNanos = System.nanoTime() - startNanos;
+        }
+    }
+
+    private static long cpuTime(boolean thread) {
+        if (thread) {
+            return THREAD_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_BEAN.getCurrentThreadCpuTime() : 0;
+        }
+        return OS_BEAN != null ? OS_BEAN.getProcessCpuTime() : 0;
+    }
+
+    /**
+     * @return The highest heap usage of the JVM so far, summed over all heap pools
+     */
+    private static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * @return The counters in the order of {@link #COUNTERS}
+     */
+    private long[] counterValues() {
+        return new long[]{chunksScanned.sum(), chunksLoaded.sum(), raysTraced.sum(), bytesRead.sum(),
+                bytesInflated.sum(), bytesWritten.sum()};
+    }
+
+    private Map<String, Long> counters() {
+        long[] values = counterValues();
+        Map<String, Long> counters = new LinkedHashMap<>();
+        for (int i = 0; i < COUNTERS.size(); i++) {
+            counters.put(COUNTERS.get(i), values[i]);
+        }
+        return counters;
+    }
+
+    /**
+     * @return Wall time of every phase, and the CPU time of the phases measured on their own threads
+     */
+    private JSONObject phasesJson() {
+        JSONObject json = new JSONObject();
+        phases.forEach((phase, totals) -> {
+            JSONObject phaseJson = new JSONObject().put("wall_ms", totals.wallNanos.sum() / 1_000_000.0);
+            if (totals.threadMeasured) {
+                phaseJson.put("cpu_ms", totals.cpuNanos.sum() / 1_000_000.0);
+            }
+            json.put(phase, phaseJson);
+        });
+        return json;
+    }
+
+    /**
+     * @return CPU time of the whole process during the phases that ran on several threads
+     */
+    private JSONObject processCpuJson() {
+        JSONObject json = new JSONObject();
+        phases.forEach((phase, totals) -> {
+            if (totals.processMeasured) {
+                json.put(phase, totals.processCpuNanos.sum() / 1_000_000.0);
+            }
+        });
+        return json;
+    }
+
+    /**
+     * Values that belong to the whole process and not only to this run, like the peak heap, are under
+     * {@code process}.
+     *
+     * @param setup Phases shared by all runs of the process (download and textures), may be null
+     */
+    public JSONObject toJson(RunMetrics setup) {
+        JSONObject json = new JSONObject()
+                .put("name", name)
+                .put("dimension", dimension)
+                .put("started", started.toString())
+                .put("wall_ms", (wallNanos < 0 ? System.nanoTime() - startNanos : wallNanos) / 1_000_000.0)
+                .put("phases", phasesJson())
+                .put("counters", new JSONObject(counters()))
+                .put("render", new JSONObject()
+                        .put("cpu_ms", renderCpuNanos.sum() / 1_000_000.0)
+                        .put("wait_ms", renderWaitNanos.sum() / 1_000_000.0))
+                .put("process", new JSONObject()
+                        .put("phase_cpu_ms", processCpuJson())
+                        .put("peak_heap_bytes", peakHeapBytes()));
+        if (setup != null) {
+            json.put("setup_phases", setup.phasesJson());
+        }
+        return json;
+    }
+
+    /**
+     * Writes the JSON report of this run.
+     */
+    public void writeJson(File file, RunMetrics setup) throws IOException {
+        write(file, toJson(setup).toString(2) + "\n");
+    }
+
+    /**
+     * Writes the latest run of every world in the Prometheus text format, for the textfile collector of the node
+     * exporter.
+     */
+    public static void writePrometheus(File file, Collection<RunMetrics> runs, RunMetrics setup) throws IOException {
+        StringBuilder out = new StringBuilder();
+
+        gauge(out, "automated_preview_phase_seconds", "Wall time of a phase in the latest run of a world");
+        for (RunMetrics run : runs) {
+            run.phases.forEach((phase, totals) -> sample(out, "automated_preview_phase_seconds",
+                    run, phase, totals.wallNanos.sum() / 1e9));
+        }
+        if (setup != null) {
+            setup.phases.forEach((phase, totals) -> sample(out, "automated_preview_phase_seconds",
+                    null, phase, totals.wallNanos.sum() / 1e9));
+        }
+
+        gauge(out, "automated_preview_phase_cpu_seconds", "CPU time of a phase in the latest run of a world");
+        for (RunMetrics run : runs) {
+            run.phases.forEach((phase, totals) -> {
+                if (totals.threadMeasured) {
+                    sample(out, "automated_preview_phase_cpu_seconds", run, phase, totals.cpuNanos.sum() / 1e9);
+                }
+            });
+        }
+        if (setup != null) {
+            setup.phases.forEach((phase, totals) -> {
+                if (totals.threadMeasured) {
+                    sample(out, "automated_preview_phase_cpu_seconds", null, phase, totals.cpuNanos.sum() / 1e9);
+                }
+            });
+        }
+
+        gauge(out, "automated_preview_phase_process_cpu_seconds",
+                "CPU time of the whole process while a multi-threaded phase of the latest run of a world ran");
+        for (RunMetrics run : runs) {
+            run.phases.forEach((phase, totals) -> {
+                if (totals.processMeasured) {
+                    sample(out, "automated_preview_phase_process_cpu_seconds", run, phase,
+                            totals.processCpuNanos.sum() / 1e9);
+                }
+            });
+        }
+
+        gauge(out, "automated_preview_run_seconds", "Wall time of the latest run of a world");
+        for (RunMetrics run : runs) {
+            sample(out, "automated_preview_run_seconds", run, null, Math.max(0, run.wallNanos) / 1e9);
+        }
+        gauge(out, "automated_preview_run_timestamp_seconds", "Start of the latest run of a world");
+        for (RunMetrics run : runs) {
+            sample(out, "automated_preview_run_timestamp_seconds", run, null, run.started.getEpochSecond());
+        }
+
+        gauge(out, "automated_preview_render_cpu_seconds", "CPU time of the render threads spent on the latest run of a world");
+        for (RunMetrics run : runs) {
+            sample(out, "automated_preview_render_cpu_seconds", run, null, run.renderCpuNanos.sum() / 1e9);
+        }
+        gauge(out, "automated_preview_render_wait_seconds", "Time the render tasks of the latest run of a world waited for a thread");
+        for (RunMetrics run : runs) {
+            sample(out, "automated_preview_render_wait_seconds", run, null, run.renderWaitNanos.sum() / 1e9);
+        }
+
+        for (int i = 0; i < COUNTERS.size(); i++) {
+            String metric = "automated_preview_" + COUNTERS.get(i);
+            gauge(out, metric, "Number of " + COUNTERS.get(i).replace('_', ' ') + " in the latest run of a world");
+            for (RunMetrics run : runs) {
+                sample(out, metric, run, null, run.counterValues()[i]);
+            }
+        }
+
+        gauge(out, "automated_preview_peak_heap_bytes", "Highest heap usage of the process");
+        sample(out, "automated_preview_peak_heap_bytes", null, null, peakHeapBytes());
+
+        write(file, out.toString());
+    }
+
+    private static void gauge(StringBuilder out, String metric, String help) {
+        out.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(metric).append(" gauge\n");
+    }
+
+    /**
+     * @param run Run the sample belongs to, labelled with its world and dimension. Null for samples of the process.
+     */
+    private static void sample(StringBuilder out, String metric, RunMetrics run, String phase, Number value) {
+        List<String> labels = new ArrayList<>();
+        if (run != null) {
+            labels.add("world=\"" + escape(run.name) + "\"");
+            if (run.dimension != null) {
+                labels.add("dimension=\"" + escape(run.dimension) + "\"");
+            }
+        }
+        if (phase != null) {
+            labels.add("phase=\"" + escape(phase) + "\"");
+        }
+
+        out.append(metric);
+        if (!labels.isEmpty()) {
+            out.append('{').append(String.join(",", labels)).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Writes to a temporary file first, so collectors never read a partial file.
+     */
+    private static void write(File file, String content) throws IOException {
+        AtomicFiles.write(file, tempFile -> Files.writeString(tempFile, content, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,306 @@
+package de.beyondblocks.automatedPreview;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming reader for the surface of a chunk: the WORLD_SURFACE and OCEAN_FLOOR heightmaps and the block states of its
+ * sections, from which the top block of every column is looked up. Like {@link NbtFieldExtractor} it walks the tags with
+ * an {@link NbtCursor}, so no tag objects are created and everything else is skipped by its length. Only the section
+ * format of 1.18+ is supported.
+ * <p>
+ * Buffers are reused between chunks, so an instance must not be shared between threads.
+ */
+public class SurfaceChunkReader {
+    /** Returned by {@link #surfaceY} and {@link #oceanFloorY} for columns without blocks */
+    public static final int NO_BLOCK = Integer.MIN_VALUE;
+
+    private static final byte[] HEIGHTMAPS = NbtCursor.name("Heightmaps");
+    private static final byte[] WORLD_SURFACE = NbtCursor.name("WORLD_SURFACE");
+    private static final byte[] OCEAN_FLOOR = NbtCursor.name("OCEAN_FLOOR");
+    private static final byte[] Y_POS = NbtCursor.name("yPos");
+    private static final byte[] SECTIONS = NbtCursor.name("sections");
+    private static final byte[] Y = NbtCursor.name("Y");
+    private static final byte[] BLOCK_STATES = NbtCursor.name("block_states");
+    private static final byte[] PALETTE = NbtCursor.name("palette");
+    private static final byte[] NAME = NbtCursor.name("Name");
+    private static final byte[] DATA = NbtCursor.name("data");
+
+    private static final int MAX_SECTIONS = 64;
+
+    private final int[] surface = new int[256];
+    private final int[] oceanFloor = new int[256];
+    /** Heightmaps have 37 longs since 1.18, longer ones are not supported */
+    private final long[] surfaceData = new long[64];
+    private final long[] oceanFloorData = new long[64];
+    private boolean hasSurface;
+    private boolean hasOceanFloor;
+    private int minY;
+
+    private int sectionCount;
+    private final int[] sectionY = new int[MAX_SECTIONS];
+    private final String[][] palettes = new String[MAX_SECTIONS][];
+    private final int[] paletteSizes = new int[MAX_SECTIONS];
+    private final long[][] data = new long[MAX_SECTIONS][];
+    private final int[] dataLengths = new int[MAX_SECTIONS];
+
+    private final NbtCursor nbt = new NbtCursor();
+
+    /**
+     * Reads the uncompressed NBT data of a chunk. The stream is not closed.
+     *
+     * @return false if the chunk has no WORLD_SURFACE heightmap, e.g. because it is not fully generated or older than
+     * 1.18, and its surface is unknown
+     */
+    public boolean read(InputStream in) throws IOException {
+        hasSurface = false;
+        hasOceanFloor = false;
+        minY = 0;
+        sectionCount = 0;
+        // Heightmaps may come before yPos, so they are decoded at the end
+        int surfaceLength = -1;
+        int oceanFloorLength = -1;
+
+        try {
+            nbt.open(in);
+            while (true) {
+                byte type = nbt.readByte();
+                if (type == NbtCursor.TAG_END) {
+                    break;
+                }
+                nbt.readName();
+                if (type == NbtCursor.TAG_INT && nbt.nameEquals(Y_POS)) {
+                    minY = nbt.readInt() * 16;
+                } else if (type == NbtCursor.TAG_LIST && nbt.nameEquals(SECTIONS)) {
+                    readSections();
+                } else if (type == NbtCursor.TAG_COMPOUND && nbt.nameEquals(HEIGHTMAPS)) {
+                    while (true) {
+                        byte childType = nbt.readByte();
+                        if (childType == NbtCursor.TAG_END) {
+                            break;
+                        }
+                        nbt.readName();
+                        if (childType == NbtCursor.TAG_LONG_ARRAY && nbt.nameEquals(WORLD_SURFACE)) {
+                            surfaceLength = readLongArray(surfaceData);
+                        } else if (childType == NbtCursor.TAG_LONG_ARRAY && nbt.nameEquals(OCEAN_FLOOR)) {
+                            oceanFloorLength = readLongArray(oceanFloorData);
+                        } else {
+                            nbt.skipPayload(childType);
+                        }
+                    }
+                } else {
+                    nbt.skipPayload(type);
+                }
+            }
+        } finally {
+            nbt.release();
+        }
+
+        hasSurface = surfaceLength >= 0 && decodeHeightmap(surfaceData, surfaceLength, minY, surface);
+        hasOceanFloor = oceanFloorLength >= 0 && decodeHeightmap(oceanFloorData, oceanFloorLength, minY, oceanFloor);
+        return hasSurface;
+    }
+
+    /**
+     * @return The y coordinate of the highest block of a column or {@link #NO_BLOCK}
+     */
+    public int surfaceY(int x, int z) {
+        return hasSurface ? surface[z << 4 | x] : NO_BLOCK;
+    }
+
+    /**
+     * Highest block of a column below a ceiling. Columns that reach the ceiling, like the bedrock roof of the nether
+     * that the WORLD_SURFACE heightmap finds, are followed down through the roof to the first block with air above it.
+     *
+     * @param ceiling Lowest y coordinate that is not drawn
+     * @return The y coordinate of the block or {@link #NO_BLOCK} if the column is solid from the ceiling down
+     */
+    public int surfaceY(int x, int z, int ceiling) {
+        int y = surfaceY(x, z);
+        if (y == NO_BLOCK || y < ceiling) {
+            return y;
+        }
+        y = ceiling - 1;
+        while (y >= minY && !isAir(blockAt(x, y, z))) {
+            y--;
+        }
+        while (y >= minY && isAir(blockAt(x, y, z))) {
+            y--;
+        }
+        return y >= minY ? y : NO_BLOCK;
+    }
+
+    private static boolean isAir(String block) {
+        return block == null || block.equals("minecraft:air") || block.equals("minecraft:cave_air")
+                || block.equals("minecraft:void_air");
+    }
+
+    /**
+     * @return The y coordinate of the highest solid block below fluids, {@link #NO_BLOCK} if the chunk has none or no
+     * OCEAN_FLOOR heightmap
+     */
+    public int oceanFloorY(int x, int z) {
+        return hasOceanFloor ? oceanFloor[z << 4 | x] : NO_BLOCK;
+    }
+
+    /**
+     * @param x Block x inside the chunk
+     * @param z Block z inside the chunk
+     * @return The block name at a position, like {@code minecraft:stone}, or null if its section is missing
+     */
+    public String blockAt(int x, int y, int z) {
+        int section = Math.floorDiv(y, 16);
+        for (int i = 0; i < sectionCount; i++) {
+            if (sectionY[i] != section) {
+                continue;
+            }
+            int paletteSize = paletteSizes[i];
+            if (paletteSize == 0) {
+                return null;
+            }
+            if (paletteSize == 1 || dataLengths[i] == 0) {
+                return palettes[i][0];
+            }
+            // Entries do not span longs since 1.16, with at least 4 bits per entry
+            int bits = Math.max(4, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+            int valuesPerLong = 64 / bits;
+            int index = (y & 15) << 8 | z << 4 | x;
+            int longIndex = index / valuesPerLong;
+            if (longIndex >= dataLengths[i]) {
+                return null;
+            }
+            int entry = (int) ((data[i][longIndex] >>> ((index % valuesPerLong) * bits)) & ((1L << bits) - 1));
+            return entry < paletteSize ? palettes[i][entry] : null;
+        }
+        return null;
+    }
+
+    /**
+     * Decodes a heightmap of 256 entries into the y coordinates of the highest blocks.
+     *
+     * @param minY Lowest y coordinate of the chunk
+     * @return false for heightmaps of an unknown format
+     */
+    static boolean decodeHeightmap(long[] values, int length, int minY, int[] target) {
+        if (length == 0) {
+            return false;
+        }
+        int valuesPerLong = (256 + length - 1) / length;
+        int bits = 64 / valuesPerLong;
+        if ((256 + valuesPerLong - 1) / valuesPerLong != length || bits == 0) {
+            return false;
+        }
+        long mask = (1L << bits) - 1;
+        for (int i = 0; i < 256; i++) {
+            int value = (int) ((values[i / valuesPerLong] >>> ((i % valuesPerLong) * bits)) & mask);
+            // The heightmap stores the height above the highest block
+            target[i] = value == 0 ? NO_BLOCK : minY + value - 1;
+        }
+        return true;
+    }
+
+    private void readSections() throws IOException {
+        byte elementType = nbt.readByte();
+        int count = nbt.readLength();
+        if (elementType != NbtCursor.TAG_COMPOUND) {
+            nbt.skipElements(elementType, count);
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (sectionCount == MAX_SECTIONS) {
+                nbt.skipPayload(NbtCursor.TAG_COMPOUND);
+                continue;
+            }
+            int section = sectionCount;
+            sectionY[section] = Integer.MIN_VALUE;
+            paletteSizes[section] = 0;
+            dataLengths[section] = 0;
+
+            while (true) {
+                byte type = nbt.readByte();
+                if (type == NbtCursor.TAG_END) {
+                    break;
+                }
+                nbt.readName();
+                if (type == NbtCursor.TAG_BYTE && nbt.nameEquals(Y)) {
+                    sectionY[section] = nbt.readByte();
+                } else if (type == NbtCursor.TAG_COMPOUND && nbt.nameEquals(BLOCK_STATES)) {
+                    readBlockStates(section);
+                } else {
+                    nbt.skipPayload(type);
+                }
+            }
+            if (sectionY[section] != Integer.MIN_VALUE && paletteSizes[section] > 0) {
+                sectionCount++;
+            }
+        }
+    }
+
+    private void readBlockStates(int section) throws IOException {
+        while (true) {
+            byte type = nbt.readByte();
+            if (type == NbtCursor.TAG_END) {
+                return;
+            }
+            nbt.readName();
+            if (type == NbtCursor.TAG_LIST && nbt.nameEquals(PALETTE)) {
+                readPalette(section);
+            } else if (type == NbtCursor.TAG_LONG_ARRAY && nbt.nameEquals(DATA)) {
+                int length = nbt.readLength();
+                if (data[section] == null || data[section].length < length) {
+                    data[section] = new long[length];
+                }
+                nbt.readLongs(data[section], length);
+                dataLengths[section] = length;
+            } else {
+                nbt.skipPayload(type);
+            }
+        }
+    }
+
+    private void readPalette(int section) throws IOException {
+        byte elementType = nbt.readByte();
+        int count = nbt.readLength();
+        if (elementType != NbtCursor.TAG_COMPOUND) {
+            nbt.skipElements(elementType, count);
+            return;
+        }
+        if (palettes[section] == null || palettes[section].length < count) {
+            palettes[section] = new String[Math.max(count, 16)];
+        }
+
+        for (int i = 0; i < count; i++) {
+            String name = null;
+            while (true) {
+                byte type = nbt.readByte();
+                if (type == NbtCursor.TAG_END) {
+                    break;
+                }
+                nbt.readName();
+                if (type == NbtCursor.TAG_STRING && nbt.nameEquals(NAME)) {
+                    name = nbt.readString();
+                } else {
+                    nbt.skipPayload(type); // Properties
+                }
+            }
+            palettes[section][i] = name;
+        }
+        paletteSizes[section] = count;
+    }
+
+    /**
+     * Reads a long array tag into the target.
+     *
+     * @return The number of elements, or 0 if they do not fit and were skipped
+     */
+    private int readLongArray(long[] target) throws IOException {
+        int length = nbt.readLength();
+        if (length > target.length) {
+            nbt.skipBytes(8L * length);
+            return 0;
+        }
+        nbt.readLongs(target, length);
+        return length;
+    }
+}
@@ -0,0 +1,234 @@
+package de.beyondblocks.automatedPreview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Top-down map of a whole dimension that is drawn directly from the region files, without loading chunks into a
+ * Chunky scene. Every pixel gets the colour of the highest block of its column, water is darkened with its depth and
+ * columns higher than their northern neighbour are drawn lighter, lower ones darker, like the maps of the game.
+ * <p>
+ * The regions are streamed in parallel and only the image and the height of every pixel are kept, so the memory
+ * needed depends on the image size and not on the size of the world. Worlds larger than {@value #MAX_SIZE} blocks
+ * are drawn with one pixel for every n-th block.
+ */
+public class SurfaceRenderer {
+    public static final String FILE_NAME = "surface.png";
+    private static final int MAX_SIZE = 4096;
+    private static final int SECTOR_SIZE = 4096;
+    private static final int NO_HEIGHT = Integer.MIN_VALUE;
+
+    private final BlockColors colors;
+    private final int parallelism;
+
+    /**
+     * @param parallelism Number of region files read concurrently
+     */
+    public SurfaceRenderer(BlockColors colors, int parallelism) {
+        this.colors = colors;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Geometry of the image: the block in the north-west corner and the number of blocks per pixel.
+     */
+    private record Layout(int minX, int minZ, int step, int width, int height) {
+        int pixel(int x, int z) {
+            return (z - minZ) / step * width + (x - minX) / step;
+        }
+    }
+
+    /**
+     * Draws all generated chunks of the scanned regions.
+     *
+     * @param ceiling Lowest y coordinate that is not drawn, columns reaching it are drawn below the roof they hit
+     * @param metrics Receives the number of read chunks and bytes
+     * @return The map or null if the regions have no chunks
+     */
+    public PreviewFrame render(File regionDir, List<RegionIndex> regions, int ceiling, RunMetrics metrics) {
+        Layout layout = layout(regions);
+        if (layout == null) {
+            return null;
+        }
+
+        PreviewFrame frame = new PreviewFrame(layout.width(), layout.height());
+        int[] heights = new int[layout.width() * layout.height()];
+        Arrays.fill(heights, NO_HEIGHT);
+
+        ForkJoinPool pool = RegionChunkReader.newPool(parallelism);
+        try {
+            pool.submit(() -> regions.parallelStream()
+                            .forEach(region -> drawRegion(regionDir, region, layout, ceiling, frame.pixels(), heights,
+                                    metrics)))
+                    .get();
+            pool.submit(() -> IntStream.range(0, layout.height()).parallel()
+                            .forEach(row -> shadeRow(row, layout.width(), frame.pixels(), heights)))
+                    .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return frame;
+    }
+
+    /**
+     * @return The layout covering all chunks with a timestamp or null
+     */
+    private static Layout layout(List<RegionIndex> regions) {
+        int minChunkX = Integer.MAX_VALUE;
+        int maxChunkX = Integer.MIN_VALUE;
+        int minChunkZ = Integer.MAX_VALUE;
+        int maxChunkZ = Integer.MIN_VALUE;
+        for (RegionIndex region : regions) {
+            for (int index = 0; index < RegionIndex.CHUNKS; index++) {
+                if (region.timestamps[index] != 0) {
+                    int chunkX = region.regionX * 32 + (index & 31);
+                    int chunkZ = region.regionZ * 32 + (index >> 5);
+                    minChunkX = Math.min(minChunkX, chunkX);
+                    maxChunkX = Math.max(maxChunkX, chunkX);
+                    minChunkZ = Math.min(minChunkZ, chunkZ);
+                    maxChunkZ = Math.max(maxChunkZ, chunkZ);
+                }
+            }
+        }
+        if (minChunkX == Integer.MAX_VALUE) {
+            return null;
+        }
+
+        int blocksX = (maxChunkX - minChunkX + 1) * 16;
+        int blocksZ = (maxChunkZ - minChunkZ + 1) * 16;
+        int step = (Math.max(blocksX, blocksZ) + MAX_SIZE - 1) / MAX_SIZE;
+        return new Layout(minChunkX * 16, minChunkZ * 16, step, (blocksX + step - 1) / step, (blocksZ + step - 1) / step);
+    }
+
+    private void drawRegion(File regionDir, RegionIndex index, Layout layout, int ceiling, int[] pixels,
+                            int[] heights, RunMetrics metrics) {
+        File regionFile = new File(regionDir, "r." + index.regionX + "." + index.regionZ + ".mca");
+        if (!regionFile.isFile() || regionFile.length() < 2 * SECTOR_SIZE) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(regionFile.toPath(), StandardOpenOption.READ)) {
+            SurfaceChunkReader reader = new SurfaceChunkReader();
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            metrics.bytesRead.add(SECTOR_SIZE);
+
+            int[] locations = new int[RegionIndex.CHUNKS];
+            region.asIntBuffer().get(locations);
+
+            for (int chunk = 0; chunk < RegionIndex.CHUNKS; chunk++) {
+                if (locations[chunk] == 0) {
+                    continue;
+                }
+                int chunkX = index.regionX * 32 + (chunk & 31);
+                int chunkZ = index.regionZ * 32 + (chunk >> 5);
+                // The first sampled column of the chunk on both axes, none if the chunk lies between two samples
+                int firstX = firstSample(chunkX * 16, layout.minX(), layout.step());
+                int firstZ = firstSample(chunkZ * 16, layout.minZ(), layout.step());
+                if (firstX >= 16 || firstZ >= 16) {
+                    continue;
+                }
+
+                try (InputStream chunkData = RegionChunkReader.open(region, locations[chunk], regionFile, chunkX, chunkZ,
+                        metrics)) {
+                    if (chunkData == null || !reader.read(chunkData)) {
+                        continue;
+                    }
+                }
+                metrics.chunksScanned.increment();
+
+                for (int z = firstZ; z < 16; z += layout.step()) {
+                    for (int x = firstX; x < 16; x += layout.step()) {
+                        int y = reader.surfaceY(x, z, ceiling);
+                        if (y == SurfaceChunkReader.NO_BLOCK) {
+                            continue;
+                        }
+                        int pixel = layout.pixel(chunkX * 16 + x, chunkZ * 16 + z);
+                        pixels[pixel] = columnColor(reader, x, y, z);
+                        heights[pixel] = y;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return The offset of the first block at or after the start of the chunk that lies on the sample grid
+     */
+    private static int firstSample(int chunkStart, int min, int step) {
+        return Math.floorMod(-(chunkStart - min), step);
+    }
+
+    private int columnColor(SurfaceChunkReader reader, int x, int y, int z) {
+        String block = reader.blockAt(x, y, z);
+        if (block == null) {
+            return 0;
+        }
+        int color = colors.color(block);
+        if (!block.equals("minecraft:water")) {
+            return color;
+        }
+
+        int floor = reader.oceanFloorY(x, z);
+        if (floor == SurfaceChunkReader.NO_BLOCK || floor >= y) {
+            return color;
+        }
+        // Shallow water shows a bit of the ground, deep water gets darker
+        int depth = y - floor;
+        String ground = reader.blockAt(x, floor, z);
+        if (depth <= 2 && ground != null) {
+            color = blend(color, colors.color(ground), 0.3);
+        }
+        return scale(color, Math.max(0.55, 1 - depth * 0.025));
+    }
+
+    /**
+     * Shades a row by comparing every column to the one north of it.
+     */
+    private static void shadeRow(int row, int width, int[] pixels, int[] heights) {
+        if (row == 0) {
+            return;
+        }
+        for (int x = 0; x < width; x++) {
+            int pixel = row * width + x;
+            int height = heights[pixel];
+            int north = heights[pixel - width];
+            if (height == NO_HEIGHT || north == NO_HEIGHT || height == north) {
+                continue;
+            }
+            pixels[pixel] = scale(pixels[pixel], height > north ? 1.12 : 0.86);
+        }
+    }
+
+    private static int scale(int argb, double factor) {
+        int red = Math.min(255, (int) (((argb >> 16) & 0xFF) * factor));
+        int green = Math.min(255, (int) (((argb >> 8) & 0xFF) * factor));
+        int blue = Math.min(255, (int) ((argb & 0xFF) * factor));
+        return argb & 0xFF000000 | red << 16 | green << 8 | blue;
+    }
+
+    private static int blend(int argb, int other, double weight) {
+        int red = (int) (((argb >> 16) & 0xFF) * (1 - weight) + ((other >> 16) & 0xFF) * weight);
+        int green = (int) (((argb >> 8) & 0xFF) * (1 - weight) + ((other >> 8) & 0xFF) * weight);
+        int blue = (int) ((argb & 0xFF) * (1 - weight) + (other & 0xFF) * weight);
+        return argb & 0xFF000000 | red << 16 | green << 8 | blue;
+    }
+}
@@ -0,0 +1,106 @@
+package de.beyondblocks.automatedPreview;
+
+import se.llbit.log.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Resource pack with only the files of the Minecraft jar that are needed to render blocks, extracted once per
+ * Minecraft version. The entries are stored uncompressed, so loading the textures does not have to inflate anything
+ * and does not have to skip over the sounds, languages, classes and GUI textures of the jar.
+ */
+public class TexturePackCache {
+    /** Increment when the selection of files changes, so old caches are rebuilt */
+    private static final int FORMAT = 1;
+
+    private static final List<String> INCLUDED = List.of(
+            "pack.mcmeta",
+            "pack.png",
+            "assets/minecraft/blockstates/",
+            "assets/minecraft/models/",
+            "assets/minecraft/textures/block/",
+            "assets/minecraft/textures/colormap/",
+            "assets/minecraft/textures/entity/",
+            "assets/minecraft/textures/environment/",
+            "assets/minecraft/textures/item/",
+            "assets/minecraft/textures/misc/",
+            "assets/minecraft/textures/painting/"
+    );
+
+    /**
+     * @return The cached resource pack of a Minecraft version, it may not exist yet
+     */
+    public static File packFile(File cacheDir, String version) {
+        return new File(cacheDir, "textures-" + version + "-v" + FORMAT + ".zip");
+    }
+
+    /**
+     * Extracts the files needed for rendering from the Minecraft jar. The pack is written to a temporary file first, so
+     * an existing pack is always complete.
+     */
+    public static void extract(File minecraftJar, File packFile) throws IOException {
+        long start = System.currentTimeMillis();
+        int[] count = new int[1];
+        AtomicFiles.write(packFile, tempFile -> count[0] = copyIncluded(minecraftJar, tempFile));
+        Log.info("Extracted " + count[0] + " files to " + packFile.getAbsolutePath() + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * @return The number of copied files
+     */
+    private static int copyIncluded(File minecraftJar, Path target) throws IOException {
+        int count = 0;
+        try (ZipFile jar = new ZipFile(minecraftJar);
+             ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(target)))) {
+            out.setMethod(ZipOutputStream.STORED);
+            CRC32 crc = new CRC32();
+
+            Enumeration<? extends ZipEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !isIncluded(entry.getName())) {
+                    continue;
+                }
+
+                byte[] data;
+                try (InputStream in = jar.getInputStream(entry)) {
+                    data = in.readAllBytes();
+                }
+                crc.reset();
+                crc.update(data);
+
+                ZipEntry stored = new ZipEntry(entry.getName());
+                stored.setMethod(ZipEntry.STORED);
+                stored.setSize(data.length);
+                stored.setCompressedSize(data.length);
+                stored.setCrc(crc.getValue());
+                out.putNextEntry(stored);
+                out.write(data);
+                out.closeEntry();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isIncluded(String name) {
+        for (String prefix : INCLUDED) {
+            if (prefix.endsWith("/") ? name.startsWith(prefix) : name.equals(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
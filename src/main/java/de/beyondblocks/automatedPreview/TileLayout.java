@@ -0,0 +1,134 @@
+package de.beyondblocks.automatedPreview;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the image of a view into square tiles and finds the chunks that can be seen in every tile. A chunk belongs to
+ * a tile if the projection of its column (from the bottom of the world up to its highest surface) overlaps the tile,
+ * so a tile can be rendered with only its own chunks loaded.
+ */
+public final class TileLayout {
+    /** Blocks added around every column, for blocks and entities reaching out of their chunk */
+    private static final double MARGIN_BLOCKS = 2;
+
+    private TileLayout() {
+    }
+
+    /**
+     * Pixels [x0, x1) x [y0, y1) of the image and the chunks needed to render them.
+     */
+    public record Tile(int x0, int y0, int x1, int y1, ChunkSet chunks) {
+    }
+
+    /**
+     * Receives the tiles a chunk column overlaps. The ranges are inclusive and already clipped to the image.
+     */
+    public interface ColumnConsumer {
+        void accept(int chunkX, int chunkZ, int firstColumn, int lastColumn, int firstRow, int lastRow);
+    }
+
+    /**
+     * @return Number of tile columns of the image
+     */
+    public static int columns(FramedView view, int tileSize) {
+        return (view.width() + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * @return Number of tile rows of the image
+     */
+    public static int rows(FramedView view, int tileSize) {
+        return (view.height() + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * @return The tile containing the pixels at the given tile column and row
+     */
+    public static Tile tile(FramedView view, int tileSize, int column, int row, ChunkSet chunks) {
+        return new Tile(column * tileSize, row * tileSize, Math.min(view.width(), (column + 1) * tileSize),
+                Math.min(view.height(), (row + 1) * tileSize), chunks);
+    }
+
+    /**
+     * @param heights Heights of the chunks, chunks without terrain are left out. If null, every column reaches up to maxY.
+     * @return All tiles that contain at least one chunk, in row order
+     */
+    public static List<Tile> split(FramedView view, ChunkSet chunks, ColumnHeightGrid heights, int minY, int maxY,
+                                   int tileSize) {
+        return split(view, chunks, heights, minY, maxY, tileSize, (chunkX, chunkZ, firstColumn, lastColumn, firstRow, lastRow) -> {
+        });
+    }
+
+    /**
+     * Same as {@link #split(FramedView, ChunkSet, ColumnHeightGrid, int, int, int)}, but also passes the tiles of every
+     * visible chunk to the consumer.
+     */
+    public static List<Tile> split(FramedView view, ChunkSet chunks, ColumnHeightGrid heights, int minY, int maxY,
+                                   int tileSize, ColumnConsumer columnConsumer) {
+        int columns = columns(view, tileSize);
+        int rows = rows(view, tileSize);
+        ChunkSet[] tileChunks = new ChunkSet[columns * rows];
+
+        forEachColumn(view, chunks, heights, minY, maxY, tileSize, (chunkX, chunkZ, firstColumn, lastColumn, firstRow, lastRow) -> {
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    int index = row * columns + column;
+                    if (tileChunks[index] == null) {
+                        tileChunks[index] = new ChunkSet();
+                    }
+                    tileChunks[index].add(chunkX, chunkZ);
+                }
+            }
+            columnConsumer.accept(chunkX, chunkZ, firstColumn, lastColumn, firstRow, lastRow);
+        });
+
+        List<Tile> tiles = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                ChunkSet tile = tileChunks[row * columns + column];
+                if (tile != null) {
+                    tiles.add(tile(view, tileSize, column, row, tile));
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Projects the column of every chunk with terrain and passes the tiles it overlaps to the consumer. Columns outside
+     * of the image are skipped.
+     */
+    public static void forEachColumn(FramedView view, ChunkSet chunks, ColumnHeightGrid heights, int minY, int maxY,
+                                     int tileSize, ColumnConsumer consumer) {
+        int width = view.width();
+        int height = view.height();
+        int columns = columns(view, tileSize);
+        int rows = rows(view, tileSize);
+
+        ViewFraming.Projection projection = ViewFraming.Projection.of(view.camera());
+        double halfWidth = width / (2.0 * height);
+        double marginPixels = MARGIN_BLOCKS * height / projection.blocksPerUnit();
+
+        chunks.forEach((chunkX, chunkZ) -> {
+            int top = heights != null ? heights.maxHeight(chunkX, chunkZ) : maxY;
+            if (top == ColumnHeightGrid.NO_TERRAIN) {
+                return;
+            }
+            if (top == ColumnHeightGrid.UNKNOWN || top > maxY) {
+                top = maxY;
+            }
+
+            double[] screen = projection.project(new ViewFraming.Bounds(chunkX * 16, minY, chunkZ * 16,
+                    chunkX * 16 + 16, Math.max(top, minY + 1), chunkZ * 16 + 16));
+            int firstColumn = Math.max(0, (int) Math.floor(((screen[0] + halfWidth) * height - marginPixels) / tileSize));
+            int lastColumn = Math.min(columns - 1, (int) Math.floor(((screen[1] + halfWidth) * height + marginPixels) / tileSize));
+            int firstRow = Math.max(0, (int) Math.floor(((screen[2] + 0.5) * height - marginPixels) / tileSize));
+            int lastRow = Math.min(rows - 1, (int) Math.floor(((screen[3] + 0.5) * height + marginPixels) / tileSize));
+
+            if (firstColumn <= lastColumn && firstRow <= lastRow) {
+                consumer.accept(chunkX, chunkZ, firstColumn, lastColumn, firstRow, lastRow);
+            }
+        });
+    }
+}
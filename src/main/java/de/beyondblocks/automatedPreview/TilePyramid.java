@@ -0,0 +1,254 @@
+package de.beyondblocks.automatedPreview;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import se.llbit.log.Log;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+/**
+ * Writes a finished frame as a pyramid of fixed size tiles for zoomable viewers. Level 0 has the full resolution,
+ * every further level half the resolution of the previous one, down to the level that fits into a single tile.
+ * Levels are downsampled in row bands and all tiles are encoded as separate tasks, so the whole pyramid is written in
+ * parallel. Fully transparent tiles are not written.
+ * <p>
+ * The tiles of a level are {@code LEVEL/COLUMN_ROW.png} in the directory of the view. {@code index.json} lists the
+ * size of every level and its tiles, and is written last.
+ */
+public class TilePyramid {
+    public static final String INDEX_FILE = "index.json";
+    private static final int BAND_HEIGHT = 64;
+
+    private final int tileSize;
+
+    public TilePyramid(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * @return The directory the pyramid of a view is written into
+     */
+    public static File directory(File outputDirectory, PreviewView view) {
+        return new File(outputDirectory, view.fileName().substring(0, view.fileName().lastIndexOf('.')));
+    }
+
+    /**
+     * Queues all levels and tiles of the frame. The frame must not change until the returned future completes.
+     *
+     * @param job Runs the downsampling and encoding tasks
+     * @return Completes once all tiles and the index are written
+     */
+    public CompletableFuture<Void> write(PreviewFrame frame, File directory, RenderScheduler.Job job) {
+        List<Level> levels = new ArrayList<>();
+        List<CompletableFuture<Void>> tiles = new ArrayList<>();
+        CompletableFuture<Void> done = writeLevels(frame, 0, directory, levels, tiles, job)
+                .thenCompose(all -> CompletableFuture.allOf(tiles.toArray(CompletableFuture<?>[]::new)));
+        return done.thenRun(() -> {
+            try {
+                writeIndex(frame, directory, levels);
+                deleteStaleTiles(directory, levels);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Log.info("Saved " + levels.size() + " levels of tiles into " + directory.getAbsolutePath());
+        });
+    }
+
+    private record Level(int width, int height, Set<String> tiles) {
+    }
+
+    /**
+     * Queues the tiles of a level and the next level, which is downsampled while the tiles are encoded.
+     *
+     * @return Completes once the tiles of all levels are queued
+     */
+    private CompletableFuture<Void> writeLevels(PreviewFrame level, int index, File directory, List<Level> levels,
+                                                List<CompletableFuture<Void>> tiles, RenderScheduler.Job job) {
+        Level written = new Level(level.width(), level.height(), ConcurrentHashMap.newKeySet());
+        levels.add(written);
+        File levelDirectory = new File(directory, String.valueOf(index));
+        if (!levelDirectory.isDirectory() && !levelDirectory.mkdirs()) {
+            return CompletableFuture.failedFuture(new UncheckedIOException(
+                    new IOException("Failed to create directory: " + levelDirectory.getAbsolutePath())));
+        }
+
+        for (int row = 0; row * tileSize < level.height(); row++) {
+            for (int column = 0; column * tileSize < level.width(); column++) {
+                int tileColumn = column;
+                int tileRow = row;
+                tiles.add(CompletableFuture.runAsync(() -> {
+                    if (writeTile(level, tileColumn, tileRow, levelDirectory, job.metrics())) {
+                        written.tiles().add(tileColumn + "_" + tileRow);
+                    }
+                }, job));
+            }
+        }
+
+        if (level.width() <= tileSize && level.height() <= tileSize) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return downsample(level, job).thenCompose(next -> writeLevels(next, index + 1, directory, levels, tiles, job));
+    }
+
+    /**
+     * @return False if the tile is fully transparent and was not written
+     */
+    private boolean writeTile(PreviewFrame level, int column, int row, File levelDirectory, RunMetrics metrics) {
+        int x0 = column * tileSize;
+        int y0 = row * tileSize;
+        int width = Math.min(tileSize, level.width() - x0);
+        int height = Math.min(tileSize, level.height() - y0);
+        if (transparent(level, x0, y0, width, height)) {
+            return false;
+        }
+
+        File file = new File(levelDirectory, column + "_" + row + ".png");
+        RunMetrics.Timer timer = metrics.startOnThread(RunMetrics.ENCODE);
+        try (timer) {
+            BufferedImage tile = level.image().getSubimage(x0, y0, width, height);
+            AtomicFiles.write(file, tempFile -> {
+                if (!ImageIO.write(tile, "png", tempFile.toFile())) {
+                    throw new IOException("No PNG writer available");
+                }
+            });
+            metrics.bytesWritten.add(file.length());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    private static boolean transparent(PreviewFrame level, int x0, int y0, int width, int height) {
+        int[] pixels = level.pixels();
+        for (int y = y0; y < y0 + height; y++) {
+            int row = y * level.width();
+            for (int x = x0; x < x0 + width; x++) {
+                if (pixels[row + x] >>> 24 != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The level at half the resolution, every pixel the alpha weighted average of up to 2x2 pixels
+     */
+    static CompletableFuture<PreviewFrame> downsample(PreviewFrame level, Executor executor) {
+        PreviewFrame next = new PreviewFrame((level.width() + 1) / 2, (level.height() + 1) / 2);
+        List<CompletableFuture<Void>> bands = new ArrayList<>();
+        for (int y0 = 0; y0 < next.height(); y0 += BAND_HEIGHT) {
+            int bandY0 = y0;
+            int bandY1 = Math.min(y0 + BAND_HEIGHT, next.height());
+            bands.add(CompletableFuture.runAsync(() -> downsample(level, next, bandY0, bandY1), executor));
+        }
+        return CompletableFuture.allOf(bands.toArray(CompletableFuture<?>[]::new)).thenApply(done -> next);
+    }
+
+    private static void downsample(PreviewFrame source, PreviewFrame target, int y0, int y1) {
+        int[] in = source.pixels();
+        int[] out = target.pixels();
+        int sourceWidth = source.width();
+        int sourceHeight = source.height();
+
+        for (int y = y0; y < y1; y++) {
+            int sy0 = y * 2;
+            int sy1 = Math.min(sy0 + 1, sourceHeight - 1);
+            for (int x = 0; x < target.width(); x++) {
+                int sx0 = x * 2;
+                int sx1 = Math.min(sx0 + 1, sourceWidth - 1);
+                int p00 = in[sy0 * sourceWidth + sx0];
+                int p01 = in[sy0 * sourceWidth + sx1];
+                int p10 = in[sy1 * sourceWidth + sx0];
+                int p11 = in[sy1 * sourceWidth + sx1];
+
+                int a00 = p00 >>> 24;
+                int a01 = p01 >>> 24;
+                int a10 = p10 >>> 24;
+                int a11 = p11 >>> 24;
+                int alpha = a00 + a01 + a10 + a11;
+                if (alpha == 0) {
+                    out[y * target.width() + x] = 0;
+                    continue;
+                }
+                int red = (((p00 >> 16) & 0xFF) * a00 + ((p01 >> 16) & 0xFF) * a01
+                        + ((p10 >> 16) & 0xFF) * a10 + ((p11 >> 16) & 0xFF) * a11 + alpha / 2) / alpha;
+                int green = (((p00 >> 8) & 0xFF) * a00 + ((p01 >> 8) & 0xFF) * a01
+                        + ((p10 >> 8) & 0xFF) * a10 + ((p11 >> 8) & 0xFF) * a11 + alpha / 2) / alpha;
+                int blue = ((p00 & 0xFF) * a00 + (p01 & 0xFF) * a01
+                        + (p10 & 0xFF) * a10 + (p11 & 0xFF) * a11 + alpha / 2) / alpha;
+                out[y * target.width() + x] = (alpha + 2) / 4 << 24 | red << 16 | green << 8 | blue;
+            }
+        }
+    }
+
+    private void writeIndex(PreviewFrame frame, File directory, List<Level> levels) throws IOException {
+        JSONArray levelsJson = new JSONArray();
+        for (Level level : levels) {
+            JSONArray tiles = new JSONArray();
+            level.tiles().stream().sorted().forEach(tile -> {
+                String[] position = tile.split("_");
+                tiles.put(new JSONArray().put(Integer.parseInt(position[0])).put(Integer.parseInt(position[1])));
+            });
+            levelsJson.put(new JSONObject()
+                    .put("width", level.width())
+                    .put("height", level.height())
+                    .put("columns", (level.width() + tileSize - 1) / tileSize)
+                    .put("rows", (level.height() + tileSize - 1) / tileSize)
+                    .put("tiles", tiles));
+        }
+        JSONObject index = new JSONObject()
+                .put("width", frame.width())
+                .put("height", frame.height())
+                .put("tile_size", tileSize)
+                .put("tile_path", "{level}/{column}_{row}.png")
+                .put("levels", levelsJson);
+
+        AtomicFiles.write(new File(directory, INDEX_FILE),
+                tempFile -> Files.writeString(tempFile, index.toString(2) + "\n", StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Deletes the tiles and levels of an earlier pyramid in the same directory that are not part of this one.
+     */
+    private static void deleteStaleTiles(File directory, List<Level> levels) throws IOException {
+        File[] levelDirectories = directory.listFiles(File::isDirectory);
+        if (levelDirectories == null) {
+            return;
+        }
+        for (File levelDirectory : levelDirectories) {
+            int index;
+            try {
+                index = Integer.parseInt(levelDirectory.getName());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            Set<String> tiles = index < levels.size() ? levels.get(index).tiles() : Set.of();
+            try (Stream<Path> files = Files.list(levelDirectory.toPath())) {
+                for (Path file : files.toList()) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(".png") && !tiles.contains(name.substring(0, name.length() - 4))) {
+                        Files.delete(file);
+                    }
+                }
+            }
+            if (index >= levels.size()) {
+                Files.deleteIfExists(levelDirectory.toPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package de.beyondblocks.automatedPreview;
+
+import se.llbit.chunky.renderer.scene.Camera;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.math.Ray;
+import se.llbit.math.Vector3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fits the parallel projection cameras of the views to the box of the loaded chunks, so the terrain fills the image
+ * instead of transparent sky.
+ * <p>
+ * The projection is measured from {@link Camera#calcViewRay} instead of reimplementing Chunky's projector: with a
+ * parallel projection the ray origin moves linearly with the screen coordinates, so three rays give the screen axes.
+ */
+public final class ViewFraming {
+    /** Border around the box, relative to its projected size */
+    private static final double PADDING = 0.02;
+    /** Distance in blocks between the camera plane and the closest corner of the box */
+    private static final double CAMERA_DISTANCE = 16;
+    private static final int FIT_ITERATIONS = 4;
+    private static final int MIN_CANVAS_SIZE = 64;
+    private static final int MAX_CANVAS_SIZE = 4096;
+
+    private ViewFraming() {
+    }
+
+    /**
+     * Box in world coordinates.
+     */
+    public record Bounds(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        /**
+         * Box of all chunks of the grid that contain terrain, from minY up to the highest surface or maxY if it is not
+         * known. If no chunk has terrain, the box covers the whole grid.
+         *
+         * @return The box or null if the grid is empty
+         */
+        public static Bounds of(ColumnHeightGrid grid, int minY, int maxY) {
+            if (grid.maxChunkX() < grid.minChunkX() || grid.maxChunkZ() < grid.minChunkZ()) {
+                return null;
+            }
+
+            int[] terrain = {Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE};
+            grid.forEach((chunkX, chunkZ, height) -> {
+                terrain[0] = Math.min(terrain[0], chunkX);
+                terrain[1] = Math.max(terrain[1], chunkX);
+                terrain[2] = Math.min(terrain[2], chunkZ);
+                terrain[3] = Math.max(terrain[3], chunkZ);
+            });
+            int minChunkX = terrain[0];
+            int maxChunkX = terrain[1];
+            int minChunkZ = terrain[2];
+            int maxChunkZ = terrain[3];
+            if (minChunkX > maxChunkX) {
+                minChunkX = grid.minChunkX();
+                maxChunkX = grid.maxChunkX();
+                minChunkZ = grid.minChunkZ();
+                maxChunkZ = grid.maxChunkZ();
+            }
+
+            int top = grid.highestSurface();
+            if (top == ColumnHeightGrid.UNKNOWN || top == ColumnHeightGrid.NO_TERRAIN || top > maxY) {
+                top = maxY;
+            }
+            return new Bounds(minChunkX * 16, minY, minChunkZ * 16,
+                    (maxChunkX + 1) * 16, Math.max(top, minY + 1), (maxChunkZ + 1) * 16);
+        }
+
+        private double corner(int index, int axis) {
+            return switch (axis) {
+                case 0 -> (index & 1) == 0 ? minX : maxX;
+                case 1 -> (index & 2) == 0 ? minY : maxY;
+                default -> (index & 4) == 0 ? minZ : maxZ;
+            };
+        }
+    }
+
+    /**
+     * Screen axes of a camera. Screen coordinates go from -0.5 to 0.5 vertically, like in {@link Camera#calcViewRay}.
+     */
+    record Projection(double[] origin, double[] right, double[] up, double[] direction) {
+        static Projection of(Camera camera) {
+            Ray ray = new Ray();
+            camera.calcViewRay(ray, 0, 0);
+            double[] origin = {ray.o.x, ray.o.y, ray.o.z};
+            double[] direction = {ray.d.x, ray.d.y, ray.d.z};
+            camera.calcViewRay(ray, 1, 0);
+            double[] right = {ray.o.x - origin[0], ray.o.y - origin[1], ray.o.z - origin[2]};
+            camera.calcViewRay(ray, 0, 1);
+            double[] up = {ray.o.x - origin[0], ray.o.y - origin[1], ray.o.z - origin[2]};
+            return new Projection(origin, right, up, direction);
+        }
+
+        /**
+         * @return Screen coordinates of the box: min x, max x, min y, max y and the smallest distance along the view
+         * direction
+         */
+        double[] project(Bounds bounds) {
+            double rightScale = 1 / dot(right, right);
+            double upScale = 1 / dot(up, up);
+            double[] result = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                    Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY};
+            double[] offset = new double[3];
+
+            for (int corner = 0; corner < 8; corner++) {
+                for (int axis = 0; axis < 3; axis++) {
+                    offset[axis] = bounds.corner(corner, axis) - origin[axis];
+                }
+                double x = dot(offset, right) * rightScale;
+                double y = dot(offset, up) * upScale;
+                result[0] = Math.min(result[0], x);
+                result[1] = Math.max(result[1], x);
+                result[2] = Math.min(result[2], y);
+                result[3] = Math.max(result[3], y);
+                result[4] = Math.min(result[4], dot(offset, direction));
+            }
+            return result;
+        }
+
+        /**
+         * @return Number of blocks covered by one screen unit, which is the image height in pixels
+         */
+        double blocksPerUnit() {
+            return Math.sqrt(dot(up, up));
+        }
+
+        private static double dot(double[] a, double[] b) {
+            return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+        }
+    }
+
+    /**
+     * Centers the camera on the box, moves it in front of the box and adjusts the FoV so the box fits the canvas.
+     */
+    public static void fit(Camera camera, Bounds bounds, int width, int height) {
+        double halfWidth = width / (2.0 * height);
+
+        for (int i = 0; i < FIT_ITERATIONS; i++) {
+            Projection projection = Projection.of(camera);
+            double[] screen = projection.project(bounds);
+
+            double centerX = (screen[0] + screen[1]) / 2;
+            double centerY = (screen[2] + screen[3]) / 2;
+            double back = Math.max(0, CAMERA_DISTANCE - screen[4]);
+            Vector3 position = camera.getPosition();
+            camera.setPosition(new Vector3(
+                    position.x + centerX * projection.right()[0] + centerY * projection.up()[0] - back * projection.direction()[0],
+                    position.y + centerX * projection.right()[1] + centerY * projection.up()[1] - back * projection.direction()[1],
+                    position.z + centerX * projection.right()[2] + centerY * projection.up()[2] - back * projection.direction()[2]));
+
+            double scale = (1 + 2 * PADDING) * Math.max((screen[1] - screen[0]) / (2 * halfWidth), screen[3] - screen[2]);
+            if (Math.abs(scale - 1) < 1e-3) {
+                break;
+            }
+            // Not every projection scales linearly with the FoV, so this is repeated until the box fits
+            camera.setFoV(camera.getFov() * scale);
+        }
+    }
+
+    /**
+     * Creates the cameras of all views and fits them to the box.
+     *
+     * @param bounds         Box to fit, the cameras are not changed if this is null
+     * @param pixelsPerBlock Scale of the images, or 0 to use the canvas size of the scene
+     */
+    public static List<FramedView> frame(Scene scene, List<PreviewView> views, Bounds bounds, double pixelsPerBlock) {
+        List<Camera> cameras = new ArrayList<>();
+        for (PreviewView view : views) {
+            cameras.add(MultiViewRenderer.createCamera(scene, view));
+        }
+
+        int width = scene.canvasWidth();
+        int height = scene.canvasHeight();
+        if (bounds != null && pixelsPerBlock > 0) {
+            int[] size = canvasSize(cameras, bounds, pixelsPerBlock);
+            width = size[0];
+            height = size[1];
+        }
+
+        List<FramedView> framed = new ArrayList<>();
+        for (int i = 0; i < views.size(); i++) {
+            if (bounds != null) {
+                fit(cameras.get(i), bounds, width, height);
+            }
+            framed.add(new FramedView(views.get(i), cameras.get(i), width, height));
+        }
+        return framed;
+    }
+
+    /**
+     * Calculates a canvas size that shows the box of every camera with the given number of pixels per block.
+     * The size is limited to {@value #MAX_CANVAS_SIZE} pixels per side, keeping the aspect ratio.
+     *
+     * @return width and height
+     */
+    private static int[] canvasSize(List<Camera> cameras, Bounds bounds, double pixelsPerBlock) {
+        double width = 0;
+        double height = 0;
+        for (Camera camera : cameras) {
+            Projection projection = Projection.of(camera);
+            double[] screen = projection.project(bounds);
+            width = Math.max(width, (screen[1] - screen[0]) * projection.blocksPerUnit());
+            height = Math.max(height, (screen[3] - screen[2]) * projection.blocksPerUnit());
+        }
+
+        width *= (1 + 2 * PADDING) * pixelsPerBlock;
+        height *= (1 + 2 * PADDING) * pixelsPerBlock;
+        double limit = Math.min(1, MAX_CANVAS_SIZE / Math.max(width, height));
+        return new int[]{
+                Math.max(MIN_CANVAS_SIZE, (int) Math.ceil(width * limit)),
+                Math.max(MIN_CANVAS_SIZE, (int) Math.ceil(height * limit))
+        };
+    }
+}
@@ -1,132 +1,312 @@
 package de.beyondblocks.automatedPreview;
 
 import se.llbit.log.Log;
-import se.llbit.nbt.NamedTag;
-import se.llbit.nbt.Tag;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashSet;
+import java.io.InputStream;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 public class WorldAnalyser {
 
     private final static int SECTOR_SIZE = 4096;
     private final static long MIN_INHABITED_TIME = 20 * 60; // 1 Minute
+    private final static int INHABITED_TIME = 0;
+
+    /**
+     * @return The radius (in chunks) of the area containing all inhabited chunks of the scanned regions or -1 if no
+     * inhabited chunks were found
+     */
+    public static int calculateChunkRadius(Collection<RegionIndex> regions) {
+        ChunkBounds bounds = new ChunkBounds();
+        for (RegionIndex region : regions) {
+            for (int index = 0; index < RegionIndex.CHUNKS; index++) {
+                if (region.isInhabited(index)) {
+                    bounds.include(region.regionX * 32 + (index & 31), region.regionZ * 32 + (index >> 5));
+                }
+            }
+        }
 
-    public static int calculateChunkRadius(File worldDirectory) {
-        File regionDir = new File(worldDirectory, "region");
+        // No Chunks found
+        if (bounds.isEmpty()) {
+            return -1;
+        }
 
+        int centerX = (bounds.minChunkX + bounds.maxChunkX) / 2;
+        int centerZ = (bounds.minChunkZ + bounds.maxChunkZ) / 2;
 
-        int minChunkX = Integer.MAX_VALUE;
-        int maxChunkX = Integer.MIN_VALUE;
-        int minChunkZ = Integer.MAX_VALUE;
-        int maxChunkZ = Integer.MIN_VALUE;
+        int radiusX = Math.max(centerX - bounds.minChunkX, bounds.maxChunkX - centerX);
+        int radiusZ = Math.max(centerZ - bounds.minChunkZ, bounds.maxChunkZ - centerZ);
 
+        return Math.max(radiusX, radiusZ);
+    }
+
+    /**
+     * Analyses every region file of the directory. If a cache directory is given, regions whose file did not change
+     * since the last run are taken from the index and otherwise only chunks with a new header timestamp are
+     * decompressed. The index is updated afterwards.
+     *
+     * @param metrics Receives the number of decompressed chunks and bytes
+     */
+    public static List<RegionIndex> scanRegions(File regionDir, int parallelism, File cacheDir, RunMetrics metrics) {
         File[] files = regionDir.listFiles((dir, name) -> name.endsWith(".mca"));
 
         if (files == null) {
-            return -1;
+            return List.of();
+        }
+
+        File indexFile = cacheDir != null ? WorldIndexCache.indexFile(cacheDir, regionDir) : null;
+        Map<Long, RegionIndex> cached = indexFile != null
+                ? WorldIndexCache.load(indexFile, MIN_INHABITED_TIME)
+                : Map.of();
+
+        List<RegionIndex> regions;
+        ForkJoinPool pool = RegionChunkReader.newPool(parallelism);
+        try {
+            // Parallel streams run in the pool that invokes them, so this keeps the scan off the common pool
+            regions = pool.submit(() -> Arrays.stream(files)
+                            .parallel()
+                            .map(file -> scanRegion(file, cached, metrics))
+                            .filter(Objects::nonNull)
+                            .collect(Collectors.toList()))
+                    .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        if (indexFile != null) {
+            WorldIndexCache.save(indexFile, regions, MIN_INHABITED_TIME);
+        }
+
+        return regions;
+    }
+
+    private static RegionIndex scanRegion(File regionFile, Map<Long, RegionIndex> cached, RunMetrics metrics) {
+        String[] parts = regionFile.getName().split("\\.");
+        if (parts.length != 4) {
+            return null;
         }
+        int regionX = Integer.parseInt(parts[1]);
+        int regionZ = Integer.parseInt(parts[2]);
+
+        long lastModified = regionFile.lastModified();
+        RegionIndex previous = cached.get(RegionIndex.key(regionX, regionZ));
+
+        if (previous != null && previous.lastModified == lastModified && previous.length == regionFile.length()) {
+            return previous;
+        }
+
+        try (FileChannel channel = FileChannel.open(regionFile.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            RegionIndex result = new RegionIndex(regionX, regionZ, lastModified, length);
 
-        for (File regionFile : files) {
-            String[] parts = regionFile.getName().split("\\.");
-            int regionX = Integer.parseInt(parts[1]);
-            int regionZ = Integer.parseInt(parts[2]);
+            if (length == 0) {
+                Log.info("Skipping empty region file");
+                return result; // Skip empty region files
+            }
+
+            if (length < 2 * SECTOR_SIZE) {
+                Log.warn("Missing header in region file!");
+                return result;
+            }
+
+            // Log.info("Checking Region:" + regionFile.getName());
+
+            NbtFieldExtractor extractor = new NbtFieldExtractor("InhabitedTime");
 
-            try (RandomAccessFile file = new RandomAccessFile(regionFile, "r")) {
-                long length = file.length();
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            metrics.bytesRead.add(2 * SECTOR_SIZE);
 
-                if (length == 0) {
-                    Log.info("Skipping empty region file");
-                    continue; // Skip empty region files
+            int[] locations = new int[RegionIndex.CHUNKS];
+            IntBuffer header = region.asIntBuffer();
+            header.get(locations);
+            header.get(result.timestamps);
+
+            for (int index = 0; index < RegionIndex.CHUNKS; ++index) {
+                if (locations[index] == 0) {
+                    result.timestamps[index] = 0;
+                    continue; // Skips not generated chunks
                 }
 
-                if (length < 2 * SECTOR_SIZE) {
-                    Log.warn("Missing header in region file!");
+                if (previous != null && previous.timestamps[index] != 0 && previous.timestamps[index] == result.timestamps[index]) {
+                    // Chunk was not written since the last run
+                    if (previous.isInhabited(index)) {
+                        result.setInhabited(index);
+                    }
                     continue;
                 }
 
-                // Log.info("Checking Region:" + regionFile.getName());
+                int chunkX = regionX * 32 + (index & 31);
+                int chunkZ = regionZ * 32 + (index >> 5);
 
-                for (int x = 0; x < 32; ++x) {
-                    for (int z = 0; z < 32; ++z) {
-                        int index = (x & 31) + (z & 31) * 32;
-
-                        file.seek(4 * index);
-                        int loc = file.readInt();
-                        int numSectors = loc & 0xFF;
-                        int sectorOffset = loc >> 8;
+                try (InputStream decompressedChunkData = RegionChunkReader.open(region, locations[index], regionFile,
+                        chunkX, chunkZ, metrics)) {
+                    if (decompressedChunkData == null) {
+                        continue;
+                    }
+                    metrics.chunksScanned.increment();
+                    if (!extractor.extract(decompressedChunkData)) {
+                        Log.warn("Chunk " + chunkX + ", " + chunkZ + " has no InhabitedTime");
+                        continue;
+                    }
+                }
 
-                        if (sectorOffset == 0 && numSectors == 0) {
-                            continue; // Skips not generated chunks
-                        }
+                long inhabitedTime = extractor.getLong(INHABITED_TIME);
+                if (inhabitedTime <= MIN_INHABITED_TIME) {
+                    continue;
+                }
 
-                        file.seek((long) sectorOffset * SECTOR_SIZE);
-                        int lengthInBytes = file.readInt();
-                        byte compressionType = file.readByte();
+                // Log.info("Chunk: " + chunkX + " " + chunkZ + " InhabitedTime: " + inhabitedTime);
 
-                        byte[] chunkData = new byte[lengthInBytes - 1];
-                        file.readFully(chunkData);
+                result.setInhabited(index);
+            }
 
+            return result;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-                        int chunkX = regionX * 32 + x;
-                        int chunkZ = regionZ * 32 + z;
+    /**
+     * Reads the WORLD_SURFACE heightmaps of the given chunks and returns the highest surface of every chunk.
+     */
+    public static ColumnHeightGrid readSurfaceHeights(File regionDir, ChunkSet chunks, int parallelism) {
+        return readSurfaceHeights(regionDir, chunks, parallelism, new RunMetrics(regionDir.getPath(), null));
+    }
 
-                        if (compressionType != 1 && compressionType != 2) {
-                            Log.warn("Error: unknown chunk data compression method: " + compressionType + "!");
-                            continue;
-                        }
+    public static ColumnHeightGrid readSurfaceHeights(File regionDir, ChunkSet chunks, int parallelism, RunMetrics metrics) {
+        ColumnHeightGrid grid = ColumnHeightGrid.covering(chunks);
+        readSurfaceHeights(regionDir, chunks, grid, parallelism, metrics);
+        return grid;
+    }
 
-                        DataInputStream decompressedChunkData;
-                        if (compressionType == 1) {
-                            decompressedChunkData = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(chunkData)));
-                        } else {
-                            decompressedChunkData = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(chunkData)));
-                        }
+    /**
+     * Reads the heights of the given chunks into an existing grid, which has to cover all of them. Heights of other
+     * chunks are not changed.
+     */
+    public static void readSurfaceHeights(File regionDir, ChunkSet chunks, ColumnHeightGrid grid, int parallelism,
+                                          RunMetrics metrics) {
+        ForkJoinPool pool = RegionChunkReader.newPool(parallelism);
+        try {
+            pool.submit(() -> chunks.regions()
+                            .parallel()
+                            .forEach(regionKey -> readRegionSurfaceHeights(regionDir, regionKey, chunks, grid, metrics)))
+                    .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-                        Set<String> request = new HashSet<>();
-                        request.add(".InhabitedTime");
+    private static void readRegionSurfaceHeights(File regionDir, long regionKey, ChunkSet chunks, ColumnHeightGrid grid,
+                                                 RunMetrics metrics) {
+        int regionX = (int) (regionKey >> 32);
+        int regionZ = (int) regionKey;
+        File regionFile = new File(regionDir, "r." + regionX + "." + regionZ + ".mca");
 
-                        Map<String, Tag> tagMap = NamedTag.quickParse(decompressedChunkData, request);
+        if (!regionFile.isFile() || regionFile.length() < 2 * SECTOR_SIZE) {
+            return; // Chunks stay empty
+        }
 
-                        long inhabitedTime = tagMap.get(".InhabitedTime").longValue();
+        try (FileChannel channel = FileChannel.open(regionFile.toPath(), StandardOpenOption.READ)) {
+            NbtFieldExtractor extractor = new NbtFieldExtractor("Heightmaps.WORLD_SURFACE", "yPos");
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            metrics.bytesRead.add(SECTOR_SIZE);
 
-                        if (inhabitedTime <= MIN_INHABITED_TIME) {
-                            continue;
-                        }
+            int[] locations = new int[RegionIndex.CHUNKS];
+            region.asIntBuffer().get(locations);
 
-                        // Log.info("Chunk: " + chunkX + " " + chunkZ + " Length: " + lengthInBytes + " Compression: " + compressionType + " InhabitedTime: " + inhabitedTime);
+            for (int index = 0; index < RegionIndex.CHUNKS; ++index) {
+                int chunkX = regionX * 32 + (index & 31);
+                int chunkZ = regionZ * 32 + (index >> 5);
+                if (locations[index] == 0 || !chunks.contains(chunkX, chunkZ)) {
+                    continue;
+                }
 
-                        minChunkX = Math.min(minChunkX, chunkX);
-                        maxChunkX = Math.max(maxChunkX, chunkX);
-                        minChunkZ = Math.min(minChunkZ, chunkZ);
-                        maxChunkZ = Math.max(maxChunkZ, chunkZ);
+                int height = ColumnHeightGrid.UNKNOWN;
+                try (InputStream decompressedChunkData = RegionChunkReader.open(region, locations[index], regionFile,
+                        chunkX, chunkZ, metrics)) {
+                    if (decompressedChunkData != null) {
+                        extractor.extract(decompressedChunkData);
+                        if (extractor.has(0)) {
+                            // Chunks without a yPos are from before 1.18 and start at y=0
+                            int minY = extractor.getInt(1) * 16;
+                            height = surfaceHeight(extractor.getLongArray(0), extractor.getArrayLength(0), minY);
+                        }
                     }
                 }
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+                grid.set(chunkX, chunkZ, height);
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+    }
 
-        // No Chunks found
-        if (minChunkX == Integer.MAX_VALUE || minChunkZ == Integer.MAX_VALUE) {
-            return -1;
+    /**
+     * Decodes a heightmap (256 entries without spanning between longs, 1.16+) and returns the highest value.
+     *
+     * @return The y coordinate above the highest block or {@link ColumnHeightGrid#UNKNOWN} for other formats
+     */
+    static int surfaceHeight(long[] data, int length, int minY) {
+        if (length == 0) {
+            return ColumnHeightGrid.UNKNOWN;
+        }
+        int valuesPerLong = (256 + length - 1) / length;
+        int bits = 64 / valuesPerLong;
+        if ((256 + valuesPerLong - 1) / valuesPerLong != length || bits == 0) {
+            return ColumnHeightGrid.UNKNOWN;
         }
 
-        int centerX = (minChunkX + maxChunkX) / 2;
-        int centerZ = (minChunkZ + maxChunkZ) / 2;
+        long mask = (1L << bits) - 1;
+        int max = 0;
+        for (int i = 0; i < 256; i++) {
+            int value = (int) ((data[i / valuesPerLong] >>> ((i % valuesPerLong) * bits)) & mask);
+            max = Math.max(max, value);
+        }
+        return minY + max;
+    }
 
-        int radiusX = Math.max(centerX - minChunkX, maxChunkX - centerX);
-        int radiusZ = Math.max(centerZ - minChunkZ, maxChunkZ - centerZ);
+    private static final class ChunkBounds {
+        int minChunkX = Integer.MAX_VALUE;
+        int maxChunkX = Integer.MIN_VALUE;
+        int minChunkZ = Integer.MAX_VALUE;
+        int maxChunkZ = Integer.MIN_VALUE;
 
-        return Math.max(radiusX, radiusZ);
-    }
+        boolean isEmpty() {
+            return minChunkX == Integer.MAX_VALUE || minChunkZ == Integer.MAX_VALUE;
+        }
 
+        void include(int chunkX, int chunkZ) {
+            minChunkX = Math.min(minChunkX, chunkX);
+            maxChunkX = Math.max(maxChunkX, chunkX);
+            minChunkZ = Math.min(minChunkZ, chunkZ);
+            maxChunkZ = Math.max(maxChunkZ, chunkZ);
+        }
+    }
 }
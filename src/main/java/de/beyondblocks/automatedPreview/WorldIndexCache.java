@@ -0,0 +1,124 @@
+package de.beyondblocks.automatedPreview;
+
+import se.llbit.log.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * On-disk cache of {@link RegionIndex} entries for one region directory, so unchanged regions and chunks don't have
+ * to be decompressed again on the next run.
+ */
+public class WorldIndexCache {
+    private static final int MAGIC = 0x41504958; // APIX
+    private static final int VERSION = 1;
+
+    /**
+     * @return The index file of the given region directory inside the cache directory
+     */
+    public static File indexFile(File cacheDir, File regionDirectory) {
+        String path = regionDirectory.getAbsoluteFile().toPath().normalize().toString();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(path.getBytes(StandardCharsets.UTF_8));
+            return new File(new File(cacheDir, "world-index"), HexFormat.of().formatHex(hash, 0, 8) + ".idx");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Loads the cached regions, keyed by {@link RegionIndex#key()}. A missing, outdated or broken cache results in an
+     * empty map.
+     *
+     * @param minInhabitedTime The threshold the cache was created with, other thresholds invalidate it
+     */
+    public static Map<Long, RegionIndex> load(File indexFile, long minInhabitedTime) {
+        Map<Long, RegionIndex> regions = new HashMap<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != minInhabitedTime) {
+                Log.info("Ignoring outdated world index " + indexFile.getAbsolutePath());
+                return regions;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int regionX = in.readInt();
+                int regionZ = in.readInt();
+                long lastModified = in.readLong();
+                long length = in.readLong();
+
+                int[] timestamps = new int[RegionIndex.CHUNKS];
+                for (int j = 0; j < timestamps.length; j++) {
+                    timestamps[j] = in.readInt();
+                }
+                long[] inhabited = new long[RegionIndex.CHUNKS / 64];
+                for (int j = 0; j < inhabited.length; j++) {
+                    inhabited[j] = in.readLong();
+                }
+
+                RegionIndex region = new RegionIndex(regionX, regionZ, lastModified, length, timestamps, inhabited);
+                regions.put(region.key(), region);
+            }
+        } catch (FileNotFoundException e) {
+            // First run for this world
+        } catch (IOException e) {
+            Log.warn("Could not read world index " + indexFile.getAbsolutePath() + ": " + e.getMessage());
+            regions.clear();
+        }
+
+        return regions;
+    }
+
+    /**
+     * Replaces the index file. The file is written next to the target first, so a crash never leaves a broken index.
+     */
+    public static void save(File indexFile, Collection<RegionIndex> regions, long minInhabitedTime) {
+        File directory = indexFile.getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.warn("Could not create " + directory.getAbsolutePath());
+            return;
+        }
+
+        try {
+            AtomicFiles.write(indexFile, tempFile -> {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeLong(minInhabitedTime);
+                    out.writeInt(regions.size());
+
+                    for (RegionIndex region : regions) {
+                        out.writeInt(region.regionX);
+                        out.writeInt(region.regionZ);
+                        out.writeLong(region.lastModified);
+                        out.writeLong(region.length);
+                        for (int timestamp : region.timestamps) {
+                            out.writeInt(timestamp);
+                        }
+                        for (long bits : region.inhabited) {
+                            out.writeLong(bits);
+                        }
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.warn("Could not write world index " + indexFile.getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+}
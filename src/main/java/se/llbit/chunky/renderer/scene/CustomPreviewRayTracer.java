@@ -21,13 +21,33 @@ import se.llbit.chunky.block.Air;
 import se.llbit.chunky.block.Water;
 import se.llbit.chunky.renderer.WorkerState;
 import se.llbit.math.Ray;
-import se.llbit.math.Vector3;
 
 /**
  * Modified PreviewRayTracer from upstream Chunky
  * Original Author: Jesper Öqvist <jesper@llbit.se>
+ * <p>
+ * The cloud and water plane settings are read once when the tracer is created, so a tracer has to be created after
+ * the scene is set up and only traces that scene. No objects are allocated per ray.
  */
-public class CustomPreviewRayTracer implements RayTracer {
+public final class CustomPreviewRayTracer implements RayTracer {
+  private final boolean cloudsEnabled;
+  private final boolean waterPlaneEnabled;
+  private final boolean waterPlaneChunkClip;
+  private final double waterPlaneHeight;
+
+  public CustomPreviewRayTracer(Scene scene) {
+    cloudsEnabled = scene.sky().cloudsEnabled();
+    waterPlaneEnabled = scene.isWaterPlaneEnabled();
+    waterPlaneChunkClip = scene.getWaterPlaneChunkClip();
+    waterPlaneHeight = scene.getEffectiveWaterPlaneHeight();
+  }
+
+  /**
+   * @return true if clouds or the water plane can be hit outside of the loaded chunks
+   */
+  public boolean hasPlanes() {
+    return cloudsEnabled || waterPlaneEnabled;
+  }
 
   /**
    * Do a quick preview ray tracing for the current ray.
@@ -60,14 +80,14 @@ public class CustomPreviewRayTracer implements RayTracer {
    * Find next ray intersection.
    * @return Next intersection
    */
-  public static boolean nextIntersection(Scene scene, Ray ray) {
+  public boolean nextIntersection(Scene scene, Ray ray) {
     ray.setPrevMaterial(ray.getCurrentMaterial(), ray.getCurrentData());
     ray.t = Double.POSITIVE_INFINITY;
     boolean hit = false;
-    if (scene.sky().cloudsEnabled()) {
+    if (cloudsEnabled) {
       hit = scene.sky().cloudIntersection(scene, ray);
     }
-    if (scene.isWaterPlaneEnabled()) {
+    if (waterPlaneEnabled) {
       hit = waterPlaneIntersection(scene, ray) || hit;
     }
     if (scene.intersect(ray)) {
@@ -85,12 +105,12 @@ public class CustomPreviewRayTracer implements RayTracer {
     }
   }
 
-  private static boolean waterPlaneIntersection(Scene scene, Ray ray) {
-    double t = (scene.getEffectiveWaterPlaneHeight() - ray.o.y - scene.origin.y) / ray.d.y;
-    if (scene.getWaterPlaneChunkClip()) {
-      Vector3 pos = new Vector3(ray.o);
-      pos.scaleAdd(t, ray.d);
-      if (scene.isChunkLoaded((int)Math.floor(pos.x), (int)Math.floor(pos.z)))
+  private boolean waterPlaneIntersection(Scene scene, Ray ray) {
+    double t = (waterPlaneHeight - ray.o.y - scene.origin.y) / ray.d.y;
+    if (waterPlaneChunkClip) {
+      double x = ray.o.x + t * ray.d.x;
+      double z = ray.o.z + t * ray.d.z;
+      if (scene.isChunkLoaded((int)Math.floor(x), (int)Math.floor(z)))
         return false;
     }
     if (ray.d.y < 0) {
@@ -0,0 +1,99 @@
+package se.llbit.chunky.renderer.scene;
+
+import de.beyondblocks.automatedPreview.ColumnHeightGrid;
+import se.llbit.chunky.renderer.WorkerState;
+import se.llbit.math.Ray;
+
+/**
+ * Preview ray tracer that moves downward rays past the empty space above the terrain before tracing them with the
+ * {@link CustomPreviewRayTracer}. The ray walks the chunk grid in 2D and stops at the first chunk where it might come
+ * below the highest surface, so the result is the same as tracing the whole ray through the octree.
+ */
+public final class HeightmapPreviewRayTracer implements RayTracer {
+  /** Extra space above the heightmap, for entities standing on the highest blocks */
+  private static final double MARGIN = 4;
+  /** Distance the ray stays in front of the chunk border it stops at */
+  private static final double BACKOFF = 0.5;
+
+  private final CustomPreviewRayTracer tracer;
+  private final ColumnHeightGrid grid;
+  /** Clouds and the water plane can be hit above the terrain */
+  private final boolean skipEnabled;
+
+  /**
+   * Create the tracer after the scene is set up, like the {@link CustomPreviewRayTracer}.
+   */
+  public HeightmapPreviewRayTracer(Scene scene, ColumnHeightGrid grid) {
+    this.tracer = new CustomPreviewRayTracer(scene);
+    this.grid = grid;
+    this.skipEnabled = !tracer.hasPlanes();
+  }
+
+  @Override public void trace(Scene scene, WorkerState state) {
+    Ray ray = state.ray;
+    if (skipEnabled && ray.d.y < 0) {
+      double distance = emptyDistance(scene, ray);
+      if (distance > 0) {
+        ray.o.scaleAdd(distance, ray.d);
+        ray.distance += distance;
+      }
+    }
+    tracer.trace(scene, state);
+  }
+
+  /**
+   * @return Distance along the ray that is known to contain only air
+   */
+  private double emptyDistance(Scene scene, Ray ray) {
+    double x = ray.o.x + scene.origin.x;
+    double y = ray.o.y + scene.origin.y;
+    double z = ray.o.z + scene.origin.z;
+    double dx = ray.d.x;
+    double dy = ray.d.y;
+    double dz = ray.d.z;
+
+    int chunkX = (int) Math.floor(x) >> 4;
+    int chunkZ = (int) Math.floor(z) >> 4;
+    int stepX = dx > 0 ? 1 : -1;
+    int stepZ = dz > 0 ? 1 : -1;
+    double deltaX = dx != 0 ? 16 / Math.abs(dx) : Double.POSITIVE_INFINITY;
+    double deltaZ = dz != 0 ? 16 / Math.abs(dz) : Double.POSITIVE_INFINITY;
+    double exitX = dx != 0 ? ((chunkX + (dx > 0 ? 1 : 0)) * 16 - x) / dx : Double.POSITIVE_INFINITY;
+    double exitZ = dz != 0 ? ((chunkZ + (dz > 0 ? 1 : 0)) * 16 - z) / dz : Double.POSITIVE_INFINITY;
+
+    double t = 0;
+    while (true) {
+      double exit = Math.min(exitX, exitZ);
+      int height = grid.maxHeight(chunkX, chunkZ);
+
+      if (height != ColumnHeightGrid.NO_TERRAIN && y + dy * exit < height + MARGIN) {
+        // The ray might hit something in this chunk
+        return Math.max(0, t - BACKOFF);
+      }
+
+      if (leavesGrid(chunkX, chunkZ, stepX, stepZ, dx, dz) || exit == Double.POSITIVE_INFINITY) {
+        // Nothing left to skip to, the octree traversal will miss quickly
+        return Math.max(0, t - BACKOFF);
+      }
+
+      t = exit;
+      if (exitX < exitZ) {
+        chunkX += stepX;
+        exitX += deltaX;
+      } else {
+        chunkZ += stepZ;
+        exitZ += deltaZ;
+      }
+    }
+  }
+
+  /**
+   * @return true if the ray is outside the grid and moves away from it
+   */
+  private boolean leavesGrid(int chunkX, int chunkZ, int stepX, int stepZ, double dx, double dz) {
+    return (chunkX < grid.minChunkX() && (dx == 0 || stepX < 0))
+        || (chunkX > grid.maxChunkX() && (dx == 0 || stepX > 0))
+        || (chunkZ < grid.minChunkZ() && (dz == 0 || stepZ < 0))
+        || (chunkZ > grid.maxChunkZ() && (dz == 0 || stepZ > 0));
+  }
+}
@@ -0,0 +1,89 @@
+package se.llbit.chunky.renderer.scene;
+
+import se.llbit.chunky.block.Air;
+import se.llbit.chunky.renderer.WorkerState;
+import se.llbit.math.Ray;
+
+/**
+ * Traces a view with its own camera against a scene that is shared with other views.
+ * Unlike the DefaultRenderManager this does not need a copy of the scene per view, the scene is only read.
+ * Lives in the Chunky package to be able to access the scene origin.
+ */
+public class ViewTracer {
+  private static final double GAMMA = 1 / 2.2;
+
+  private final Scene scene;
+  private final Camera camera;
+  private final RayTracer tracer;
+  private final int width;
+  private final int height;
+  private final double exposure;
+  private final boolean transparentSky;
+
+  public ViewTracer(Scene scene, Camera camera, RayTracer tracer, int width, int height) {
+    this.scene = scene;
+    this.camera = camera;
+    this.tracer = tracer;
+    this.width = width;
+    this.height = height;
+    this.exposure = scene.getExposure();
+    this.transparentSky = scene.transparentSky();
+  }
+
+  public int width() {
+    return width;
+  }
+
+  public int height() {
+    return height;
+  }
+
+  /**
+   * Traces the pixels in [x0, x1) x [y0, y1) whose coordinates are both multiples of step and writes them as ARGB into
+   * the given frame (with a stride of the view width). With skipCoarser, the pixels whose coordinates are both
+   * multiples of twice the step are left out, as a coarser pass already traced them.
+   *
+   * @return The number of traced pixels
+   */
+  public int trace(int x0, int y0, int x1, int y1, int step, boolean skipCoarser, int[] argb, WorkerState state) {
+    double halfWidth = width / (2.0 * height);
+    double invHeight = 1.0 / height;
+    Ray ray = state.ray;
+    int coarser = step * 2;
+    int firstX = (x0 + step - 1) / step * step;
+    int firstY = (y0 + step - 1) / step * step;
+    int traced = 0;
+
+    for (int y = firstY; y < y1; y += step) {
+      boolean coarserRow = skipCoarser && y % coarser == 0;
+      for (int x = firstX; x < x1; x += step) {
+        if (coarserRow && x % coarser == 0) {
+          continue;
+        }
+        ray.setDefault();
+        camera.calcViewRay(ray, -halfWidth + x * invHeight, -0.5 + y * invHeight);
+        ray.o.x -= scene.origin.x;
+        ray.o.y -= scene.origin.y;
+        ray.o.z -= scene.origin.z;
+
+        tracer.trace(scene, state);
+
+        int alpha = transparentSky && ray.getCurrentMaterial() == Air.INSTANCE ? 0 : 255;
+        argb[y * width + x] = alpha << 24
+            | toneMap(ray.color.x) << 16
+            | toneMap(ray.color.y) << 8
+            | toneMap(ray.color.z);
+        traced++;
+      }
+    }
+    return traced;
+  }
+
+  /**
+   * Same as Chunky's default gamma correction post processing.
+   */
+  private int toneMap(double value) {
+    double mapped = Math.pow(value * exposure, GAMMA);
+    return (int) (Math.min(1, Math.max(0, mapped)) * 255 + 0.5);
+  }
+}
@@ -0,0 +1,108 @@
+package de.beyondblocks.automatedPreview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AtomicFilesTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void replacesTheFile() throws IOException {
+        File file = directory.resolve("index.idx").toFile();
+        Files.writeString(file.toPath(), "old content that is longer");
+
+        AtomicFiles.write(file, tempFile -> Files.writeString(tempFile, "new"));
+
+        assertEquals("new", Files.readString(file.toPath()));
+        assertEquals(List.of("index.idx"), fileNames());
+    }
+
+    @Test
+    void keepsTheFileAndDeletesTheTemporaryFileOnFailure() throws IOException {
+        File file = directory.resolve("index.idx").toFile();
+        Files.writeString(file.toPath(), "old");
+
+        assertThrows(IOException.class, () -> AtomicFiles.write(file, tempFile -> {
+            Files.writeString(tempFile, "partial");
+            throw new IOException("Disk full");
+        }));
+
+        assertEquals("old", Files.readString(file.toPath()));
+        assertEquals(List.of("index.idx"), fileNames());
+    }
+
+    @Test
+    void concurrentWritersNeverMixTheirContent() throws Exception {
+        File file = directory.resolve("shared.bin").toFile();
+        int writers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int writer = 0; writer < writers; writer++) {
+                byte[] content = new byte[256 * 1024];
+                Arrays.fill(content, (byte) writer);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 20; i++) {
+                        AtomicFiles.write(file, tempFile -> {
+                            // Written in pieces, so writers sharing a temporary file would interleave
+                            for (int offset = 0; offset < content.length; offset += 4096) {
+                                Files.write(tempFile, Arrays.copyOfRange(content, offset, offset + 4096),
+                                        StandardOpenOption.APPEND);
+                            }
+                        });
+                        byte[] read = Files.readAllBytes(file.toPath());
+                        assertEquals(content.length, read.length);
+                        byte[] expected = new byte[read.length];
+                        Arrays.fill(expected, read[0]);
+                        assertArrayEquals(expected, read);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(List.of("shared.bin"), fileNames());
+    }
+
+    @Test
+    void createsTemporaryFilesNextToTheTarget() throws IOException {
+        File file = directory.resolve("frame.png").toFile();
+
+        AtomicFiles.write(file, tempFile -> {
+            assertEquals(directory, tempFile.getParent());
+            assertTrue(tempFile.getFileName().toString().startsWith("frame.png."));
+            assertFalse(tempFile.equals(file.toPath()));
+        });
+    }
+
+    private List<String> fileNames() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package de.beyondblocks.automatedPreview;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkSetTest {
+    @Test
+    void addsChunksOnBothSidesOfRegionBorders() {
+        ChunkSet set = new ChunkSet();
+
+        assertTrue(set.add(-1, -1));
+        assertTrue(set.add(0, 0));
+        assertTrue(set.add(31, -32));
+        assertTrue(set.add(32, -33));
+        assertFalse(set.add(-1, -1));
+
+        assertEquals(4, set.size());
+        assertTrue(set.contains(-1, -1));
+        assertTrue(set.contains(32, -33));
+        assertFalse(set.contains(-1, 0));
+        assertFalse(set.contains(31, -31));
+        assertEquals(Set.of(RegionIndex.key(-1, -1), RegionIndex.key(0, 0), RegionIndex.key(0, -1),
+                RegionIndex.key(1, -2)), regions(set));
+    }
+
+    @Test
+    void squareContainsTheChunksAroundTheCenter() {
+        ChunkSet set = ChunkSet.square(-3, 40, 2);
+
+        assertEquals(25, set.size());
+        assertEquals(25, chunks(set).size());
+        for (int chunkZ = 38; chunkZ <= 42; chunkZ++) {
+            for (int chunkX = -5; chunkX <= -1; chunkX++) {
+                assertTrue(set.contains(chunkX, chunkZ));
+            }
+        }
+        assertFalse(set.contains(0, 40));
+        assertFalse(set.contains(-3, 43));
+    }
+
+    @Test
+    void inhabitedCopiesTheBitmapsOfTheRegions() {
+        RegionIndex region = new RegionIndex(-1, 2, 0, 0);
+        region.setInhabited(RegionIndex.index(0, 0));
+        region.setInhabited(RegionIndex.index(31, 5));
+        RegionIndex empty = new RegionIndex(0, 0, 0, 0);
+
+        ChunkSet set = ChunkSet.inhabited(List.of(region, empty));
+        region.setInhabited(RegionIndex.index(1, 1));
+
+        assertEquals(Set.of(List.of(-32, 64), List.of(-1, 69)), chunks(set));
+        assertEquals(2, set.size());
+        assertEquals(Set.of(RegionIndex.key(-1, 2)), regions(set));
+    }
+
+    @Test
+    void dilateGrowsTheSetBySquareNeighbourhoods() {
+        Random random = new Random(7);
+        ChunkSet set = new ChunkSet();
+        for (int i = 0; i < 40; i++) {
+            set.add(random.nextInt(80) - 40, random.nextInt(80) - 40);
+        }
+
+        for (int margin = 1; margin <= 3; margin++) {
+            Set<List<Integer>> expected = new HashSet<>();
+            for (List<Integer> chunk : chunks(set)) {
+                for (int dz = -margin; dz <= margin; dz++) {
+                    for (int dx = -margin; dx <= margin; dx++) {
+                        expected.add(List.of(chunk.get(0) + dx, chunk.get(1) + dz));
+                    }
+                }
+            }
+
+            ChunkSet dilated = set.dilate(margin);
+            assertEquals(expected, chunks(dilated));
+            assertEquals(expected.size(), dilated.size());
+        }
+    }
+
+    @Test
+    void dilateWithoutMarginReturnsTheSet() {
+        ChunkSet set = ChunkSet.square(0, 0, 1);
+
+        assertSame(set, set.dilate(0));
+        assertTrue(new ChunkSet().dilate(4).isEmpty());
+    }
+
+    private static Set<List<Integer>> chunks(ChunkSet set) {
+        Set<List<Integer>> chunks = new HashSet<>();
+        set.forEach((chunkX, chunkZ) -> assertTrue(chunks.add(List.of(chunkX, chunkZ))));
+        return chunks;
+    }
+
+    private static Set<Long> regions(ChunkSet set) {
+        Set<Long> regions = new HashSet<>();
+        set.regions().forEach(regions::add);
+        return regions;
+    }
+}
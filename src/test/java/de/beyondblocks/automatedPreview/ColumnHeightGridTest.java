@@ -0,0 +1,82 @@
+package de.beyondblocks.automatedPreview;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ColumnHeightGridTest {
+    @Test
+    void storesHeightsOfDistantChunks() {
+        ChunkSet chunks = new ChunkSet();
+        chunks.add(-3, 5);
+        chunks.add(1_000_000, -2_000_000);
+        ColumnHeightGrid grid = ColumnHeightGrid.covering(chunks);
+
+        grid.set(-3, 5, 70);
+        grid.set(1_000_000, -2_000_000, 120);
+
+        assertEquals(70, grid.maxHeight(-3, 5));
+        assertEquals(120, grid.maxHeight(1_000_000, -2_000_000));
+        assertEquals(120, grid.highestSurface());
+        assertEquals(-3, grid.minChunkX());
+        assertEquals(1_000_000, grid.maxChunkX());
+        assertEquals(-2_000_000, grid.minChunkZ());
+        assertEquals(5, grid.maxChunkZ());
+    }
+
+    @Test
+    void chunksWithoutHeightHaveNoTerrain() {
+        ChunkSet chunks = ChunkSet.square(0, 0, 40);
+        ColumnHeightGrid grid = ColumnHeightGrid.covering(chunks);
+        grid.set(10, -10, ColumnHeightGrid.UNKNOWN);
+
+        assertEquals(ColumnHeightGrid.UNKNOWN, grid.maxHeight(10, -10));
+        assertEquals(ColumnHeightGrid.NO_TERRAIN, grid.maxHeight(11, -10));
+        // Outside of the box and in regions without chunks
+        assertEquals(ColumnHeightGrid.NO_TERRAIN, grid.maxHeight(41, 0));
+        assertEquals(ColumnHeightGrid.NO_TERRAIN, grid.maxHeight(-1000, 1000));
+        assertEquals(ColumnHeightGrid.UNKNOWN, grid.highestSurface());
+    }
+
+    @Test
+    void rejectsChunksOfUncoveredRegions() {
+        ChunkSet chunks = new ChunkSet();
+        chunks.add(0, 0);
+        ColumnHeightGrid grid = ColumnHeightGrid.covering(chunks);
+
+        assertThrows(IllegalArgumentException.class, () -> grid.set(32, 0, 64));
+        assertThrows(IllegalArgumentException.class, () -> grid.set(-1, 0, 64));
+    }
+
+    @Test
+    void forEachPassesChunksWithTerrain() {
+        ChunkSet chunks = new ChunkSet();
+        for (int i = 0; i < 20; i++) {
+            chunks.add(i * 100 - 1000, i * -77 + 300);
+        }
+        ColumnHeightGrid grid = ColumnHeightGrid.covering(chunks);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i += 2) {
+            grid.set(i * 100 - 1000, i * -77 + 300, i);
+            expected.add((i * 100 - 1000) + "," + (i * -77 + 300) + "=" + i);
+        }
+
+        List<String> passed = new ArrayList<>();
+        grid.forEach((chunkX, chunkZ, height) -> passed.add(chunkX + "," + chunkZ + "=" + height));
+
+        assertEquals(expected.stream().sorted().toList(), passed.stream().sorted().toList());
+    }
+
+    @Test
+    void emptyGrid() {
+        ColumnHeightGrid grid = ColumnHeightGrid.covering(new ChunkSet());
+
+        assertEquals(ColumnHeightGrid.NO_TERRAIN, grid.maxHeight(0, 0));
+        assertEquals(ColumnHeightGrid.NO_TERRAIN, grid.highestSurface());
+        assertEquals(-1, grid.maxChunkX());
+    }
+}
@@ -0,0 +1,181 @@
+package de.beyondblocks.automatedPreview;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MinecraftDownloaderTest {
+    private static final int RANGE_SIZE = 4 * 1024 * 1024;
+    /** Two full ranges and a short last one */
+    private static final byte[] JAR = randomBytes(2 * RANGE_SIZE + 12345);
+
+    @TempDir
+    Path directory;
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private volatile boolean supportsRanges = true;
+    /** Range headers of all requests, "none" for requests without one */
+    private final List<String> requestedRanges = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serverThreads = Executors.newFixedThreadPool(4);
+        server.setExecutor(serverThreads);
+        server.createContext("/client.jar", this::serve);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    void downloadsInRanges() throws IOException {
+        Path jar = directory.resolve("client.jar");
+
+        assertEquals(jar, MinecraftDownloader.download(client(sha1(JAR)), jar).join());
+
+        assertArrayEquals(JAR, Files.readAllBytes(jar));
+        assertEquals(List.of("bytes=0-4194303", "bytes=4194304-8388607", "bytes=8388608-8400952"),
+                requestedRanges.stream().sorted().toList());
+        assertEquals(List.of("client.jar"), fileNames());
+    }
+
+    @Test
+    void fallsBackToTheWholeFile() throws IOException {
+        supportsRanges = false;
+        Path jar = directory.resolve("client.jar");
+
+        MinecraftDownloader.download(client(sha1(JAR)), jar).join();
+
+        assertArrayEquals(JAR, Files.readAllBytes(jar));
+        // Only the first range is requested, its response is the whole file
+        assertEquals(List.of("bytes=0-4194303"), requestedRanges);
+        assertEquals(List.of("client.jar"), fileNames());
+    }
+
+    @Test
+    void resumesFromTheFinishedRanges() throws IOException {
+        Path jar = directory.resolve("client.jar");
+        String sha1 = sha1(JAR);
+        // Ranges 0 and 2 were finished by an earlier attempt, range 1 is garbage
+        byte[] part = JAR.clone();
+        Arrays.fill(part, RANGE_SIZE, 2 * RANGE_SIZE, (byte) 0);
+        Files.write(directory.resolve("client.jar.part"), part);
+        Files.writeString(directory.resolve("client.jar.part.ranges"), sha1 + " " + JAR.length + "\n05\n",
+                StandardCharsets.UTF_8);
+
+        MinecraftDownloader.download(client(sha1), jar).join();
+
+        assertArrayEquals(JAR, Files.readAllBytes(jar));
+        assertEquals(List.of("bytes=4194304-8388607"), requestedRanges);
+        assertEquals(List.of("client.jar"), fileNames());
+    }
+
+    @Test
+    void ignoresTheRangesOfAnotherFile() throws IOException {
+        Path jar = directory.resolve("client.jar");
+        // Longer than the jar, as left by a download of another version
+        Files.write(directory.resolve("client.jar.part"), new byte[JAR.length + 1000]);
+        Files.writeString(directory.resolve("client.jar.part.ranges"), "0000 " + (JAR.length + 1000) + "\n07\n",
+                StandardCharsets.UTF_8);
+
+        MinecraftDownloader.download(client(sha1(JAR)), jar).join();
+
+        assertArrayEquals(JAR, Files.readAllBytes(jar));
+        assertEquals(3, requestedRanges.size());
+    }
+
+    @Test
+    void rejectsAChecksumMismatch() throws IOException {
+        Path jar = directory.resolve("client.jar");
+        String wrongSha1 = sha1(new byte[1]);
+
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> MinecraftDownloader.download(client(wrongSha1), jar).join());
+
+        assertTrue(String.valueOf(error.getCause().getMessage()).contains("SHA-1 mismatch"), error.toString());
+        assertFalse(Files.exists(jar));
+        // The corrupt parts are not resumed by the next attempt
+        assertEquals(List.of(), fileNames());
+    }
+
+    private MinecraftDownloader.ClientDownload client(String sha1) {
+        return new MinecraftDownloader.ClientDownload(
+                "http://localhost:" + server.getAddress().getPort() + "/client.jar", sha1, JAR.length);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            requestedRanges.add(range != null ? range : "none");
+
+            int start = 0;
+            int end = JAR.length - 1;
+            int status = 200;
+            if (supportsRanges && range != null) {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                start = Integer.parseInt(bounds[0]);
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+                status = 206;
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + JAR.length);
+            }
+            exchange.sendResponseHeaders(status, end - start + 1);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(JAR, start, end - start + 1);
+            }
+        }
+    }
+
+    private List<String> fileNames() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private static String sha1(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(14).nextBytes(bytes);
+        return bytes;
+    }
+}
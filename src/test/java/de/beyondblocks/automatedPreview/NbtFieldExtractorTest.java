@@ -0,0 +1,155 @@
+package de.beyondblocks.automatedPreview;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NbtFieldExtractorTest {
+    private static final int INHABITED_TIME = 0;
+    private static final int WORLD_SURFACE = 1;
+    private static final int Y_POS = 2;
+
+    /**
+     * A chunk like Minecraft writes it, with the requested fields behind tags of every other type.
+     */
+    private static NbtWriter chunk(long inhabitedTime, long[] worldSurface) {
+        return NbtWriter.root()
+                .intTag("DataVersion", 3955)
+                .stringTag("Status", "minecraft:full")
+                .doubleTag("Scale", 1.5)
+                .byteArray("Biomes", (byte) 1, (byte) 2, (byte) 3)
+                .intArray("Lights", 1, 2)
+                .list("block_entities", NbtWriter.TAG_COMPOUND, 2)
+                .stringTag("id", "minecraft:chest").list("Items", NbtWriter.TAG_INT, 2).value(1).value(2).end()
+                .intTag("x", 4).end()
+                .compound("Structures").compound("References").end().longTag("InhabitedTime", 99).end()
+                .compound("Heightmaps")
+                .longArray("MOTION_BLOCKING", 7, 8)
+                .longArray("WORLD_SURFACE", worldSurface)
+                .end()
+                .byteTag("yPos", -4)
+                .longTag("InhabitedTime", inhabitedTime)
+                .end();
+    }
+
+    private static NbtFieldExtractor extractor() {
+        return new NbtFieldExtractor("InhabitedTime", "Heightmaps.WORLD_SURFACE", "yPos");
+    }
+
+    @Test
+    void extractsRootAndNestedFields() throws IOException {
+        NbtFieldExtractor extractor = extractor();
+
+        assertTrue(extractor.extract(chunk(1200, new long[]{1, 2, 3}).toStream()));
+        assertEquals(1200, extractor.getLong(INHABITED_TIME));
+        assertEquals(-4, extractor.getInt(Y_POS));
+        assertEquals(3, extractor.getArrayLength(WORLD_SURFACE));
+        assertArrayEquals(new long[]{1, 2, 3}, Arrays.copyOf(extractor.getLongArray(WORLD_SURFACE), 3));
+    }
+
+    @Test
+    void ignoresFieldsWithTheSameNameInOtherCompounds() throws IOException {
+        NbtFieldExtractor extractor = new NbtFieldExtractor("InhabitedTime");
+
+        // Structures.InhabitedTime comes first but is not at the root level
+        assertTrue(extractor.extract(chunk(5, new long[0]).toStream()));
+        assertEquals(5, extractor.getLong(0));
+    }
+
+    @Test
+    void reportsMissingFields() throws IOException {
+        NbtFieldExtractor extractor = extractor();
+        byte[] data = NbtWriter.root().longTag("InhabitedTime", 3).end().toByteArray();
+
+        assertFalse(extractor.extract(new ByteArrayInputStream(data)));
+        assertTrue(extractor.has(INHABITED_TIME));
+        assertFalse(extractor.has(WORLD_SURFACE));
+        assertNull(extractor.getLongArray(WORLD_SURFACE));
+        assertEquals(0, extractor.getArrayLength(WORLD_SURFACE));
+        assertEquals(0, extractor.getInt(Y_POS));
+    }
+
+    @Test
+    void treatsFieldsOfUnsupportedTypesAsMissing() throws IOException {
+        NbtFieldExtractor extractor = new NbtFieldExtractor("InhabitedTime");
+        byte[] data = NbtWriter.root().doubleTag("InhabitedTime", 3).end().toByteArray();
+
+        assertFalse(extractor.extract(new ByteArrayInputStream(data)));
+        assertFalse(extractor.has(0));
+    }
+
+    @Test
+    void stopsReadingOnceAllFieldsAreFound() throws IOException {
+        NbtFieldExtractor extractor = new NbtFieldExtractor("xPos");
+        // Anything after the field would fail to parse
+        byte[] data = NbtWriter.root().shortTag("xPos", -2).raw(99, 0xFF, 0xFF).toByteArray();
+
+        assertTrue(extractor.extract(new ByteArrayInputStream(data)));
+        assertEquals(-2, extractor.getInt(0));
+    }
+
+    @Test
+    void resetsBetweenCalls() throws IOException {
+        NbtFieldExtractor extractor = extractor();
+        assertTrue(extractor.extract(chunk(1, new long[]{1, 2, 3, 4}).toStream()));
+
+        assertTrue(extractor.extract(chunk(2, new long[]{5, 6}).toStream()));
+        assertEquals(2, extractor.getLong(INHABITED_TIME));
+        assertEquals(2, extractor.getArrayLength(WORLD_SURFACE));
+        assertEquals(5, extractor.getLongArray(WORLD_SURFACE)[0]);
+        assertEquals(6, extractor.getLongArray(WORLD_SURFACE)[1]);
+
+        assertFalse(extractor.extract(NbtWriter.root().end().toStream()));
+        assertFalse(extractor.has(INHABITED_TIME));
+    }
+
+    @Test
+    void readsDataLargerThanTheBuffer() throws IOException {
+        NbtFieldExtractor extractor = new NbtFieldExtractor("Heightmaps.WORLD_SURFACE", "InhabitedTime");
+        long[] large = new long[5000];
+        Arrays.setAll(large, i -> i * 31L);
+        byte[] data = NbtWriter.root()
+                .longArray("Skipped", new long[3000])
+                .compound("Heightmaps").longArray("WORLD_SURFACE", large).end()
+                .longTag("InhabitedTime", 7)
+                .end().toByteArray();
+
+        assertTrue(extractor.extract(new ByteArrayInputStream(data)));
+        assertArrayEquals(large, Arrays.copyOf(extractor.getLongArray(0), extractor.getArrayLength(0)));
+        assertEquals(7, extractor.getLong(1));
+    }
+
+    @Test
+    void rejectsTruncatedData() {
+        byte[] data = chunk(1, new long[]{1, 2, 3}).toByteArray();
+        byte[] truncated = Arrays.copyOf(data, data.length - 12);
+
+        assertThrows(EOFException.class, () -> extractor().extract(new ByteArrayInputStream(truncated)));
+    }
+
+    @Test
+    void rejectsDataThatIsNotACompound() {
+        byte[] data = new NbtWriter().intTag("", 1).toByteArray();
+
+        assertThrows(IOException.class, () -> extractor().extract(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    void rejectsMoreThan64Fields() {
+        String[] fields = new String[65];
+        Arrays.setAll(fields, i -> "field" + i);
+
+        assertThrows(IllegalArgumentException.class, () -> new NbtFieldExtractor(fields));
+        assertThrows(IllegalArgumentException.class, NbtFieldExtractor::new);
+    }
+}
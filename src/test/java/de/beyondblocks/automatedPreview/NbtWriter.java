@@ -0,0 +1,157 @@
+package de.beyondblocks.automatedPreview;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes uncompressed NBT data for tests. Named tags are written with their type and name, the {@code value} methods
+ * write the bare payload of list elements.
+ */
+final class NbtWriter {
+    static final byte TAG_END = 0;
+    static final byte TAG_BYTE = 1;
+    static final byte TAG_SHORT = 2;
+    static final byte TAG_INT = 3;
+    static final byte TAG_LONG = 4;
+    static final byte TAG_FLOAT = 5;
+    static final byte TAG_DOUBLE = 6;
+    static final byte TAG_BYTE_ARRAY = 7;
+    static final byte TAG_STRING = 8;
+    static final byte TAG_LIST = 9;
+    static final byte TAG_COMPOUND = 10;
+    static final byte TAG_INT_ARRAY = 11;
+    static final byte TAG_LONG_ARRAY = 12;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    /**
+     * Starts the root compound.
+     */
+    static NbtWriter root() {
+        return new NbtWriter().compound("");
+    }
+
+    NbtWriter compound(String name) {
+        return header(TAG_COMPOUND, name);
+    }
+
+    /**
+     * Ends the current compound.
+     */
+    NbtWriter end() {
+        return write(() -> out.writeByte(TAG_END));
+    }
+
+    NbtWriter byteTag(String name, int value) {
+        return header(TAG_BYTE, name).write(() -> out.writeByte(value));
+    }
+
+    NbtWriter shortTag(String name, int value) {
+        return header(TAG_SHORT, name).write(() -> out.writeShort(value));
+    }
+
+    NbtWriter intTag(String name, int value) {
+        return header(TAG_INT, name).value(value);
+    }
+
+    NbtWriter longTag(String name, long value) {
+        return header(TAG_LONG, name).write(() -> out.writeLong(value));
+    }
+
+    NbtWriter doubleTag(String name, double value) {
+        return header(TAG_DOUBLE, name).write(() -> out.writeDouble(value));
+    }
+
+    NbtWriter stringTag(String name, String value) {
+        return header(TAG_STRING, name).value(value);
+    }
+
+    NbtWriter byteArray(String name, byte... values) {
+        return header(TAG_BYTE_ARRAY, name).write(() -> {
+            out.writeInt(values.length);
+            out.write(values);
+        });
+    }
+
+    NbtWriter intArray(String name, int... values) {
+        return header(TAG_INT_ARRAY, name).write(() -> {
+            out.writeInt(values.length);
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        });
+    }
+
+    NbtWriter longArray(String name, long... values) {
+        return header(TAG_LONG_ARRAY, name).write(() -> {
+            out.writeInt(values.length);
+            for (long value : values) {
+                out.writeLong(value);
+            }
+        });
+    }
+
+    /**
+     * Starts a list, followed by the payload of its elements. Compound elements are ended with {@link #end()}.
+     */
+    NbtWriter list(String name, byte elementType, int count) {
+        return header(TAG_LIST, name).write(() -> {
+            out.writeByte(elementType);
+            out.writeInt(count);
+        });
+    }
+
+    NbtWriter value(int value) {
+        return write(() -> out.writeInt(value));
+    }
+
+    NbtWriter value(String value) {
+        return write(() -> {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(utf8.length);
+            out.write(utf8);
+        });
+    }
+
+    /**
+     * Appends bytes as they are, e.g. to corrupt the data after a field.
+     */
+    NbtWriter raw(int... values) {
+        return write(() -> {
+            for (int value : values) {
+                out.writeByte(value);
+            }
+        });
+    }
+
+    byte[] toByteArray() {
+        return bytes.toByteArray();
+    }
+
+    InputStream toStream() {
+        return new ByteArrayInputStream(toByteArray());
+    }
+
+    private NbtWriter header(byte type, String name) {
+        return write(() -> out.writeByte(type)).value(name);
+    }
+
+    private NbtWriter write(Output output) {
+        try {
+            output.write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    private interface Output {
+        void write() throws IOException;
+    }
+}
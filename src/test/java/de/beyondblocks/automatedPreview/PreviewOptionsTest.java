@@ -0,0 +1,53 @@
+package de.beyondblocks.automatedPreview;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PreviewOptionsTest {
+    @Test
+    void rendersOneWorldAtATimeByDefault() {
+        PreviewOptions options = PreviewOptions.parse(new String[]{"world", "out"});
+
+        assertEquals(new File("world"), options.worldDirectory);
+        assertEquals(new File("out"), options.outputDirectory);
+        assertEquals(1, options.concurrentWorlds);
+    }
+
+    @Test
+    void serverRendersTwoWorldsAtATimeByDefault() {
+        PreviewOptions options = PreviewOptions.parse(new String[]{"--serve=8080"});
+
+        assertEquals(8080, options.serverPort);
+        assertEquals(2, options.concurrentWorlds);
+    }
+
+    @Test
+    void concurrentWorldsOverridesTheDefault() {
+        assertEquals(4, PreviewOptions.parse(new String[]{"--serve=8080", "--concurrent-worlds=4"}).concurrentWorlds);
+        assertEquals(3, PreviewOptions.parse(new String[]{"--batch=worlds.txt", "--concurrent-worlds=3"})
+                .concurrentWorlds);
+    }
+
+    @Test
+    void rejectsInvalidValues() {
+        assertThrows(IllegalArgumentException.class,
+                () -> PreviewOptions.parse(new String[]{"world", "--concurrent-worlds=0"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> PreviewOptions.parse(new String[]{"world", "--render-threads=many"}));
+        assertThrows(IllegalArgumentException.class, () -> PreviewOptions.parse(new String[]{"world", "--unknown"}));
+    }
+
+    @Test
+    void rejectsCombinedModes() {
+        assertThrows(IllegalArgumentException.class,
+                () -> PreviewOptions.parse(new String[]{"--serve=8080", "--batch=worlds.txt"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> PreviewOptions.parse(new String[]{"world", "--progressive", "--tile-size=128"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> PreviewOptions.parse(new String[]{"world", "--progressive", "--tile-pyramid"}));
+    }
+}
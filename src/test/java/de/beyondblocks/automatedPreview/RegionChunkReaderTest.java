@@ -0,0 +1,308 @@
+package de.beyondblocks.automatedPreview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegionChunkReaderTest {
+    private static final int SECTOR_SIZE = 4096;
+    private static final byte[] CHUNK = chunkData();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void decompressesLiterals() throws IOException {
+        byte[] out = decompressBlock(5, 0x50, 'h', 'e', 'l', 'l', 'o');
+
+        assertArrayEquals("hello".getBytes(StandardCharsets.US_ASCII), out);
+    }
+
+    @Test
+    void decompressesOverlappingMatches() throws IOException {
+        // "ab", then 8 bytes copied from 2 bytes back, then the last literal
+        byte[] out = decompressBlock(11, 0x24, 'a', 'b', 2, 0, 0x10, '!');
+
+        assertArrayEquals("ababababab!".getBytes(StandardCharsets.US_ASCII), out);
+    }
+
+    @Test
+    void decompressesLongLiteralsAndMatches() throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        // 300 literals: 15 in the token, then 255 + 30
+        block.write(0xFF);
+        block.write(255);
+        block.write(30);
+        byte[] literals = new byte[300];
+        new Random(18).nextBytes(literals);
+        block.writeBytes(literals);
+        // Match of 4 + 15 + 255 + 10 bytes at offset 1, its length continues after the offset
+        block.write(1);
+        block.write(0);
+        block.write(255);
+        block.write(10);
+        block.write(0x10);
+        block.write('y');
+
+        byte[] out = new byte[300 + 284 + 1];
+        RegionChunkReader.Lz4BlockInputStream.decompressBlock(ByteBuffer.wrap(block.toByteArray()), out, out.length);
+
+        assertArrayEquals(literals, Arrays.copyOf(out, 300));
+        for (int i = 300; i < 584; i++) {
+            assertEquals(literals[299], out[i]);
+        }
+        assertEquals('y', out[584]);
+    }
+
+    @Test
+    void rejectsCorruptBlocks() {
+        // Match offset 0
+        assertThrows(IOException.class, () -> decompressBlock(10, 0x14, 'a', 0, 0, 0x10, 'b'));
+        // Match reaching before the start of the output
+        assertThrows(IOException.class, () -> decompressBlock(10, 0x14, 'a', 2, 0, 0x10, 'b'));
+        // More output than announced
+        assertThrows(IOException.class, () -> decompressBlock(3, 0x50, 'h', 'e', 'l', 'l', 'o'));
+        // Input ends inside the literals
+        assertThrows(IOException.class, () -> decompressBlock(5, 0x50, 'h', 'e'));
+    }
+
+    @Test
+    void readsLz4BlockStreams() throws IOException {
+        byte[] lz4 = concat(
+                lz4Block(0x20, 11, 0x24, 'a', 'b', 2, 0, 0x10, '!'),
+                lz4Block(0x10, 3, 'r', 'a', 'w'),
+                lz4Block(0x10, 0));
+
+        try (InputStream in = new RegionChunkReader.Lz4BlockInputStream(ByteBuffer.wrap(lz4))) {
+            assertArrayEquals("ababababab!raw".getBytes(StandardCharsets.US_ASCII), in.readAllBytes());
+        }
+    }
+
+    @Test
+    void rejectsUnknownLz4Streams() {
+        byte[] data = lz4Block(0x20, 5, 0x50, 'h', 'e', 'l', 'l', 'o');
+        data[0] = 'X';
+
+        assertThrows(IOException.class,
+                () -> new RegionChunkReader.Lz4BlockInputStream(ByteBuffer.wrap(data)).readAllBytes());
+    }
+
+    @Test
+    void rejectsLz4BlocksLargerThanTheirLevelAllows() {
+        // Compression level 0 allows blocks up to 1 KiB
+        byte[] tooLong = concat(lz4Block(0x10, 1025, new byte[1025]), lz4Block(0x10, 0));
+        // Level 15 allows 32 MiB, the most of any level
+        byte[] huge = lz4Block(0x2F, Integer.MAX_VALUE, 0x50, 'h', 'e', 'l', 'l', 'o');
+
+        assertThrows(IOException.class,
+                () -> new RegionChunkReader.Lz4BlockInputStream(ByteBuffer.wrap(tooLong)).readAllBytes());
+        IOException e = assertThrows(IOException.class,
+                () -> new RegionChunkReader.Lz4BlockInputStream(ByteBuffer.wrap(huge)).readAllBytes());
+        assertEquals("Corrupt LZ4 block header", e.getMessage());
+    }
+
+    @Test
+    void readsEveryCompressionType() throws IOException {
+        // Compression level 7 allows blocks up to 128 KiB
+        byte[] lz4 = concat(lz4Block(0x17, CHUNK.length, CHUNK), lz4Block(0x10, 0));
+
+        assertArrayEquals(CHUNK, read(RegionChunkReader.GZIP, gzip(CHUNK)));
+        assertArrayEquals(CHUNK, read(RegionChunkReader.ZLIB, zlib(CHUNK)));
+        assertArrayEquals(CHUNK, read(RegionChunkReader.UNCOMPRESSED, CHUNK));
+        assertArrayEquals(CHUNK, read(RegionChunkReader.LZ4, lz4));
+        assertNull(open(region(9, new byte[]{1, 2, 3}), new RunMetrics("test", null)));
+    }
+
+    @Test
+    void countsTheBytes() throws IOException {
+        byte[] compressed = zlib(CHUNK);
+        RunMetrics metrics = new RunMetrics("test", null);
+
+        try (InputStream in = open(region(RegionChunkReader.ZLIB, compressed), metrics)) {
+            in.readAllBytes();
+        }
+
+        assertEquals(compressed.length, metrics.bytesRead.sum());
+        assertEquals(CHUNK.length, metrics.bytesInflated.sum());
+    }
+
+    @Test
+    void failsOnTruncatedDeflateData() throws IOException {
+        byte[] compressed = zlib(CHUNK);
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+
+        assertThrows(EOFException.class, () -> read(RegionChunkReader.ZLIB, truncated));
+        // The inflater of the thread is reset and works for the next chunk
+        assertArrayEquals(CHUNK, read(RegionChunkReader.ZLIB, compressed));
+    }
+
+    @Test
+    void readsExternalChunks() throws IOException {
+        Files.write(directory.resolve("c.3.-4.mcc"), zlib(CHUNK));
+        ByteBuffer region = region(RegionChunkReader.EXTERNAL | RegionChunkReader.ZLIB, new byte[0]);
+
+        try (InputStream in = RegionChunkReader.open(region, 2 << 8 | 1, directory.resolve("r.0.-1.mca").toFile(),
+                3, -4, new RunMetrics("test", null))) {
+            assertArrayEquals(CHUNK, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void nestedStreamsGetTheirOwnInflater() throws IOException {
+        ByteBuffer first = region(RegionChunkReader.ZLIB, zlib(CHUNK));
+        ByteBuffer second = region(RegionChunkReader.ZLIB, zlib(Arrays.copyOf(CHUNK, 100)));
+
+        try (InputStream outer = open(first, new RunMetrics("test", null))) {
+            assertEquals(CHUNK[0], (byte) outer.read());
+            try (InputStream inner = open(second, new RunMetrics("test", null))) {
+                assertEquals(100, inner.readAllBytes().length);
+            }
+            assertEquals(CHUNK.length - 1, outer.readAllBytes().length);
+        }
+    }
+
+    @Test
+    void streamsOutliveReleasedInflaters() throws Exception {
+        ForkJoinPool pool = RegionChunkReader.newPool(2);
+        try {
+            byte[] read = pool.submit(() -> {
+                try (InputStream in = open(region(RegionChunkReader.ZLIB, zlib(CHUNK)), new RunMetrics("test", null))) {
+                    byte[] start = in.readNBytes(10);
+                    RegionChunkReader.releaseInflaters();
+                    return concat(start, in.readAllBytes());
+                }
+            }).get();
+            assertArrayEquals(CHUNK, read);
+            // A new inflater is created after the release
+            assertArrayEquals(CHUNK, pool.submit(() -> read(RegionChunkReader.GZIP, gzip(CHUNK))).get());
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private static byte[] decompressBlock(int length, int... block) throws IOException {
+        byte[] out = new byte[length];
+        RegionChunkReader.Lz4BlockInputStream.decompressBlock(ByteBuffer.wrap(bytes(block)), out, length);
+        return out;
+    }
+
+    private static byte[] lz4Block(int token, int decompressedLength, int... data) {
+        return lz4Block(token, decompressedLength, bytes(data));
+    }
+
+    /**
+     * Block of lz4-java's block stream, with a zero checksum
+     *
+     * @param token method in the high bits, compression level in the low bits
+     */
+    private static byte[] lz4Block(int token, int decompressedLength, byte[] data) {
+        ByteBuffer block = ByteBuffer.allocate(21 + data.length).order(ByteOrder.LITTLE_ENDIAN);
+        block.put("LZ4Block".getBytes(StandardCharsets.US_ASCII));
+        block.put((byte) token);
+        block.putInt(data.length);
+        block.putInt(decompressedLength);
+        block.putInt(0);
+        block.put(data);
+        return block.array();
+    }
+
+    private File regionFile() {
+        return directory.resolve("r.0.0.mca").toFile();
+    }
+
+    private byte[] read(int compressionType, byte[] data) throws IOException {
+        try (InputStream in = open(region(compressionType, data), new RunMetrics("test", null))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private InputStream open(ByteBuffer region, RunMetrics metrics) throws IOException {
+        return RegionChunkReader.open(region, 2 << 8 | 1, regionFile(), 0, 0, metrics);
+    }
+
+    /**
+     * A region file with the chunk in the sector after the header
+     */
+    private static ByteBuffer region(int compressionType, byte[] data) {
+        int sectors = (5 + data.length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        ByteBuffer region = ByteBuffer.allocate((2 + sectors) * SECTOR_SIZE);
+        region.putInt(0, 2 << 8 | sectors);
+        region.position(2 * SECTOR_SIZE);
+        region.putInt(data.length + 1);
+        region.put((byte) compressionType);
+        region.put(data);
+        return region.clear();
+    }
+
+    private static byte[] zlib(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Compressible data larger than the buffers of the readers
+     */
+    private static byte[] chunkData() {
+        byte[] data = new byte[100_000];
+        Random random = new Random(4);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (random.nextInt(16) + i / 1000);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,104 @@
+package de.beyondblocks.automatedPreview;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenderSchedulerTest {
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+    private static final long TASK_NANOS = 200_000;
+    private static final int TASKS = 100;
+
+    @Test
+    void sharesTheThreadsByPriority() throws InterruptedException {
+        try (RenderScheduler scheduler = new RenderScheduler(1)) {
+            RenderScheduler.Job low = scheduler.newJob(metrics(), RenderScheduler.NORMAL_PRIORITY);
+            RenderScheduler.Job high = scheduler.newJob(metrics(), 3);
+
+            // Both jobs queue all of their tasks before the only thread is free
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            scheduler.newJob(metrics()).execute(() -> {
+                started.countDown();
+                await(release);
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch finished = new CountDownLatch(2 * TASKS);
+            for (int i = 0; i < TASKS; i++) {
+                low.execute(() -> spin(order, "low", finished));
+                high.execute(() -> spin(order, "high", finished));
+            }
+            release.countDown();
+            assertTrue(finished.await(30, TimeUnit.SECONDS));
+
+            // While both jobs have tasks queued, the high priority job gets three of every four tasks
+            long highTasks = order.subList(0, 80).stream().filter("high"::equals).count();
+            assertTrue(highTasks >= 52 && highTasks <= 68, "High priority tasks: " + highTasks + " of 80");
+        }
+    }
+
+    @Test
+    void runsTheTasksOfAJobInOrder() throws InterruptedException {
+        try (RenderScheduler scheduler = new RenderScheduler(1)) {
+            RenderScheduler.Job job = scheduler.newJob(metrics());
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch finished = new CountDownLatch(10);
+            for (int i = 0; i < 10; i++) {
+                int task = i;
+                job.execute(() -> {
+                    order.add(task);
+                    finished.countDown();
+                });
+            }
+            assertTrue(finished.await(10, TimeUnit.SECONDS));
+
+            assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), order);
+        }
+    }
+
+    @Test
+    void rejectsPrioritiesOutOfRange() {
+        try (RenderScheduler scheduler = new RenderScheduler(1)) {
+            assertThrows(IllegalArgumentException.class, () -> scheduler.newJob(metrics(), 0));
+            assertThrows(IllegalArgumentException.class,
+                    () -> scheduler.newJob(metrics(), RenderScheduler.MAX_PRIORITY + 1));
+        }
+    }
+
+    private static RunMetrics metrics() {
+        return new RunMetrics("world", null);
+    }
+
+    /**
+     * Uses about the same CPU time as every other task, which is what the scheduler charges to the job.
+     */
+    private static void spin(List<String> order, String job, CountDownLatch finished) {
+        order.add(job);
+        boolean cpu = THREAD_BEAN.isCurrentThreadCpuTimeSupported();
+        long start = cpu ? THREAD_BEAN.getCurrentThreadCpuTime() : System.nanoTime();
+        while ((cpu ? THREAD_BEAN.getCurrentThreadCpuTime() : System.nanoTime()) - start < TASK_NANOS) {
+            Thread.onSpinWait();
+        }
+        finished.countDown();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
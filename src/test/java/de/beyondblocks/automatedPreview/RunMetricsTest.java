@@ -0,0 +1,58 @@
+package de.beyondblocks.automatedPreview;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RunMetricsTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsProcessValuesApartFromTheRun() {
+        RunMetrics metrics = new RunMetrics("world", "overworld");
+        metrics.start(RunMetrics.SCAN_REGIONS).close();
+        metrics.startOnThread(RunMetrics.ENCODE).close();
+        metrics.chunksScanned.add(3);
+
+        JSONObject json = metrics.toJson(null);
+
+        JSONObject phases = json.getJSONObject("phases");
+        assertTrue(phases.getJSONObject(RunMetrics.SCAN_REGIONS).has("wall_ms"));
+        assertFalse(phases.getJSONObject(RunMetrics.SCAN_REGIONS).has("cpu_ms"));
+        assertTrue(phases.getJSONObject(RunMetrics.ENCODE).has("cpu_ms"));
+        assertFalse(json.has("peak_heap_bytes"));
+
+        JSONObject process = json.getJSONObject("process");
+        assertTrue(process.getLong("peak_heap_bytes") > 0);
+        assertTrue(process.getJSONObject("phase_cpu_ms").has(RunMetrics.SCAN_REGIONS));
+        assertFalse(process.getJSONObject("phase_cpu_ms").has(RunMetrics.ENCODE));
+        assertEquals(3, json.getJSONObject("counters").getLong("chunks_scanned"));
+    }
+
+    @Test
+    void prometheusLabelsOnlyTheValuesOfTheRunWithTheWorld() throws IOException {
+        RunMetrics metrics = new RunMetrics("world", null);
+        metrics.add(RunMetrics.ENCODE, 2_000_000_000L, 1_000_000_000L);
+        metrics.start(RunMetrics.TRACE).close();
+        File file = directory.resolve("metrics.prom").toFile();
+
+        RunMetrics.writePrometheus(file, List.of(metrics), null);
+
+        String text = Files.readString(file.toPath());
+        assertTrue(text.contains("automated_preview_phase_cpu_seconds{world=\"world\",phase=\"encode\"} 1.0\n"), text);
+        assertFalse(text.contains("automated_preview_phase_cpu_seconds{world=\"world\",phase=\"trace\"}"), text);
+        assertTrue(text.contains("automated_preview_phase_process_cpu_seconds{world=\"world\",phase=\"trace\"}"), text);
+        assertTrue(text.contains("\nautomated_preview_peak_heap_bytes "), text);
+    }
+}
@@ -0,0 +1,211 @@
+package de.beyondblocks.automatedPreview;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SurfaceChunkReaderTest {
+    private static final String AIR = "minecraft:air";
+    private static final String STONE = "minecraft:stone";
+    private static final String WATER = "minecraft:water";
+    private static final String BEDROCK = "minecraft:bedrock";
+    private static final String NETHERRACK = "minecraft:netherrack";
+
+    /**
+     * Packs values like Minecraft since 1.16: as many as fit into every long, none spanning two longs.
+     */
+    private static long[] pack(int[] values, int bits) {
+        int valuesPerLong = 64 / bits;
+        long[] packed = new long[(values.length + valuesPerLong - 1) / valuesPerLong];
+        for (int i = 0; i < values.length; i++) {
+            packed[i / valuesPerLong] |= (long) values[i] << (i % valuesPerLong * bits);
+        }
+        return packed;
+    }
+
+    private static int blockIndex(int x, int y, int z) {
+        return (y & 15) << 8 | z << 4 | x;
+    }
+
+    /**
+     * Writes a section compound, blocks are indices into the palette or null for a section of a single block.
+     */
+    private static void section(NbtWriter nbt, int y, int[] blocks, String... palette) {
+        nbt.byteTag("Y", y).compound("block_states").list("palette", NbtWriter.TAG_COMPOUND, palette.length);
+        for (String block : palette) {
+            nbt.stringTag("Name", block).compound("Properties").stringTag("level", "0").end().end();
+        }
+        if (blocks != null) {
+            nbt.longArray("data", pack(blocks, 4));
+        }
+        nbt.end().compound("biomes").list("palette", NbtWriter.TAG_STRING, 1).value("minecraft:plains").end().end();
+    }
+
+    /**
+     * Heightmap values are the height above the highest block, relative to the bottom of the chunk.
+     */
+    private static long[] heightmap(int minY, int[] surface) {
+        int[] values = new int[256];
+        for (int i = 0; i < 256; i++) {
+            values[i] = surface[i] == SurfaceChunkReader.NO_BLOCK ? 0 : surface[i] - minY + 1;
+        }
+        return pack(values, 9);
+    }
+
+    /**
+     * An overworld chunk with bedrock at the bottom and a stone layer at y 48. Column 0, 0 is stone up to y 57 with
+     * water up to y 60, column 15, 15 is empty.
+     */
+    private static NbtWriter overworldChunk() {
+        int[] blocks = new int[4096];
+        int[] surface = new int[256];
+        int[] oceanFloor = new int[256];
+        for (int z = 0; z < 16; z++) {
+            for (int x = 0; x < 16; x++) {
+                boolean empty = x == 15 && z == 15;
+                blocks[blockIndex(x, 48, z)] = empty ? 0 : 1;
+                surface[z << 4 | x] = empty ? SurfaceChunkReader.NO_BLOCK : 48;
+                oceanFloor[z << 4 | x] = surface[z << 4 | x];
+            }
+        }
+        for (int y = 49; y <= 60; y++) {
+            blocks[blockIndex(0, y, 0)] = y <= 57 ? 1 : 2;
+        }
+        surface[0] = 60;
+        oceanFloor[0] = 57;
+
+        NbtWriter nbt = NbtWriter.root()
+                .intTag("DataVersion", 3955)
+                .compound("Heightmaps")
+                .longArray("MOTION_BLOCKING", new long[37])
+                .longArray("WORLD_SURFACE", heightmap(-64, surface))
+                .longArray("OCEAN_FLOOR", heightmap(-64, oceanFloor))
+                .end()
+                .list("sections", NbtWriter.TAG_COMPOUND, 2);
+        section(nbt, -4, null, BEDROCK);
+        section(nbt, 3, blocks, AIR, STONE, WATER);
+        // yPos comes after the heightmaps, like in chunks written by Minecraft
+        return nbt.intTag("yPos", -4).end();
+    }
+
+    @Test
+    void readsTheSurfaceAndTheBlocks() throws IOException {
+        SurfaceChunkReader reader = new SurfaceChunkReader();
+
+        assertTrue(reader.read(overworldChunk().toStream()));
+        assertEquals(60, reader.surfaceY(0, 0));
+        assertEquals(WATER, reader.blockAt(0, 60, 0));
+        assertEquals(57, reader.oceanFloorY(0, 0));
+        assertEquals(STONE, reader.blockAt(0, 57, 0));
+        assertEquals(48, reader.surfaceY(3, 4));
+        assertEquals(STONE, reader.blockAt(3, 48, 4));
+        assertEquals(AIR, reader.blockAt(3, 49, 4));
+        assertEquals(SurfaceChunkReader.NO_BLOCK, reader.surfaceY(15, 15));
+        assertEquals(AIR, reader.blockAt(15, 48, 15));
+    }
+
+    @Test
+    void blockAtUsesTheOnlyPaletteEntryOfSectionsWithoutData() throws IOException {
+        SurfaceChunkReader reader = new SurfaceChunkReader();
+        reader.read(overworldChunk().toStream());
+
+        assertEquals(BEDROCK, reader.blockAt(0, -64, 0));
+        assertEquals(BEDROCK, reader.blockAt(15, -49, 15));
+        assertNull(reader.blockAt(0, -48, 0));
+        assertNull(reader.blockAt(0, 100, 0));
+    }
+
+    @Test
+    void columnsBelowTheCeilingKeepTheirSurface() throws IOException {
+        SurfaceChunkReader reader = new SurfaceChunkReader();
+        reader.read(overworldChunk().toStream());
+
+        assertEquals(60, reader.surfaceY(0, 0, PreviewDimension.OVERWORLD.maxY));
+        assertEquals(SurfaceChunkReader.NO_BLOCK, reader.surfaceY(15, 15, PreviewDimension.OVERWORLD.maxY));
+    }
+
+    @Test
+    void netherColumnsAreFollowedBelowTheRoof() throws IOException {
+        // Bedrock at 127, a netherrack roof down to 118, a cave down to 106 and netherrack below. Column 1, 0 is solid.
+        int[] upper = new int[4096];
+        int[] lower = new int[4096];
+        for (int y = 96; y < 128; y++) {
+            int block = y == 127 ? 2 : y >= 118 || y <= 105 ? 1 : 0;
+            int[] blocks = y >= 112 ? upper : lower;
+            blocks[blockIndex(0, y, 0)] = block;
+            blocks[blockIndex(1, y, 0)] = y == 127 ? 2 : 1;
+        }
+        int[] surface = new int[256];
+        surface[0] = 127;
+        surface[1] = 127;
+        for (int i = 2; i < 256; i++) {
+            surface[i] = SurfaceChunkReader.NO_BLOCK;
+        }
+
+        NbtWriter nbt = NbtWriter.root()
+                .intTag("yPos", 0)
+                .compound("Heightmaps").longArray("WORLD_SURFACE", heightmap(0, surface)).end()
+                .list("sections", NbtWriter.TAG_COMPOUND, 2);
+        section(nbt, 6, lower, AIR, NETHERRACK, BEDROCK);
+        section(nbt, 7, upper, AIR, NETHERRACK, BEDROCK);
+        SurfaceChunkReader reader = new SurfaceChunkReader();
+        assertTrue(reader.read(nbt.end().toStream()));
+
+        assertEquals(127, reader.surfaceY(0, 0));
+        assertEquals(105, reader.surfaceY(0, 0, PreviewDimension.NETHER.maxY));
+        assertEquals(NETHERRACK, reader.blockAt(0, 105, 0));
+        assertEquals(SurfaceChunkReader.NO_BLOCK, reader.surfaceY(1, 0, PreviewDimension.NETHER.maxY));
+    }
+
+    @Test
+    void reportsChunksWithoutHeightmap() throws IOException {
+        SurfaceChunkReader reader = new SurfaceChunkReader();
+
+        assertFalse(reader.read(NbtWriter.root().intTag("yPos", -4).stringTag("Status", "minecraft:noise").end()
+                .toStream()));
+        assertEquals(SurfaceChunkReader.NO_BLOCK, reader.surfaceY(0, 0));
+        assertEquals(SurfaceChunkReader.NO_BLOCK, reader.oceanFloorY(0, 0));
+    }
+
+    @Test
+    void decodeHeightmapConvertsHeightsToTheHighestBlock() {
+        int[] values = new int[256];
+        for (int i = 0; i < 256; i++) {
+            values[i] = i * 3 % 385;
+        }
+        int[] target = new int[256];
+
+        assertTrue(SurfaceChunkReader.decodeHeightmap(pack(values, 9), 37, -64, target));
+        for (int i = 0; i < 256; i++) {
+            assertEquals(values[i] == 0 ? SurfaceChunkReader.NO_BLOCK : values[i] - 65, target[i], "Column " + i);
+        }
+    }
+
+    @Test
+    void decodeHeightmapReadsOtherBitsPerValue() {
+        // Any width that packs 256 values without spanning two longs is accepted
+        int[] values = new int[256];
+        for (int i = 0; i < 256; i++) {
+            values[i] = 255 - i;
+        }
+        int[] target = new int[256];
+
+        assertTrue(SurfaceChunkReader.decodeHeightmap(pack(values, 8), 32, 0, target));
+        assertEquals(254, target[0]);
+        assertEquals(SurfaceChunkReader.NO_BLOCK, target[255]);
+    }
+
+    @Test
+    void decodeHeightmapRejectsUnknownFormats() {
+        int[] target = new int[256];
+
+        assertFalse(SurfaceChunkReader.decodeHeightmap(new long[64], 0, 0, target));
+        // 36 longs fit 256 values only with values spanning two longs, which is the format before 1.16
+        assertFalse(SurfaceChunkReader.decodeHeightmap(new long[64], 36, 0, target));
+    }
+}
@@ -0,0 +1,106 @@
+package de.beyondblocks.automatedPreview;
+
+import org.junit.jupiter.api.Test;
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.main.ChunkyOptions;
+import se.llbit.chunky.renderer.scene.Scene;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TileLayoutTest {
+    private static final int MIN_Y = -64;
+    private static final int MAX_Y = 320;
+    private static final int TILE_SIZE = 100;
+
+    @Test
+    void tilesAreClippedToTheImage() {
+        FramedView view = new FramedView(PreviewView.ISOMETRIC.get(0), null, 250, 100);
+
+        assertEquals(3, TileLayout.columns(view, TILE_SIZE));
+        assertEquals(1, TileLayout.rows(view, TILE_SIZE));
+        assertEquals(new TileLayout.Tile(200, 0, 250, 100, null), TileLayout.tile(view, TILE_SIZE, 2, 0, null));
+        assertEquals(new TileLayout.Tile(100, 0, 200, 100, null), TileLayout.tile(view, TILE_SIZE, 1, 0, null));
+    }
+
+    @Test
+    void everyChunkWithTerrainIsInTheTilesItOverlaps() {
+        ChunkSet chunks = ChunkSet.square(0, 0, 6);
+        ColumnHeightGrid heights = ColumnHeightGrid.covering(chunks);
+        chunks.forEach((chunkX, chunkZ) -> {
+            // Leaves out a stripe of chunks without terrain
+            if (chunkX != 2) {
+                heights.set(chunkX, chunkZ, 64 + 4 * chunkZ);
+            }
+        });
+        FramedView view = frame(heights);
+        int columns = TileLayout.columns(view, TILE_SIZE);
+        int rows = TileLayout.rows(view, TILE_SIZE);
+        ChunkSet[] expected = new ChunkSet[columns * rows];
+
+        List<TileLayout.Tile> tiles = TileLayout.split(view, chunks, heights, MIN_Y, MAX_Y, TILE_SIZE,
+                (chunkX, chunkZ, firstColumn, lastColumn, firstRow, lastRow) -> {
+                    assertTrue(0 <= firstColumn && firstColumn <= lastColumn && lastColumn < columns);
+                    assertTrue(0 <= firstRow && firstRow <= lastRow && lastRow < rows);
+                    for (int row = firstRow; row <= lastRow; row++) {
+                        for (int column = firstColumn; column <= lastColumn; column++) {
+                            if (expected[row * columns + column] == null) {
+                                expected[row * columns + column] = new ChunkSet();
+                            }
+                            expected[row * columns + column].add(chunkX, chunkZ);
+                        }
+                    }
+                });
+
+        ChunkSet inTiles = new ChunkSet();
+        for (TileLayout.Tile tile : tiles) {
+            assertEquals(0, tile.x0() % TILE_SIZE);
+            assertEquals(0, tile.y0() % TILE_SIZE);
+            ChunkSet tileChunks = expected[(tile.y0() / TILE_SIZE) * columns + tile.x0() / TILE_SIZE];
+            assertEquals(tileChunks.size(), tile.chunks().size());
+            tile.chunks().forEach((chunkX, chunkZ) -> {
+                assertTrue(tileChunks.contains(chunkX, chunkZ));
+                inTiles.add(chunkX, chunkZ);
+            });
+        }
+        // The view shows the whole box, so every chunk with terrain is in a tile
+        chunks.forEach((chunkX, chunkZ) -> assertEquals(chunkX != 2, inTiles.contains(chunkX, chunkZ),
+                "Chunk " + chunkX + ", " + chunkZ));
+    }
+
+    @Test
+    void tilesOnlyContainChunksTheyShow() {
+        ChunkSet chunks = ChunkSet.square(0, 0, 6);
+        FramedView view = frame(ColumnHeightGrid.covering(chunks));
+        ViewFraming.Projection projection = ViewFraming.Projection.of(view.camera());
+        double halfWidth = view.width() / (2.0 * view.height());
+        // The margin of two blocks, plus rounding to pixels
+        double margin = 2 * view.height() / projection.blocksPerUnit() + 1;
+
+        List<TileLayout.Tile> tiles = TileLayout.split(view, chunks, null, MIN_Y, MAX_Y, TILE_SIZE);
+
+        assertTrue(tiles.size() > 1, "The view has to be split to test anything");
+        for (TileLayout.Tile tile : tiles) {
+            assertFalse(tile.chunks().isEmpty());
+            tile.chunks().forEach((chunkX, chunkZ) -> {
+                double[] screen = projection.project(new ViewFraming.Bounds(chunkX * 16, MIN_Y, chunkZ * 16,
+                        chunkX * 16 + 16, MAX_Y, chunkZ * 16 + 16));
+                double left = (screen[0] + halfWidth) * view.height();
+                double right = (screen[1] + halfWidth) * view.height();
+                double top = (screen[2] + 0.5) * view.height();
+                double bottom = (screen[3] + 0.5) * view.height();
+                assertTrue(left - margin < tile.x1() && right + margin > tile.x0()
+                                && top - margin < tile.y1() && bottom + margin > tile.y0(),
+                        "Chunk " + chunkX + ", " + chunkZ + " is outside of tile " + tile);
+            });
+        }
+    }
+
+    private static FramedView frame(ColumnHeightGrid heights) {
+        Scene scene = new Chunky(ChunkyOptions.getDefaults()).getSceneFactory().newScene();
+        return ViewFraming.frame(scene, PreviewView.ISOMETRIC, ViewFraming.Bounds.of(heights, MIN_Y, MAX_Y), 2).get(0);
+    }
+}
@@ -0,0 +1,138 @@
+package de.beyondblocks.automatedPreview;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TilePyramidTest {
+    private static final int OPAQUE = 0xFF000000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void averagesOpaquePixels() {
+        PreviewFrame frame = frame(2, 2, OPAQUE | 0x000000, OPAQUE | 0x0A1400, OPAQUE | 0x14000A, OPAQUE | 0x1E1E1F);
+
+        // 0 + 10 + 20 + 30 = 60, 0 + 20 + 0 + 30 = 50 and 0 + 0 + 10 + 31 = 41, rounded half up
+        assertArrayEquals(new int[]{OPAQUE | 0x0F0D0A}, downsample(frame).pixels());
+    }
+
+    @Test
+    void weightsColorsByAlpha() {
+        // The colour of transparent pixels must not bleed into their neighbours
+        PreviewFrame frame = frame(2, 2, 0xFFFF0000, 0x0000FF00, 0x0000FF00, 0x000000FF);
+
+        assertArrayEquals(new int[]{0x40FF0000}, downsample(frame).pixels());
+    }
+
+    @Test
+    void keepsTransparentAreasTransparent() {
+        PreviewFrame frame = frame(2, 2, 0x00FFFFFF, 0x00FFFFFF, 0, 0);
+
+        assertArrayEquals(new int[]{0}, downsample(frame).pixels());
+    }
+
+    @Test
+    void repeatsTheLastRowAndColumnOfOddSizes() {
+        PreviewFrame frame = frame(3, 3,
+                OPAQUE | 0x10, OPAQUE | 0x10, OPAQUE | 0x40,
+                OPAQUE | 0x10, OPAQUE | 0x10, OPAQUE | 0x40,
+                OPAQUE | 0x80, OPAQUE | 0x80, OPAQUE | 0xF0);
+
+        PreviewFrame next = downsample(frame);
+
+        assertEquals(2, next.width());
+        assertEquals(2, next.height());
+        assertArrayEquals(new int[]{OPAQUE | 0x10, OPAQUE | 0x40, OPAQUE | 0x80, OPAQUE | 0xF0}, next.pixels());
+    }
+
+    @Test
+    void downsamplesInParallelBands() throws Exception {
+        // A gradient, so every target pixel is known: the average of red 2x, 2x + 1 is 2x + 1 when rounded half up
+        PreviewFrame frame = new PreviewFrame(256, 256);
+        for (int y = 0; y < 256; y++) {
+            for (int x = 0; x < 256; x++) {
+                frame.pixels()[y * 256 + x] = OPAQUE | x << 16 | y << 8 | 7;
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        PreviewFrame next;
+        try {
+            next = TilePyramid.downsample(frame, executor).get();
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int y = 0; y < 128; y++) {
+            for (int x = 0; x < 128; x++) {
+                assertEquals(OPAQUE | (2 * x + 1) << 16 | (2 * y + 1) << 8 | 7, next.pixels()[y * 128 + x],
+                        "Pixel " + x + ", " + y);
+            }
+        }
+    }
+
+    @Test
+    void writesLevelsUntilOneTileAndSkipsTransparentTiles() throws Exception {
+        PreviewFrame frame = new PreviewFrame(300, 200);
+        // Only the left half is drawn, the tiles at x >= 256 of level 0 stay transparent
+        for (int y = 0; y < 200; y++) {
+            Arrays.fill(frame.pixels(), y * 300, y * 300 + 150, OPAQUE | 0x336699);
+        }
+        File output = directory.toFile();
+        // Left over from a larger pyramid
+        Files.writeString(createLevel(3).resolve("0_0.png"), "stale");
+        Files.writeString(createLevel(0).resolve("5_5.png"), "stale");
+
+        try (RenderScheduler scheduler = new RenderScheduler(2)) {
+            new TilePyramid(128).write(frame, output, scheduler.newJob(new RunMetrics("test", null))).get();
+        }
+
+        JSONObject index = new JSONObject(Files.readString(directory.resolve(TilePyramid.INDEX_FILE), StandardCharsets.UTF_8));
+        assertEquals(3, index.getJSONArray("levels").length());
+        assertEquals(150, index.getJSONArray("levels").getJSONObject(1).getInt("width"));
+        assertEquals(75, index.getJSONArray("levels").getJSONObject(2).getInt("width"));
+        assertEquals(4, index.getJSONArray("levels").getJSONObject(0).getJSONArray("tiles").length());
+
+        assertTrue(Files.isRegularFile(directory.resolve("0/1_1.png")));
+        assertFalse(Files.exists(directory.resolve("0/2_0.png")), "Transparent tile was written");
+        assertFalse(Files.exists(directory.resolve("0/5_5.png")), "Stale tile was kept");
+        assertFalse(Files.exists(directory.resolve("3")), "Stale level was kept");
+
+        BufferedImage top = ImageIO.read(directory.resolve("2/0_0.png").toFile());
+        assertEquals(75, top.getWidth());
+        assertEquals(50, top.getHeight());
+        assertEquals(OPAQUE | 0x336699, top.getRGB(10, 10));
+    }
+
+    private Path createLevel(int level) throws IOException {
+        return Files.createDirectories(directory.resolve(String.valueOf(level)));
+    }
+
+    private static PreviewFrame downsample(PreviewFrame frame) {
+        return TilePyramid.downsample(frame, Runnable::run).join();
+    }
+
+    private static PreviewFrame frame(int width, int height, int... pixels) {
+        PreviewFrame frame = new PreviewFrame(width, height);
+        System.arraycopy(pixels, 0, frame.pixels(), 0, pixels.length);
+        return frame;
+    }
+}
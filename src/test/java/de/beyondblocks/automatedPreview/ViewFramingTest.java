@@ -0,0 +1,97 @@
+package de.beyondblocks.automatedPreview;
+
+import org.junit.jupiter.api.Test;
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.main.ChunkyOptions;
+import se.llbit.chunky.renderer.scene.Scene;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ViewFramingTest {
+    private static final int MIN_Y = -64;
+    private static final int MAX_Y = 320;
+    private static final double EPSILON = 1e-6;
+
+    @Test
+    void boundsCoverChunksWithTerrain() {
+        ChunkSet chunks = ChunkSet.square(0, 0, 4);
+        ColumnHeightGrid grid = ColumnHeightGrid.covering(chunks);
+        grid.set(-2, 1, 70);
+        grid.set(3, -4, 90);
+
+        assertEquals(new ViewFraming.Bounds(-32, MIN_Y, -64, 64, 90, 32), ViewFraming.Bounds.of(grid, MIN_Y, MAX_Y));
+    }
+
+    @Test
+    void boundsReachUpToMaxYIfAnyHeightIsUnknown() {
+        ChunkSet chunks = ChunkSet.square(0, 0, 1);
+        ColumnHeightGrid grid = ColumnHeightGrid.covering(chunks);
+        grid.set(0, 0, 70);
+        grid.set(1, 1, ColumnHeightGrid.UNKNOWN);
+
+        assertEquals(new ViewFraming.Bounds(0, MIN_Y, 0, 32, MAX_Y, 32), ViewFraming.Bounds.of(grid, MIN_Y, MAX_Y));
+    }
+
+    @Test
+    void boundsCoverTheWholeGridWithoutTerrain() {
+        ChunkSet chunks = ChunkSet.square(10, -10, 2);
+
+        assertEquals(new ViewFraming.Bounds(128, MIN_Y, -192, 208, MAX_Y, -112),
+                ViewFraming.Bounds.of(ColumnHeightGrid.covering(chunks), MIN_Y, MAX_Y));
+    }
+
+    @Test
+    void boundsAreAtLeastOneBlockHigh() {
+        ChunkSet chunks = new ChunkSet();
+        chunks.add(0, 0);
+        ColumnHeightGrid grid = ColumnHeightGrid.covering(chunks);
+        grid.set(0, 0, MIN_Y);
+
+        assertEquals(MIN_Y + 1, ViewFraming.Bounds.of(grid, MIN_Y, MAX_Y).maxY());
+    }
+
+    @Test
+    void noBoundsForAnEmptyGrid() {
+        assertNull(ViewFraming.Bounds.of(ColumnHeightGrid.covering(new ChunkSet()), MIN_Y, MAX_Y));
+    }
+
+    @Test
+    void everyViewShowsTheWholeBox() {
+        Scene scene = new Chunky(ChunkyOptions.getDefaults()).getSceneFactory().newScene();
+        ViewFraming.Bounds bounds = new ViewFraming.Bounds(-200, MIN_Y, -80, 120, 140, 300);
+
+        List<FramedView> views = ViewFraming.frame(scene, PreviewView.ISOMETRIC, bounds, 0);
+
+        assertEquals(PreviewView.ISOMETRIC.size(), views.size());
+        for (FramedView view : views) {
+            double halfWidth = view.width() / (2.0 * view.height());
+            double[] screen = ViewFraming.Projection.of(view.camera()).project(bounds);
+            String name = "View " + view.view().index();
+            assertTrue(screen[0] >= -halfWidth - EPSILON && screen[1] <= halfWidth + EPSILON, name + " is cut off horizontally");
+            assertTrue(screen[2] >= -0.5 - EPSILON && screen[3] <= 0.5 + EPSILON, name + " is cut off vertically");
+            // Only the padding is left on the side that limits the scale
+            double fill = Math.max((screen[1] - screen[0]) / (2 * halfWidth), screen[3] - screen[2]);
+            assertTrue(fill > 0.9, name + " fills only " + fill + " of the image");
+            assertTrue(screen[4] > 0, name + " has its camera inside the box");
+        }
+    }
+
+    @Test
+    void canvasSizeFollowsThePixelsPerBlock() {
+        Scene scene = new Chunky(ChunkyOptions.getDefaults()).getSceneFactory().newScene();
+        ViewFraming.Bounds bounds = new ViewFraming.Bounds(0, MIN_Y, 0, 256, 100, 256);
+
+        FramedView single = ViewFraming.frame(scene, PreviewView.ISOMETRIC, bounds, 1).get(0);
+        FramedView twice = ViewFraming.frame(scene, PreviewView.ISOMETRIC, bounds, 2).get(0);
+
+        assertTrue(Math.abs(twice.width() - 2 * single.width()) <= 2, single.width() + " and " + twice.width());
+        assertTrue(Math.abs(twice.height() - 2 * single.height()) <= 2, single.height() + " and " + twice.height());
+        // Limited to 4096 pixels per side
+        FramedView huge = ViewFraming.frame(scene, PreviewView.ISOMETRIC, bounds, 1000).get(0);
+        assertEquals(4096, Math.max(huge.width(), huge.height()));
+    }
+}
@@ -0,0 +1,80 @@
+package se.llbit.chunky.renderer.scene;
+
+import org.junit.jupiter.api.Test;
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.main.ChunkyOptions;
+import se.llbit.chunky.renderer.WorkerState;
+import se.llbit.math.Ray;
+import se.llbit.math.Vector3;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The tracer must produce the same images as before its settings were cached and its allocations removed. The scene
+ * has no chunks, so the images show the sky, the clouds and the water plane, which are the parts that changed.
+ */
+class CustomPreviewRayTracerTest {
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+  /** Pitches from looking up to looking down, so both sides of the water plane and the clouds are hit */
+  private static final double[] PITCHES = {-Math.PI, -3 * Math.PI / 4, -Math.PI / 2, -Math.PI / 4, 0};
+
+  @Test
+  void matchesReferenceWithoutPlanes() {
+    assertSameImages(scene(false, false, false));
+  }
+
+  @Test
+  void matchesReferenceWithClouds() {
+    assertSameImages(scene(true, false, false));
+  }
+
+  @Test
+  void matchesReferenceWithWaterPlane() {
+    assertSameImages(scene(false, true, false));
+  }
+
+  @Test
+  void matchesReferenceWithClippedWaterPlaneAndClouds() {
+    assertSameImages(scene(true, true, true));
+  }
+
+  private static Scene scene(boolean clouds, boolean waterPlane, boolean chunkClip) {
+    Scene scene = new Chunky(ChunkyOptions.getDefaults()).getSceneFactory().newScene();
+    scene.sky().setCloudsEnabled(clouds);
+    scene.setWaterPlaneEnabled(waterPlane);
+    scene.setWaterPlaneHeight(63);
+    scene.setWaterPlaneChunkClip(chunkClip);
+    scene.camera().setPosition(new Vector3(0.5, 100, 0.5));
+    return scene;
+  }
+
+  private static void assertSameImages(Scene scene) {
+    RayTracer tracer = new CustomPreviewRayTracer(scene);
+    RayTracer reference = new ReferencePreviewRayTracer();
+    long colors = 0;
+
+    for (double pitch : PITCHES) {
+      scene.camera().setView(Math.PI / 3, pitch, 0);
+      int[] expected = trace(scene, reference);
+      int[] actual = trace(scene, tracer);
+      assertArrayEquals(expected, actual, "Image differs at pitch " + pitch);
+      colors = Math.max(colors, Arrays.stream(actual).distinct().count());
+    }
+    assertTrue(colors > 1, "Every view is a single colour and does not test anything");
+  }
+
+  private static int[] trace(Scene scene, RayTracer tracer) {
+    ViewTracer viewTracer = new ViewTracer(scene, scene.camera(), tracer, WIDTH, HEIGHT);
+    WorkerState state = new WorkerState();
+    state.ray = new Ray();
+    state.random = new Random(0);
+    int[] argb = new int[WIDTH * HEIGHT];
+    viewTracer.trace(0, 0, WIDTH, HEIGHT, 1, false, argb, state);
+    return argb;
+  }
+}